@@ -15,6 +15,7 @@ package com.dynamo.bob.archive.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -25,19 +26,27 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.dynamo.bob.Project;
 import com.dynamo.bob.archive.ArchiveEntry;
 import com.dynamo.bob.archive.ArchiveBuilder;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.pipeline.ResourceNode;
+import com.dynamo.bob.util.FileCache;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
 
@@ -142,6 +151,203 @@ public class ArchiveTest {
         ar.close();
     }
 
+    private byte[][] writeArchive(int numThreads, List<String> files, List<String> excludedResources) throws IOException {
+        return writeArchive(numThreads, files, excludedResources, null);
+    }
+
+    private byte[][] writeArchive(int numThreads, List<String> files, List<String> excludedResources, FileCache compressionCache) throws IOException {
+        return writeArchive(numThreads, files, excludedResources, compressionCache, null);
+    }
+
+    // The previous archive is read from and the new archive copied to previousDir when set
+    private byte[][] writeArchive(int numThreads, List<String> files, List<String> excludedResources, FileCache compressionCache, File previousDir) throws IOException {
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        manifestBuilder.setProjectIdentifier("test");
+        ArchiveBuilder ab = new ArchiveBuilder(contentRoot, manifestBuilder);
+        ExecutorService executor = numThreads > 1 ? Project.createThreadPool(numThreads) : null;
+        ab.setExecutor(executor);
+        ab.setCompressionCache(compressionCache);
+        File previousIndex = new File(previousDir, "game.arci");
+        File previousData = new File(previousDir, "game.arcd");
+        if (previousDir != null) {
+            ab.setPreviousArchive(previousIndex, previousData, new File(previousDir, "game.arcd.sources"));
+        }
+
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ResourceNode collection = addEntryToManifest("main.collectionc", root);
+        ResourceNode proxy = addEntryToManifest("level.collectionproxyc", collection);
+        for (int i = 0; i < files.size(); ++i) {
+            ab.add(FilenameUtils.concat(contentRoot, files.get(i)), i % 3 != 0);
+            addEntryToManifest(files.get(i), i % 2 == 0 ? collection : proxy);
+        }
+        manifestBuilder.setDependencies(root);
+
+        FileUtils.cleanDirectory(resourcePackDir.toFile());
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        try {
+            ab.write(outFileIndex, outFileData, resourcePackDir, excludedResources);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        outFileIndex.close();
+        outFileData.close();
+        if (previousDir != null) {
+            FileUtils.copyFile(outputIndex, previousIndex);
+            FileUtils.copyFile(outputData, previousData);
+        }
+
+        return new byte[][] {
+            FileUtils.readFileToByteArray(outputIndex),
+            FileUtils.readFileToByteArray(outputData),
+            manifestBuilder.buildManifestData().toByteArray(),
+            new byte[] { (byte) resourcePackDir.toFile().list().length },
+            new byte[] { (byte) ab.getReusedEntryCount() }
+        };
+    }
+
+    private List<String> createRandomFiles() throws IOException {
+        Random random = new Random(0);
+        List<String> files = new ArrayList<String>();
+        String[] exts = { "goc", "luac", "texturec", "scriptc" };
+        for (int i = 0; i < 64; ++i) {
+            String filename = String.format("file%d.%s", i, exts[i % exts.length]);
+            byte[] data = new byte[random.nextInt(32 * 1024)];
+            // Make every other file compressible
+            if (i % 2 == 0) {
+                random.nextBytes(data);
+            }
+            createDummyFile(contentRoot, filename, data);
+            files.add(filename);
+        }
+        return files;
+    }
+
+    @Test
+    public void testParallelWrite() throws IOException {
+        List<String> files = createRandomFiles();
+        List<String> excludedResources = new ArrayList<String>();
+        excludedResources.add("/level.collectionproxyc");
+
+        byte[][] expected = writeArchive(1, files, excludedResources);
+        byte[][] actual = writeArchive(4, files, excludedResources);
+        for (int i = 0; i < expected.length; ++i) {
+            assertArrayEquals(expected[i], actual[i]);
+        }
+        assertTrue(expected[3][0] > 0);
+    }
+
+    @Test
+    public void testCompressionCache() throws IOException {
+        List<String> files = createRandomFiles();
+        List<String> excludedResources = new ArrayList<String>();
+        File cacheDir = Files.createTempDirectory("tmp.defold.compressioncache_").toFile();
+        try {
+            byte[][] expected = writeArchive(1, files, excludedResources);
+
+            FileCache cache = new FileCache(cacheDir, 64 * 1024 * 1024);
+            byte[][] actual = writeArchive(4, files, excludedResources, cache);
+            for (int i = 0; i < expected.length; ++i) {
+                assertArrayEquals(expected[i], actual[i]);
+            }
+            assertEquals(0, cache.getHits());
+            long misses = cache.getMisses();
+            assertTrue(misses > 0);
+
+            cache = new FileCache(cacheDir, 64 * 1024 * 1024);
+            actual = writeArchive(4, files, excludedResources, cache);
+            for (int i = 0; i < expected.length; ++i) {
+                assertArrayEquals(expected[i], actual[i]);
+            }
+            assertEquals(misses, cache.getHits());
+            assertEquals(0, cache.getMisses());
+
+            // Every entry is larger than the max size
+            cache = new FileCache(cacheDir, 1);
+            assertEquals(misses, cache.evict());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testIncrementalWrite() throws IOException {
+        List<String> files = createRandomFiles();
+        List<String> excludedResources = new ArrayList<String>();
+        excludedResources.add("/level.collectionproxyc");
+        File previousDir = Files.createTempDirectory("tmp.defold.previousarchive_").toFile();
+        try {
+            // Nothing to reuse without a previous archive
+            byte[][] expected = writeArchive(1, files, excludedResources);
+            byte[][] actual = writeArchive(4, files, excludedResources, null, previousDir);
+            for (int i = 0; i < 4; ++i) {
+                assertArrayEquals(expected[i], actual[i]);
+            }
+            assertEquals(0, actual[4][0]);
+
+            // Only the changed file is written from scratch
+            createDummyFile(contentRoot, files.get(4), "changed".getBytes());
+            expected = writeArchive(1, files, excludedResources);
+            actual = writeArchive(4, files, excludedResources, null, previousDir);
+            for (int i = 0; i < 4; ++i) {
+                assertArrayEquals(expected[i], actual[i]);
+            }
+            assertTrue(expected[3][0] > 0);
+            // Entries excluded in the previous archive aren't reused
+            assertEquals(files.size() / 2 - 1, actual[4][0]);
+
+            // A source index not matching the previous archive only affects what is reused
+            FileUtils.copyFile(new File(previousDir, "game.arcd.sources"), new File(contentRoot, "sources"));
+            actual = writeArchive(1, files, new ArrayList<String>(), null, previousDir);
+            FileUtils.copyFile(new File(contentRoot, "sources"), new File(previousDir, "game.arcd.sources"));
+            expected = writeArchive(1, files, excludedResources);
+            actual = writeArchive(1, files, excludedResources, null, previousDir);
+            for (int i = 0; i < 4; ++i) {
+                assertArrayEquals(expected[i], actual[i]);
+            }
+        } finally {
+            FileUtils.deleteDirectory(previousDir);
+        }
+    }
+
+    @Test
+    public void testReaderLookup() throws IOException {
+        List<String> files = createRandomFiles();
+        writeArchive(4, files, new ArrayList<String>());
+
+        List<String> expected = new ArrayList<String>();
+        for (String file : files) {
+            expected.add(new String(Hex.encodeHex(DigestUtils.sha1(FileUtils.readFileToByteArray(new File(contentRoot, file))))));
+        }
+
+        ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), null);
+        ar.read();
+        List<ArchiveEntry> entries = ar.getEntries();
+        assertEquals(files.size(), entries.size());
+        for (ArchiveEntry entry : entries) {
+            assertTrue(entry == ar.findEntry(entry.hash));
+            assertTrue(entry == ar.findEntry(Arrays.copyOf(entry.hash, ArchiveBuilder.HASH_LENGTH)));
+        }
+        assertNull(ar.findEntry(new byte[ArchiveBuilder.HASH_LENGTH]));
+
+        List<String> actual = new ArrayList<String>();
+        List<byte[]> contents = ar.getDecompressedContents(4);
+        for (int i = 0; i < entries.size(); ++i) {
+            assertArrayEquals(ar.getDecompressedContent(entries.get(i)), contents.get(i));
+            actual.add(new String(Hex.encodeHex(DigestUtils.sha1(contents.get(i)))));
+        }
+        ar.close();
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
     @Test
     public void testEntriesOrder() throws IOException {
 
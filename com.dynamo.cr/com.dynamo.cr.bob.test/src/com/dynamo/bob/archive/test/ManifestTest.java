@@ -546,4 +546,34 @@ public class ManifestTest {
         assertEquals("/main/main.collectionc",          parents.get(0).get(0));
     }
 
+    @Test
+    public void testGetParentCollectionsNested() throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
+        ManifestInstance instance = new ManifestInstance();
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ResourceNode outer = new ResourceNode("/main/outer.collectionc", "test/main/outer.collectionc");
+        ResourceNode goc = new ResourceNode("/main/nested.goc", "test/main/nested.goc");
+        ResourceNode inner = new ResourceNode("/main/inner.collectionc", "test/main/inner.collectionc");
+        root.addChild(outer);
+        outer.addChild(goc);
+        goc.addChild(inner);
+        // Occurrence below another occurrence of the same resource is covered by the outer one
+        inner.addChild(new ResourceNode("/main/nested.goc", "test/main/nested.goc"));
+        goc.addChild(new ResourceNode("/main/nested.scriptc", "test/main/nested.scriptc"));
+        instance.manifestBuilder.setDependencies(root);
+
+        List<ArrayList<String>> parents = instance.manifestBuilder.getParentCollections("/main/nested.goc");
+        assertEquals(1, parents.size());
+        assertEquals(1, parents.get(0).size());
+        assertEquals("/main/outer.collectionc", parents.get(0).get(0));
+
+        List<String> dependants = instance.manifestBuilder.getDependants("/main/nested.goc");
+        assertEquals(3, dependants.size());
+        assertEquals("/main/inner.collectionc", dependants.get(0));
+        assertEquals("/main/nested.scriptc", dependants.get(1));
+        assertEquals("/main/nested.goc", dependants.get(2));
+
+        assertEquals(0, instance.manifestBuilder.getParentCollections("/main/missing.goc").size());
+        assertEquals(0, instance.manifestBuilder.getDependants("/main/missing.goc").size());
+    }
+
 }
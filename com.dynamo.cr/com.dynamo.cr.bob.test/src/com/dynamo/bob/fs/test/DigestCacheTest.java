@@ -0,0 +1,183 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.DigestCache;
+
+public class DigestCacheTest {
+
+    private File root;
+    private File cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        root = File.createTempFile("digest_cache_test", "");
+        root.delete();
+        root.mkdirs();
+        cacheFile = new File(root, "digest_cache");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(root);
+    }
+
+    private static byte[] sha1(byte[] content) throws Exception {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+        sha1.update(content);
+        return sha1.digest();
+    }
+
+    private File createFile(String name, byte[] content) throws Exception {
+        File file = new File(root, name);
+        FileUtils.writeByteArrayToFile(file, content);
+        return file;
+    }
+
+    private DigestCache loadCache() {
+        DigestCache cache = new DigestCache(cacheFile);
+        cache.load();
+        return cache;
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        byte[] content = new byte[100 * 1024];
+        new Random(0).nextBytes(content);
+        File file = createFile("a.bin", content);
+
+        DigestCache cache = loadCache();
+        assertArrayEquals(sha1(content), cache.sha1("a.bin", file));
+        assertArrayEquals(sha1(content), cache.sha1("a.bin", file));
+        DigestCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.misses);
+        assertEquals(content.length, stats.bytesHashed);
+        cache.save();
+
+        cache = loadCache();
+        assertArrayEquals(sha1(content), cache.sha1("a.bin", file));
+        stats = cache.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(0, stats.misses);
+        assertEquals(0, stats.bytesHashed);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        File file = createFile("a.bin", new byte[] { 1, 2, 3 });
+        DigestCache cache = loadCache();
+        cache.sha1("a.bin", file);
+        cache.save();
+
+        // Same modification time but different size
+        long mTime = file.lastModified();
+        byte[] content = new byte[] { 1, 2, 3, 4 };
+        FileUtils.writeByteArrayToFile(file, content);
+        file.setLastModified(mTime);
+
+        cache = loadCache();
+        assertArrayEquals(sha1(content), cache.sha1("a.bin", file));
+        assertEquals(1, cache.getStats().misses);
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        File a = createFile("a.bin", new byte[] { 1 });
+        File b = createFile("b.bin", new byte[] { 2 });
+        DigestCache cache = loadCache();
+        cache.sha1("a.bin", a);
+        cache.save();
+        long length = cacheFile.length();
+
+        cache = loadCache();
+        cache.sha1("a.bin", a);
+        cache.save();
+        // Nothing changed
+        assertEquals(length, cacheFile.length());
+
+        cache.sha1("b.bin", b);
+        cache.save();
+        assertTrue(cacheFile.length() > length);
+
+        cache = loadCache();
+        assertArrayEquals(sha1(new byte[] { 1 }), cache.sha1("a.bin", a));
+        assertArrayEquals(sha1(new byte[] { 2 }), cache.sha1("b.bin", b));
+        assertEquals(0, cache.getStats().misses);
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        byte[] content = new byte[] { 1, 2, 3 };
+        File file = createFile("a.bin", content);
+        FileUtils.writeByteArrayToFile(cacheFile, new byte[] { (byte) 0xac, (byte) 0xed, 0, 5, 1, 2 });
+
+        DigestCache cache = loadCache();
+        assertArrayEquals(sha1(content), cache.sha1("a.bin", file));
+        assertEquals(1, cache.getStats().misses);
+        cache.save();
+
+        cache = loadCache();
+        cache.sha1("a.bin", file);
+        assertEquals(0, cache.getStats().misses);
+    }
+
+    @Test
+    public void testTruncatedEntry() throws Exception {
+        File a = createFile("a.bin", new byte[] { 1 });
+        File b = createFile("b.bin", new byte[] { 2 });
+        File c = createFile("c.bin", new byte[] { 3 });
+        DigestCache cache = loadCache();
+        cache.sha1("a.bin", a);
+        cache.save();
+        cache.sha1("b.bin", b);
+        cache.save();
+
+        // Cut the appended entry in the middle of its path, as by a crash while saving
+        byte[] data = FileUtils.readFileToByteArray(cacheFile);
+        FileUtils.writeByteArrayToFile(cacheFile, Arrays.copyOf(data, data.length - 8 - 8 - 8 - 20 - 3));
+
+        cache = loadCache();
+        cache.sha1("a.bin", a);
+        cache.sha1("b.bin", b);
+        cache.sha1("c.bin", c);
+        assertEquals(2, cache.getStats().misses);
+        cache.save();
+
+        cache = loadCache();
+        assertArrayEquals(sha1(new byte[] { 1 }), cache.sha1("a.bin", a));
+        assertArrayEquals(sha1(new byte[] { 2 }), cache.sha1("b.bin", b));
+        assertArrayEquals(sha1(new byte[] { 3 }), cache.sha1("c.bin", c));
+        assertEquals(0, cache.getStats().misses);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingFile() throws Exception {
+        DigestCache cache = loadCache();
+        cache.sha1("missing.bin", new File(root, "missing.bin"));
+    }
+}
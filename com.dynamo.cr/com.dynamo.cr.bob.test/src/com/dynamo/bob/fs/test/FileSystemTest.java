@@ -12,13 +12,25 @@
 
 package com.dynamo.bob.fs.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -26,8 +38,11 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.DefaultResource;
 import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem.IWalker;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.fs.ZipMountPoint;
 import com.dynamo.bob.test.TestLibrariesRule;
 
 public class FileSystemTest {
@@ -60,6 +75,122 @@ public class FileSystemTest {
         assertTrue(results.contains("test_lib4.zip"));
     }
 
+    private static byte[] sha1(byte[] content) throws Exception {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+        sha1.update(content);
+        return sha1.digest();
+    }
+
+    private DefaultFileSystem createTempFileSystem() throws Exception {
+        File root = File.createTempFile("bob_fs", "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        DefaultFileSystem fs = new DefaultFileSystem();
+        fs.setRootDirectory(root.getAbsolutePath());
+        fs.setBuildDirectory("build");
+        return fs;
+    }
+
+    @Test
+    public void testSha1() throws Exception {
+        DefaultFileSystem fs = createTempFileSystem();
+        try {
+            // Larger than the digest buffer to read in several chunks
+            byte[] content = new byte[200 * 1024 + 17];
+            new Random(0).nextBytes(content);
+            IResource resource = fs.get("test.bin");
+            resource.setContent(content);
+            assertArrayEquals(sha1(content), resource.sha1());
+            assertArrayEquals(sha1(content), resource.sha1());
+
+            // Same modification time but different size
+            File file = new File(resource.getAbsPath());
+            long mTime = file.lastModified();
+            byte[] newContent = new byte[] { 1, 2, 3 };
+            resource.setContent(newContent);
+            file.setLastModified(mTime);
+            assertArrayEquals(sha1(newContent), resource.sha1());
+        } finally {
+            FileUtils.deleteDirectory(new File(fs.getRootDirectory()));
+        }
+    }
+
+    @Test
+    public void testSha1Concurrent() throws Exception {
+        final DefaultFileSystem fs = createTempFileSystem();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            byte[] content = new byte[1024 * 1024];
+            new Random(0).nextBytes(content);
+            fs.get("shared.bin").setContent(content);
+            List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 32; ++i) {
+                results.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return fs.get("shared.bin").sha1();
+                    }
+                }));
+            }
+            byte[] expected = sha1(content);
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+            FileUtils.deleteDirectory(new File(fs.getRootDirectory()));
+        }
+    }
+
+    @Test
+    public void testMountPointIndex() throws Exception {
+        String root = testLibs.getServerLocation();
+        this.fileSystem.addMountPoint(new ZipMountPoint(this.fileSystem, root + "/test_lib1.zip"));
+        this.fileSystem.addMountPoint(new ZipMountPoint(this.fileSystem, root + "/test_lib2.zip"));
+
+        IResource resource = this.fileSystem.get("/test_lib1/file1.in");
+        assertFalse(resource instanceof DefaultResource);
+        assertEquals("file1", new String(resource.getContent()));
+        assertSame(resource, this.fileSystem.get("test_lib1/file1.in"));
+        assertFalse(this.fileSystem.get("test_lib2/file2.in") instanceof DefaultResource);
+
+        // Paths outside the included directories are not provided by the libraries
+        assertTrue(this.fileSystem.get("test_lib1.zip") instanceof DefaultResource);
+        assertTrue(this.fileSystem.get("game.project") instanceof DefaultResource);
+
+        this.fileSystem.clearMountPoints();
+        IResource unmounted = this.fileSystem.get("test_lib1/file1.in");
+        assertTrue(unmounted instanceof DefaultResource);
+        assertNotSame(resource, unmounted);
+    }
+
+    @Test
+    public void testGetConcurrent() throws Exception {
+        final DefaultFileSystem fs = createTempFileSystem();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<IResource>> results = new ArrayList<Future<IResource>>();
+            for (int i = 0; i < 256; ++i) {
+                final String path = String.format("dir/file%d.in", i % 16);
+                results.add(executor.submit(new Callable<IResource>() {
+                    @Override
+                    public IResource call() throws Exception {
+                        return fs.get(path).changeExt(".out");
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); ++i) {
+                IResource resource = results.get(i).get();
+                assertEquals(String.format("build/dir/file%d.out", i % 16), resource.getPath());
+                assertSame(fs.get(resource.getPath()), resource);
+            }
+        } finally {
+            executor.shutdown();
+            FileUtils.deleteDirectory(new File(fs.getRootDirectory()));
+        }
+    }
+
     private static class ZipWalker extends FileSystemWalker {
         @Override
         public void handleFile(String path, Collection<String> results) {
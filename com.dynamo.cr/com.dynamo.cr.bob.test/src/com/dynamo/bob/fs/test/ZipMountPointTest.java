@@ -12,11 +12,20 @@
 
 package com.dynamo.bob.fs.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -53,6 +62,47 @@ public class ZipMountPointTest {
         assertEquals(new String(resource.getContent()), "file1");
     }
 
+    @Test
+    public void testSha1() throws Exception {
+        IResource resource = mp.get("test_lib1/file1.in");
+        MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+        sha1.update(resource.getContent());
+        assertArrayEquals(sha1.digest(), resource.sha1());
+    }
+
+    @Test
+    public void testDigestCache() throws Exception {
+        File cacheFile = new File("server_root/test_lib1.zip.digests");
+        byte[] content = mp.get("test_lib1/file1.in").getContent();
+        MessageDigest sha1 = MessageDigest.getInstance("SHA1");
+        byte[] expected = sha1.digest(content);
+        assertArrayEquals(expected, mp.get("test_lib1/file1.in").sha1());
+        mp.saveCache();
+        assertTrue(cacheFile.isFile());
+
+        // Tamper with the cached digest to verify that it's used when mounted again
+        byte[] cache = Files.readAllBytes(cacheFile.toPath());
+        cache[cache.length - 1] ^= 0xff;
+        Files.write(cacheFile.toPath(), cache);
+        ZipMountPoint mp2 = new ZipMountPoint(null, "server_root/test_lib1.zip");
+        mp2.mount();
+        byte[] cached = mp2.get("test_lib1/file1.in").sha1();
+        mp2.unmount();
+        assertFalse(Arrays.equals(expected, cached));
+
+        // A new version of the library (different sha1 comment) invalidates the cache
+        mp.unmount();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream("server_root/test_lib1.zip"))) {
+            out.setComment("112");
+            out.putNextEntry(new ZipEntry("game.project"));
+            out.write("[library]\ninclude_dirs=test_lib1".getBytes());
+            out.putNextEntry(new ZipEntry("test_lib1/file1.in"));
+            out.write(content);
+        }
+        mp.mount();
+        assertArrayEquals(expected, mp.get("test_lib1/file1.in").sha1());
+    }
+
     @Test
     public void testMount() throws Exception {
         ZipMountPoint mp = new ZipMountPoint(null, "server_root/test_lib2.zip");
@@ -93,6 +93,10 @@ public abstract class AbstractProtoBuilderTest {
         return messages;
     }
 
+    protected Project getProject() {
+        return this.project;
+    }
+
     protected byte[] getFile(String file) throws IOException {
         return this.fileSystem.get(file).getContent();
     }
@@ -14,11 +14,18 @@ package com.dynamo.bob.pipeline;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.junit.Test;
 
+import com.dynamo.bob.Project;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.ImageCache;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.google.protobuf.Message;
@@ -40,4 +47,64 @@ public class AtlasBuilderTest extends AbstractProtoBuilderTest {
         int expectedSize = (16 * 16 + 8 * 8 + 4 * 4 + 2 * 2 + 1) * 4;
         assertEquals(expectedSize, textureImage.getAlternatives(0).getData().size());
     }
+
+    @Test
+    public void testLoadImages() throws Exception {
+        addImage("/a.png", 16, 16);
+        addImage("/b.png", 8, 32);
+        addImage("/c.png", 16, 16);
+        IResource a = getProject().getResource("/a.png");
+        IResource b = getProject().getResource("/b.png");
+        IResource c = getProject().getResource("/c.png");
+        List<IResource> resources = Arrays.asList(a, b, a, c);
+
+        ImageCache cache = new ImageCache(1024 * 1024);
+        List<BufferedImage> images = AtlasUtil.loadImages(resources, cache, null);
+        assertEquals(4, images.size());
+        assertEquals(16, images.get(0).getWidth());
+        assertEquals(8, images.get(1).getWidth());
+        assertEquals(32, images.get(1).getHeight());
+        assertSame(images.get(0), images.get(2));
+        // a and c have the same content and are decoded once
+        assertSame(images.get(0), images.get(3));
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        ExecutorService executor = Project.createThreadPool(4);
+        try {
+            List<BufferedImage> cached = AtlasUtil.loadImages(resources, cache, executor);
+            for (int i = 0; i < images.size(); ++i) {
+                assertSame(images.get(i), cached.get(i));
+            }
+
+            List<BufferedImage> decoded = AtlasUtil.loadImages(resources, null, executor);
+            assertEquals(4, decoded.size());
+            assertSame(decoded.get(0), decoded.get(2));
+            assertEquals(8, decoded.get(1).getWidth());
+            assertEquals(16, decoded.get(3).getWidth());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testImageCacheEviction() throws Exception {
+        BufferedImage a = new BufferedImage(16, 16, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage b = new BufferedImage(16, 16, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage c = new BufferedImage(16, 16, BufferedImage.TYPE_4BYTE_ABGR);
+        ImageCache cache = new ImageCache(2 * 16 * 16 * 4);
+        cache.put("a", a);
+        cache.put("b", b);
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+        // b is the least recently used
+        assertEquals(null, cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertSame(c, cache.get("c"));
+        assertEquals(2 * 16 * 16 * 4, cache.getSize());
+
+        cache.put("large", new BufferedImage(64, 64, BufferedImage.TYPE_4BYTE_ABGR));
+        assertEquals(null, cache.get("large"));
+        assertSame(a, cache.get("a"));
+    }
 }
@@ -0,0 +1,116 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jagatoo.loaders.models.collada.stax.XMLCOLLADA;
+
+import com.dynamo.rig.proto.Rig;
+
+/**
+ * Benchmark for loading large meshes with ColladaUtil, run with:
+ * java -cp bob.jar:bob-test.jar com.dynamo.bob.pipeline.ColladaUtilBenchmark [grid size] [iterations]
+ *
+ * The mesh is a grid of size x size quads with per face normals, i.e. 2 * size * size
+ * triangles where most vertices are shared by several corners. Both parsing the document
+ * and loading the mesh from it are measured.
+ */
+public class ColladaUtilBenchmark {
+
+    static String createGrid(int size) {
+        int vertexSize = size + 1;
+        StringBuilder sb = new StringBuilder(size * size * 64);
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<COLLADA xmlns=\"http://www.collada.org/2005/11/COLLADASchema\" version=\"1.4.1\">\n");
+        sb.append("<asset><unit name=\"meter\" meter=\"1\"/><up_axis>Y_UP</up_axis></asset>\n");
+        sb.append("<library_geometries><geometry id=\"Grid-mesh\" name=\"Grid\"><mesh>\n");
+
+        sb.append("<source id=\"Grid-mesh-positions\"><float_array id=\"Grid-mesh-positions-array\" count=\"").append(vertexSize * vertexSize * 3).append("\">");
+        for (int y = 0; y < vertexSize; ++y) {
+            for (int x = 0; x < vertexSize; ++x) {
+                sb.append(x).append(' ').append(y).append(' ').append((x * y) % 7).append(' ');
+            }
+        }
+        sb.append("</float_array></source>\n");
+
+        sb.append("<source id=\"Grid-mesh-normals\"><float_array id=\"Grid-mesh-normals-array\" count=\"6\">0 0 1 0 1 0</float_array></source>\n");
+
+        sb.append("<source id=\"Grid-mesh-map\"><float_array id=\"Grid-mesh-map-array\" count=\"").append(vertexSize * vertexSize * 2).append("\">");
+        for (int y = 0; y < vertexSize; ++y) {
+            for (int x = 0; x < vertexSize; ++x) {
+                sb.append((float) x / size).append(' ').append((float) y / size).append(' ');
+            }
+        }
+        sb.append("</float_array></source>\n");
+
+        sb.append("<vertices id=\"Grid-mesh-vertices\"><input semantic=\"POSITION\" source=\"#Grid-mesh-positions\"/></vertices>\n");
+        sb.append("<triangles count=\"").append(size * size * 2).append("\">\n");
+        sb.append("<input semantic=\"VERTEX\" source=\"#Grid-mesh-vertices\" offset=\"0\"/>\n");
+        sb.append("<input semantic=\"NORMAL\" source=\"#Grid-mesh-normals\" offset=\"1\"/>\n");
+        sb.append("<input semantic=\"TEXCOORD\" source=\"#Grid-mesh-map\" offset=\"2\" set=\"0\"/>\n");
+        sb.append("<p>");
+        for (int y = 0; y < size; ++y) {
+            for (int x = 0; x < size; ++x) {
+                int v0 = y * vertexSize + x;
+                int v1 = v0 + 1;
+                int v2 = v0 + vertexSize;
+                int v3 = v2 + 1;
+                int normal = (x + y) % 2;
+                for (int v : new int[] {v0, v1, v2, v2, v1, v3}) {
+                    sb.append(v).append(' ').append(normal).append(' ').append(v).append(' ');
+                }
+            }
+        }
+        sb.append("</p></triangles>\n");
+        sb.append("</mesh></geometry></library_geometries>\n");
+        sb.append("</COLLADA>\n");
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        byte[] dae = createGrid(size).getBytes(StandardCharsets.UTF_8);
+        XMLCOLLADA collada = null;
+        // Warm up
+        for (int i = 0; i < 2; ++i) {
+            collada = ColladaUtil.loadDAE(new ByteArrayInputStream(dae));
+        }
+        long parseStart = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            collada = ColladaUtil.loadDAE(new ByteArrayInputStream(dae));
+        }
+        double parseMs = (System.nanoTime() - parseStart) / 1e6 / iterations;
+        System.out.println(String.format("bytes: %d parse: %10.1f ms", dae.length, parseMs));
+
+        for (boolean optimize : new boolean[] {false, true}) {
+            Rig.MeshSet meshSet = null;
+            // Warm up
+            for (int i = 0; i < 2; ++i) {
+                Rig.MeshSet.Builder builder = Rig.MeshSet.newBuilder();
+                ColladaUtil.loadMesh(collada, builder, optimize);
+                meshSet = builder.build();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                Rig.MeshSet.Builder builder = Rig.MeshSet.newBuilder();
+                ColladaUtil.loadMesh(collada, builder, optimize);
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / iterations;
+            System.out.println(String.format("triangles: %d optimize: %-5b vertices: %8d %10.1f ms", size * size * 2, optimize,
+                    meshSet.getMeshAttachments(0).getVerticesCount(), ms));
+        }
+    }
+}
@@ -13,6 +13,7 @@
 package com.dynamo.bob.pipeline;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -22,6 +23,7 @@ import java.io.InputStream;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -35,6 +37,8 @@ import javax.vecmath.Tuple4i;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4f;
 
+import org.jagatoo.loaders.models.collada.stax.StAXArrayParser;
+import org.jagatoo.loaders.models.collada.stax.XMLIntArray;
 import org.junit.Test;
 
 import com.dynamo.bob.util.MathUtil;
@@ -298,6 +302,34 @@ public class ColladaUtilTest {
         assertNrm(nrm, 0,  0,  1,  0);
     }
 
+    /*
+     * Tests that corners sharing all indices are welded into a single vertex
+     */
+    @Test
+    public void testWeldVertices() throws Exception {
+        // Corners 0, 3 and 5 share all indices, corner 4 only the position
+        int[] positions = new int[] {0, 1, 2, 0, 0, 0, 3};
+        int[] texcoords = new int[] {0, 1, 2, 0, 1, 0, 3};
+        int[] normals = new int[]   {5, 5, 5, 5, 5, 5, 5};
+        int[] vertices = new int[positions.length * 3];
+        int[] indices = new int[positions.length];
+
+        int count = ColladaUtil.weldVertices(positions, texcoords, normals, positions.length, true, vertices, indices);
+        assertEquals(5, count);
+        assertArrayEquals(new int[] {0, 1, 2, 0, 3, 0, 4}, indices);
+        assertArrayEquals(new int[] {0, 0, 5, 1, 1, 5, 2, 2, 5, 0, 1, 5, 3, 3, 5}, Arrays.copyOf(vertices, count * 3));
+
+        // Without optimization every corner is a vertex of its own, normals default to 0
+        count = ColladaUtil.weldVertices(positions, texcoords, null, positions.length, false, vertices, indices);
+        assertEquals(positions.length, count);
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i, indices[i]);
+            assertEquals(positions[i], vertices[i*3]);
+            assertEquals(texcoords[i], vertices[i*3+1]);
+            assertEquals(0, vertices[i*3+2]);
+        }
+    }
+
     /*
      * Tests mesh node scaling vs mesh scaled vertices
      */
@@ -1023,6 +1055,57 @@ public class ColladaUtilTest {
         assertEquals(0.0, meshSetBuilder.getMeshAttachments(0).getPositions(2), EPSILON);
     }
 
+    private static void appendChunks(StAXArrayParser parser, String text, int chunkSize) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i += chunkSize) {
+            parser.append(chars, i, Math.min(chunkSize, chars.length - i));
+        }
+    }
+
+    /*
+     * Tests that array values are parsed the same as by Float.parseFloat and Integer.parseInt,
+     * also when the text is split in several character events
+     */
+    @Test
+    public void testParseArrays() throws Exception {
+        String[] values = new String[] {"0", "-0", "1", "-1.5", "+2.25", ".5", "1.", "0.1", "3.14159265358979",
+                "1e3", "-2.5E-7", "1e-40", "3.4028235e38", "1e39", "0.000001234", "16777217", "123456789.123456789",
+                "NaN", "-Infinity", "1.5f", "-1.#IND00", "."};
+        StringBuilder text = new StringBuilder();
+        for (String value : values) {
+            text.append(value).append(" \t\n");
+        }
+        for (int chunkSize : new int[] {1, 2, 3, 7, text.length()}) {
+            StAXArrayParser.Floats parser = new StAXArrayParser.Floats(4);
+            appendChunks(parser, text.toString(), chunkSize);
+            float[] floats = parser.toArray();
+            assertEquals(values.length, floats.length);
+            for (int i = 0; i < values.length; ++i) {
+                float expected;
+                try {
+                    expected = Float.parseFloat(values[i]);
+                } catch (NumberFormatException e) {
+                    expected = 0.0f;
+                }
+                assertEquals(values[i], Float.floatToIntBits(expected), Float.floatToIntBits(floats[i]));
+            }
+        }
+
+        StAXArrayParser.Ints ints = new StAXArrayParser.Ints(5);
+        appendChunks(ints, "  0 12 -3\n+4 2147483647 -2147483648 ", 2);
+        assertArrayEquals(new int[] {0, 12, -3, 4, Integer.MAX_VALUE, Integer.MIN_VALUE}, ints.toArray());
+
+        try {
+            XMLIntArray.toArray("1 2147483648");
+            fail("Expected NumberFormatException");
+        } catch (NumberFormatException e) {
+        }
+
+        StAXArrayParser.Names names = new StAXArrayParser.Names(0);
+        appendChunks(names, "bone_a bone_b\nbone_c", 4);
+        assertArrayEquals(new String[] {"bone_a", "bone_b", "bone_c"}, names.toArray());
+    }
+
     /*
      * Tests a collada file is optimized properly when creating an interleaved vertex index list
      */
@@ -12,6 +12,10 @@
 
 package com.dynamo.bob.pipeline;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import com.dynamo.bob.CompileExceptionError;
@@ -51,6 +55,21 @@ public class GameObjectBuilderTest extends AbstractProtoBuilderTest {
         }
     }
 
+    @Test
+    public void testReferences() throws Exception {
+        addFile("/test.script", "");
+        StringBuilder src = new StringBuilder();
+        src.append("components {");
+        src.append("  id: \"script\"\n");
+        src.append("  component: \"/test.script\"\n");
+        src.append("}\n");
+        PrototypeDesc prototype = (PrototypeDesc)build("/test.go", src.toString()).get(0);
+
+        // The references published by the builder are the same as found in the output
+        assertEquals(Arrays.asList("/test.scriptc"), ProtoUtil.getResourceReferences(prototype));
+        assertEquals(Arrays.asList("/test.scriptc"), getProject().getResourceReferences(getProject().getResource("/test.goc").output()));
+    }
+
     @Test(expected = CompileExceptionError.class)
     public void testPropInvalidValue() throws Exception {
         addFile("/test.script", "");
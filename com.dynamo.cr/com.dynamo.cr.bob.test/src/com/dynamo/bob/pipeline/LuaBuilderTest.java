@@ -91,4 +91,21 @@ public class LuaBuilderTest extends AbstractProtoBuilderTest {
             assertEquals(2, e.getLineNumber());
         }
     }
+
+    @Test
+    public void testSyntaxError() throws Exception {
+        // The luajit compiler is shared between builds and must report errors and recover
+        for (int i = 0; i < 2; ++i) {
+            try {
+                build("/error.script", "local a = 1\nfunction f(\n    return\nend\n");
+                assertTrue(false);
+            } catch (CompileExceptionError e) {
+                assertEquals(3, e.getLineNumber());
+                assertTrue(e.getMessage().contains("near 'return'"));
+            }
+            LuaModule luaModule = (LuaModule)build("/test.script", "function f()\n    return " + i + "\nend\n").get(0);
+            assertTrue(luaModule.getSource().getBytecode().size() > 0);
+            assertTrue(luaModule.getSource().getBytecode64().size() > 0);
+        }
+    }
 }
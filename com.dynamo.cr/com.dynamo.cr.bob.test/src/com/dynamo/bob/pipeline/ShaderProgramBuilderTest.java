@@ -14,12 +14,19 @@ package com.dynamo.bob.pipeline;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import com.dynamo.bob.Platform;
+import com.dynamo.bob.util.FileCache;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 import com.google.protobuf.Message;
 
@@ -123,4 +130,23 @@ public class ShaderProgramBuilderTest extends AbstractProtoBuilderTest {
                 assertEquals(1, shader.getShadersCount());
         }
     }
+
+    @Test
+    public void testShaderCache() throws Exception {
+        File cacheDir = new File(getProject().getBuildCachePath(), "shader");
+        try {
+            FileCache cache = getProject().getFileCache("shader", "shader-cache-size", 64);
+            ShaderDesc shader = (ShaderDesc)build("/test_shader.vp", vp).get(0);
+            // Only the SPIR-V shaders are cached
+            assumeTrue(shader.getShadersCount() > 1);
+            long hits = cache.getHits();
+
+            // The same shader in another file is not compiled again
+            ShaderDesc cachedShader = (ShaderDesc)build("/test_shader_copy.vp", vp).get(0);
+            assertEquals(shader, cachedShader);
+            assertTrue(cache.getHits() > hits);
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
 }
@@ -16,14 +16,23 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
 
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import com.dynamo.bob.util.FileCache;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.Platform;
+import com.dynamo.bob.Project;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureFormatAlternative;
@@ -36,6 +45,9 @@ import com.dynamo.graphics.proto.Graphics.TextureProfile;
 
 public class TextureGeneratorTest {
 
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
     //                                AABBGGRR
     private static int pixelWhite = 0xFF332211;
     private static int pixelRed   = 0xFF000011;
@@ -708,6 +720,103 @@ public class TextureGeneratorTest {
         assertEquals(0, texture.getAlternatives(1).getMipMapSizeCompressed(texture.getAlternatives(1).getMipMapSizeCount()-1));
     }
 
+    @Test
+    public void testCache() throws TextureGeneratorException, IOException {
+        File cacheDir = tmpFolder.newFolder("texture");
+        FileCache cache = new FileCache(cacheDir, 1024 * 1024);
+
+        TextureProfile.Builder textureProfile = TextureProfile.newBuilder();
+        PlatformProfile.Builder platformProfile = PlatformProfile.newBuilder();
+        platformProfile.setOs(PlatformProfile.OS.OS_ID_GENERIC);
+        platformProfile.addFormats(TextureFormatAlternative.newBuilder().setFormat(TextureFormat.TEXTURE_FORMAT_RGBA).setCompressionLevel(CompressionLevel.FAST));
+        platformProfile.addFormats(TextureFormatAlternative.newBuilder().setFormat(TextureFormat.TEXTURE_FORMAT_RGB).setCompressionLevel(CompressionLevel.FAST));
+        platformProfile.setMipmaps(true);
+        platformProfile.setMaxTextureSize(0);
+        textureProfile.setName("Test Profile");
+        textureProfile.addPlatforms(platformProfile.build());
+
+        TextureImage texture = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), textureProfile.build(), false, cache, null);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        TextureImage cached = TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), textureProfile.build(), false, cache, null);
+        assertEquals(2, cache.getHits());
+        assertEquals(texture, cached);
+
+        // Different settings are not taken from the cache
+        TextureGenerator.generate(getClass().getResourceAsStream("128_64_rgba.png"), null, false, cache, null);
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testAlternativesThreads() throws TextureGeneratorException, IOException {
+        TextureProfile.Builder textureProfile = TextureProfile.newBuilder();
+        textureProfile.setName("Test Profile");
+        for (PlatformProfile.OS os : new PlatformProfile.OS[] {PlatformProfile.OS.OS_ID_IOS, PlatformProfile.OS.OS_ID_ANDROID}) {
+            PlatformProfile.Builder platformProfile = PlatformProfile.newBuilder();
+            platformProfile.setOs(os);
+            platformProfile.addFormats(TextureFormatAlternative.newBuilder().setFormat(TextureFormat.TEXTURE_FORMAT_RGBA).setCompressionLevel(CompressionLevel.FAST));
+            platformProfile.addFormats(TextureFormatAlternative.newBuilder().setFormat(TextureFormat.TEXTURE_FORMAT_RGB_16BPP).setCompressionLevel(CompressionLevel.FAST));
+            platformProfile.setMipmaps(os == PlatformProfile.OS.OS_ID_IOS);
+            platformProfile.setMaxTextureSize(32);
+            textureProfile.addPlatforms(platformProfile.build());
+        }
+        // The same alternatives as the first platform
+        textureProfile.addPlatforms(textureProfile.getPlatforms(0));
+
+        BufferedImage image = ImageIO.read(getClass().getResourceAsStream("128_64_rgba.png"));
+        TextureImage single = TextureGenerator.generate(image, textureProfile.build(), false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), null, null);
+        TextureImage multi;
+        ExecutorService executor = Project.createThreadPool(4);
+        try {
+            multi = TextureGenerator.generate(image, textureProfile.build(), false, EnumSet.of(FlipAxis.FLIP_AXIS_Y), null, executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(6, single.getAlternativesCount());
+        assertEquals(single, multi);
+        assertEquals(single.getAlternatives(0), single.getAlternatives(4));
+        assertEquals(single.getAlternatives(1), single.getAlternatives(5));
+    }
+
+    static void assertRGBA(BufferedImage image, ByteBuffer buffer) {
+        for (int y = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x) {
+                int argb = image.getRGB(x, y);
+                int offset = (y * image.getWidth() + x) * 4;
+                assertEquals((byte) (argb >> 16), buffer.get(offset + 0)); // R
+                assertEquals((byte) (argb >> 8), buffer.get(offset + 1));  // G
+                assertEquals((byte) (argb >> 0), buffer.get(offset + 2));  // B
+                assertEquals((byte) (argb >> 24), buffer.get(offset + 3)); // A
+            }
+        }
+    }
+
+    @Test
+    public void testWritePixels() {
+        int width = 13;
+        int height = 7;
+        BufferedImage abgr = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage argb = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int color = ((x * 19) << 24) | ((y * 37) << 16) | ((x * y) << 8) | (x + y * width);
+                abgr.setRGB(x, y, color);
+                argb.setRGB(x, y, color);
+            }
+        }
+        BufferedImage subImage = abgr.getSubimage(3, 2, 8, 4);
+        BufferedImage subImageArgb = argb.getSubimage(3, 2, 8, 4);
+
+        for (BufferedImage image : new BufferedImage[] { abgr, argb, subImage, subImageArgb }) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(image.getWidth() * image.getHeight() * 4);
+            TextureGenerator.writePixels(image, buffer);
+            assertEquals(0, buffer.position());
+            assertRGBA(image, buffer);
+        }
+    }
+
     /*
      JIRA issue: DEF-994
     @Test
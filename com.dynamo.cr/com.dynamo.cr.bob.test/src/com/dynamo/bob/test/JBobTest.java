@@ -280,6 +280,42 @@ public class JBobTest {
         assertThat(result.get(0).isOk(), is(false));
     }
 
+    @Test
+    public void testTaskOutputAsInputFailingIndependent() throws Exception {
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.in_err", "A".getBytes());
+        fileSystem.addFile("test2.in", "B".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.in_err", "test2.in"));
+        List<TaskResult> result = build();
+        // The independent task is still built but the dependent archive is not
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).isOk(), is(false));
+        assertThat(result.get(1).isOk(), is(true));
+        assertThat(new String(fileSystem.get("test2.out").output().getContent()), is("B"));
+        assertFalse(fileSystem.get("test.arc").output().exists());
+    }
+
+    @Test
+    public void testTaskOutputAsInputParallel() throws Exception {
+        project.setOption("max-cpu-threads", "4");
+        fileSystem.addFile("test.proj", "".getBytes());
+        List<String> inputs = new ArrayList<String>();
+        inputs.add("test.proj");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            String name = String.format("test%03d.in", i);
+            fileSystem.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+            expected.append(i);
+        }
+        project.setInputs(inputs);
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(101));
+        // The archive task depends on all other tasks and is reported last
+        assertTrue(result.get(100).getTask().getBuilder() instanceof ArcBuilder);
+        assertThat(new String(fileSystem.get("test.arc").output().getContent()), is(expected.toString()));
+    }
+
     @Test
     public void testAbsPath() throws Exception {
         fileSystem.addFile("/root/test.in", "test data".getBytes());
@@ -15,6 +15,7 @@ package com.dynamo.bob.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -24,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 import javax.servlet.http.HttpServletRequest;
@@ -48,6 +50,7 @@ import org.junit.Test;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.ClassLoaderScanner;
 import com.dynamo.bob.ClassLoaderResourceScanner;
+import com.dynamo.bob.LibraryException;
 import com.dynamo.bob.MultipleCompileException;
 import com.dynamo.bob.NullProgress;
 import com.dynamo.bob.Project;
@@ -68,6 +71,10 @@ public class ProjectTest {
     private ArrayList<URL> libraryUrls = new ArrayList<URL>();
 
     private AtomicInteger _304Count = new AtomicInteger();
+    // Requests being handled and the max number handled at the same time
+    private AtomicInteger inFlightCount = new AtomicInteger();
+    private AtomicInteger maxInFlightCount = new AtomicInteger();
+    private volatile long responseDelay = 0;
 
     @Rule
     public TestLibrariesRule testLibs = new TestLibrariesRule();
@@ -156,6 +163,45 @@ System.out.printf("testResolve start");
         System.out.printf("testResolve end");
     }
 
+    @Test
+    public void testResolveConcurrent() throws Exception {
+        libraryUrls.add(new URL("http://localhost:8081/test_lib3.zip"));
+        libraryUrls.add(new URL("http://localhost:8081/test_lib4.zip"));
+        project.setOption("max-concurrent-downloads", "2");
+        responseDelay = 100;
+
+        project.resolveLibUrls(new NullProgress());
+        for (URL url : libraryUrls) {
+            assertTrue(libExists(LibraryUtil.libUrlToFilename(url)));
+        }
+        assertEquals(2, maxInFlightCount.get());
+        // Downloads are written to temporary files that are moved into place
+        assertEquals(libraryUrls.size(), new File(project.getLibPath()).list().length);
+
+        project.resolveLibUrls(new NullProgress());
+        assertEquals(libraryUrls.size(), _304Count.get());
+    }
+
+    @Test
+    public void testResolveInvalidZip() throws Exception {
+        project.resolveLibUrls(new NullProgress());
+        File lib = new File(project.getLibPath(), LibraryUtil.libUrlToFilename(libraryUrls.get(0)));
+
+        // Replace the library on the server with something that is not a zip file
+        FileUtils.writeStringToFile(new File(testLibs.getServerLocation(), "test_lib1.zip"), "not a zip file");
+        try {
+            project.resolveLibUrls(new NullProgress());
+            fail("Expected LibraryException");
+        } catch (LibraryException e) {
+            assertTrue(e.getMessage().contains("test_lib1.zip"));
+        }
+
+        // The previously resolved library is kept
+        ZipFile zip = new ZipFile(lib);
+        assertEquals("111", zip.getComment());
+        zip.close();
+    }
+
     @Test
     public void testMountPoints() throws Exception {
         System.out.printf("testMountPoints start");
@@ -256,14 +302,27 @@ System.out.printf("testResolve start");
             }
 
             if (authenticated) {
+                int inFlight = inFlightCount.incrementAndGet();
+                maxInFlightCount.accumulateAndGet(inFlight, Math::max);
+                try {
+                    Thread.sleep(responseDelay);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    inFlightCount.decrementAndGet();
+                }
 
                 String sha1 = null;
                 Resource resource = getResource(request);
                 File file = resource.getFile();
                 if (file.exists()) {
-                    ZipFile zip = new ZipFile(file);
-                    sha1 = zip.getComment();
-                    zip.close();
+                    try {
+                        ZipFile zip = new ZipFile(file);
+                        sha1 = zip.getComment();
+                        zip.close();
+                    } catch (ZipException e) {
+                        // Served as is, see testResolveInvalidZip
+                    }
                 }
 
                 String etag = request.getHeader("If-None-Match");
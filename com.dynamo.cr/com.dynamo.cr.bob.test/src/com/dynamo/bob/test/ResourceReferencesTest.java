@@ -0,0 +1,113 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.ResourceReferences;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class ResourceReferencesTest {
+
+    private File rootDir;
+    private DefaultFileSystem fileSystem;
+    private IResource referencesResource;
+
+    @Before
+    public void setUp() throws Exception {
+        rootDir = Files.createTempDirectory("defold_references_").toFile();
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(rootDir.getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+        referencesResource = fileSystem.get("build/references");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        FileUtils.deleteQuietly(rootDir);
+    }
+
+    private static byte[] signature(int seed) {
+        byte[] signature = new byte[20];
+        for (int i = 0; i < signature.length; ++i) {
+            signature[i] = (byte) (seed + i);
+        }
+        return signature;
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        ResourceReferences references = ResourceReferences.load(referencesResource);
+        assertNull(references.getReferences("/a.goc", signature(0)));
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        ResourceReferences references = ResourceReferences.load(referencesResource);
+        for (int i = 0; i < 100; ++i) {
+            references.putReferences("/out" + i + ".goc", signature(i), Arrays.asList("/a" + i + ".scriptc", "", "/a" + i + ".scriptc"));
+        }
+        references.putReferences("/empty.goc", signature(0), Collections.<String>emptyList());
+        references.save(referencesResource);
+
+        references = ResourceReferences.load(referencesResource);
+        for (int i = 0; i < 100; ++i) {
+            List<String> expected = Arrays.asList("/a" + i + ".scriptc", "", "/a" + i + ".scriptc");
+            assertEquals(expected, references.getReferences("/out" + i + ".goc", signature(i)));
+        }
+        assertEquals(Collections.<String>emptyList(), references.getReferences("/empty.goc", signature(0)));
+        assertNull(references.getReferences("/missing.goc", signature(0)));
+    }
+
+    @Test
+    public void testSignatureMismatch() throws Exception {
+        ResourceReferences references = ResourceReferences.load(referencesResource);
+        references.putReferences("/out.goc", signature(0), Arrays.asList("/a.scriptc"));
+        assertNull(references.getReferences("/out.goc", signature(1)));
+        assertNull(references.getReferences("/out.goc", null));
+    }
+
+    @Test
+    public void testRetain() throws Exception {
+        ResourceReferences references = ResourceReferences.load(referencesResource);
+        references.putReferences("/a.goc", signature(0), Arrays.asList("/a.scriptc"));
+        references.putReferences("/b.goc", signature(1), Arrays.asList("/b.scriptc"));
+        references.retainReferences(Arrays.asList("/b.goc"));
+        references.save(referencesResource);
+
+        references = ResourceReferences.load(referencesResource);
+        assertNull(references.getReferences("/a.goc", signature(0)));
+        assertEquals(Arrays.asList("/b.scriptc"), references.getReferences("/b.goc", signature(1)));
+    }
+
+    @Test
+    public void testInvalidFile() throws Exception {
+        referencesResource.setContent("invalid".getBytes());
+        ResourceReferences references = ResourceReferences.load(referencesResource);
+        assertNull(references.getReferences("/a.goc", signature(0)));
+    }
+}
@@ -0,0 +1,187 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.State;
+import com.dynamo.bob.fs.DefaultFileSystem;
+import com.dynamo.bob.fs.IResource;
+
+public class StateTest {
+
+    // A state with the signature 00 01 .. 13 for "/tmp/build/test.out" as serialized by the old State class
+    private static final String LEGACY_STATE = "aced000573720014636f6d2e64796e616d6f2e626f622e5374617465fc2d8bf4e3086d6d0200014c000a7369676e61747572657374000f4c6a6176612f7574696c2f4d61703b7870737200116a6176612e7574696c2e486173684d61700507dac1c31660d103000246000a6c6f6164466163746f724900097468726573686f6c6478703f4000000000000c770800000010000000017400132f746d702f6275696c642f746573742e6f7574757200025b42acf317f8060854e0020000787000000014000102030405060708090a0b0c0d0e0f1011121378";
+
+    private File rootDir;
+    private DefaultFileSystem fileSystem;
+    private IResource stateResource;
+
+    @Before
+    public void setUp() throws Exception {
+        rootDir = Files.createTempDirectory("defold_state_").toFile();
+        fileSystem = new DefaultFileSystem();
+        fileSystem.setRootDirectory(rootDir.getAbsolutePath());
+        fileSystem.setBuildDirectory("build");
+        stateResource = fileSystem.get("build/state");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        FileUtils.deleteQuietly(rootDir);
+    }
+
+    private static byte[] signature(int seed) {
+        byte[] signature = new byte[20];
+        for (int i = 0; i < signature.length; ++i) {
+            signature[i] = (byte) (seed + i);
+        }
+        return signature;
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        State state = State.load(stateResource);
+        assertNull(state.getSignature("/a"));
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        State state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            state.putSignature("/out" + i, signature(i));
+        }
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            assertArrayEquals(signature(i), state.getSignature("/out" + i));
+        }
+        assertNull(state.getSignature("/missing"));
+    }
+
+    @Test
+    public void testAppendChanges() throws Exception {
+        File file = new File(stateResource.getAbsPath());
+        State state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            state.putSignature("/out" + i, signature(i));
+        }
+        state.save(stateResource);
+        long length = file.length();
+
+        // Changes are appended to the end of the file
+        state = State.load(stateResource);
+        state.putSignature("/out0", signature(100));
+        state.putSignature("/out1", new byte[0]);
+        state.save(stateResource);
+        assertEquals(length + 2 * 28, file.length());
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(100), state.getSignature("/out0"));
+        assertNull(state.getSignature("/out1"));
+        assertArrayEquals(signature(2), state.getSignature("/out2"));
+
+        // Unchanged state is not written
+        state.save(stateResource);
+        assertEquals(length + 2 * 28, file.length());
+    }
+
+    @Test
+    public void testTruncatedJournal() throws Exception {
+        File file = new File(stateResource.getAbsPath());
+        State state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            state.putSignature("/out" + i, signature(i));
+        }
+        state.save(stateResource);
+        state = State.load(stateResource);
+        state.putSignature("/out0", signature(100));
+        state.save(stateResource);
+        state.putSignature("/out1", signature(101));
+        state.save(stateResource);
+
+        // Cut the last journal entry, as by a crash while saving
+        byte[] content = FileUtils.readFileToByteArray(file);
+        FileUtils.writeByteArrayToFile(file, Arrays.copyOf(content, content.length - 10));
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(100), state.getSignature("/out0"));
+        assertArrayEquals(signature(1), state.getSignature("/out1"));
+        state.putSignature("/out2", signature(102));
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(100), state.getSignature("/out0"));
+        assertArrayEquals(signature(1), state.getSignature("/out1"));
+        assertArrayEquals(signature(102), state.getSignature("/out2"));
+        for (int i = 3; i < 100; ++i) {
+            assertArrayEquals(signature(i), state.getSignature("/out" + i));
+        }
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        File file = new File(stateResource.getAbsPath());
+        State state = State.load(stateResource);
+        state.putSignature("/out", signature(0));
+        state.save(stateResource);
+
+        // Enough changes to trigger a rewrite of the table
+        for (int i = 0; i < 3000; ++i) {
+            state = State.load(stateResource);
+            state.putSignature("/out", signature(i));
+            state.putSignature("/out" + i, signature(i));
+            state.save(stateResource);
+        }
+        assertTrue(file.length() < 12 + 2 * 3001 * 28);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(2999), state.getSignature("/out"));
+        for (int i = 0; i < 3000; ++i) {
+            assertArrayEquals(signature(i), state.getSignature("/out" + i));
+        }
+    }
+
+    @Test
+    public void testMigrateLegacy() throws Exception {
+        stateResource.setContent(Hex.decodeHex(LEGACY_STATE.toCharArray()));
+        State state = State.load(stateResource);
+        assertArrayEquals(signature(0), state.getSignature("/tmp/build/test.out"));
+
+        state.save(stateResource);
+        state = State.load(stateResource);
+        assertArrayEquals(signature(0), state.getSignature("/tmp/build/test.out"));
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        stateResource.setContent("not a state".getBytes());
+        State state = State.load(stateResource);
+        assertNull(state.getSignature("/a"));
+    }
+}
@@ -12,6 +12,7 @@
 
 package com.dynamo.bob.test.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
@@ -32,19 +33,24 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import com.dynamo.bob.Project;
 import com.dynamo.bob.font.BMFont;
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
 import com.dynamo.bob.font.BMFont.ChannelData;
 import com.dynamo.bob.font.BMFont.Char;
+import com.dynamo.bob.font.DistanceFieldGenerator;
 import com.dynamo.bob.font.Fontc;
 import com.dynamo.bob.font.Fontc.FontResourceResolver;
 import com.dynamo.render.proto.Font.FontDesc;
 import com.dynamo.render.proto.Font.FontMap;
+import com.dynamo.render.proto.Font.FontTextureFormat;
 import com.dynamo.render.proto.Font.FontMap.Glyph;
 
 public class FontTest {
@@ -372,6 +378,114 @@ public class FontTest {
         }
     }
 
+    private BufferedImage compilePreview(FontDesc fontDesc, int numThreads, FontMap[] fontMap) throws Exception {
+        Fontc fontc = new Fontc();
+        ExecutorService executor = numThreads > 1 ? Project.createThreadPool(numThreads) : null;
+        fontc.setExecutor(executor);
+        InputStream fontInputStream = getClass().getResourceAsStream(fontDesc.getFont());
+        try {
+            BufferedImage previewImage = fontc.compile(fontInputStream, fontDesc, true, new FontResourceResolver() {
+                    @Override
+                    public InputStream getResource(String resourceName)
+                            throws FileNotFoundException {
+                        throw new FileNotFoundException(resourceName);
+                    }
+                });
+            fontMap[0] = fontc.getFontMap();
+            return previewImage;
+        } finally {
+            fontInputStream.close();
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private void assertSameWithThreads(FontDesc fontDesc) throws Exception {
+        // The glyphs must be the same when generated in parallel
+        FontMap[] singleFontMap = new FontMap[1];
+        FontMap[] multiFontMap = new FontMap[1];
+        BufferedImage single = compilePreview(fontDesc, 1, singleFontMap);
+        BufferedImage multi = compilePreview(fontDesc, 4, multiFontMap);
+
+        assertEquals(single.getWidth(), multi.getWidth());
+        assertEquals(single.getHeight(), multi.getHeight());
+        int[] singlePixels = single.getRGB(0, 0, single.getWidth(), single.getHeight(), null, 0, single.getWidth());
+        int[] multiPixels = multi.getRGB(0, 0, multi.getWidth(), multi.getHeight(), null, 0, multi.getWidth());
+        assertArrayEquals(singlePixels, multiPixels);
+        assertArrayEquals(singleFontMap[0].toByteArray(), multiFontMap[0].toByteArray());
+    }
+
+    @Test
+    public void testTTFDistanceFieldThreads() throws Exception {
+
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(32)
+            .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+            .setOutlineWidth(2)
+            .setShadowAlpha(1)
+            .setShadowBlur(2)
+            .build();
+
+        assertSameWithThreads(fontDesc);
+    }
+
+    @Test
+    public void testDistanceFieldRender() throws Exception {
+        // Rendering by blocks of pixels must give the same distances as measuring each pixel against all segments
+        Random random = new Random(1234);
+        int[] segmentCounts = new int[] { 0, 1, 3, 40, 8000 };
+        for (int segmentCount : segmentCounts) {
+            DistanceFieldGenerator df = new DistanceFieldGenerator();
+            double x = random.nextDouble() * 40.0;
+            double y = random.nextDouble() * 40.0;
+            for (int i = 0; i < segmentCount; i++) {
+                // Closed paths with some zero length segments
+                double nextX = i % 17 == 16 ? x : random.nextDouble() * 40.0 - 5.0;
+                double nextY = i % 17 == 16 ? y : random.nextDouble() * 40.0 - 5.0;
+                df.addLine(x, y, nextX, nextY);
+                x = nextX;
+                y = nextY;
+            }
+
+            int width = 37;
+            int height = 29;
+            double x0 = -2.5, y0 = 31.25, x1 = 33.0, y1 = -1.75;
+            double[] output = new double[width * height];
+            df.render(output, x0, y0, x1, y1, width, height);
+
+            // Pixel coordinates as computed by render
+            double dx = (x1 - x0) / (double)width;
+            double px = x0;
+            for (int i = 0; i < width; i++) {
+                for (int j = 0; j < height; j++) {
+                    double py = y0 + j * (y1 - y0) / (double)height;
+                    assertEquals(Math.sqrt(df.distSqr(px, py)), output[j * width + i], 0.0);
+                }
+                px += dx;
+            }
+        }
+    }
+
+    @Test
+    public void testTTFBitmapThreads() throws Exception {
+
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(32)
+            .setOutputFormat(FontTextureFormat.TYPE_BITMAP)
+            .setOutlineWidth(2)
+            .setOutlineAlpha(1)
+            .setShadowAlpha(1)
+            .setShadowBlur(2)
+            .build();
+
+        assertSameWithThreads(fontDesc);
+    }
+
     @Test
     public void testBinaryFNT() throws Exception {
 
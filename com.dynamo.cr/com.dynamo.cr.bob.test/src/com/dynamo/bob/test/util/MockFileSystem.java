@@ -55,7 +55,7 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
     }
 
     @Override
-    public IResource get(String path) {
+    public synchronized IResource get(String path) {
         path = FilenameUtils.normalize(path, true);
         // Paths are always root relative.
         if (path.startsWith("/"))
@@ -66,12 +66,17 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
         }
         r = resources.get(path);
         if (r == null) {
-            r = new MockResource(fileSystem, path, null, System.currentTimeMillis());
+            r = createResource(path);
             resources.put(path, (MockResource) r);
         }
         return r;
     }
 
+    @Override
+    protected IResource createResource(String path) {
+        return new MockResource(fileSystem, path, null, System.currentTimeMillis());
+    }
+
     @Override
     public void loadCache() {}
 
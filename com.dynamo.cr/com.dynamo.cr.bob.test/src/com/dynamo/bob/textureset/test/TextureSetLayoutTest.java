@@ -21,9 +21,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import org.junit.Test;
 
+import com.dynamo.bob.Project;
 import com.dynamo.bob.textureset.TextureSetLayout;
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
@@ -304,4 +307,36 @@ public class TextureSetLayoutTest {
         assertEquals(layout.getWidth(), 2048);
         assertEquals(layout.getHeight(), 1024);
     }
+
+    @Test
+    public void testThreadsSameLayout() {
+        Random random = new Random(1234);
+        List<Rect> rectangles = new ArrayList<Rect>();
+        for (int i = 0; i < 500; ++i) {
+            rectangles.add(rect(Integer.toString(i), i, 1 + random.nextInt(64), 1 + random.nextInt(64)));
+        }
+        Layout layout = TextureSetLayout.packedLayout(2, new ArrayList<Rect>(rectangles), true, null);
+        Layout threadedLayout;
+        ExecutorService executor = Project.createThreadPool(8);
+        try {
+            threadedLayout = TextureSetLayout.packedLayout(2, new ArrayList<Rect>(rectangles), true, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(layout.getWidth(), threadedLayout.getWidth());
+        assertEquals(layout.getHeight(), threadedLayout.getHeight());
+        List<Rect> outputRectangles = layout.getRectangles();
+        List<Rect> threadedRectangles = threadedLayout.getRectangles();
+        assertEquals(rectangles.size(), outputRectangles.size());
+        assertEquals(outputRectangles.size(), threadedRectangles.size());
+        for (int i = 0; i < outputRectangles.size(); ++i) {
+            Rect r = outputRectangles.get(i);
+            assertRect(threadedLayout, i, r.id, r.index, r.x, r.y);
+            assertEquals(r.rotated, threadedRectangles.get(i).rotated);
+            for (int j = i + 1; j < outputRectangles.size(); ++j) {
+                assertFalse(isOverlapping(r, outputRectangles.get(j)));
+            }
+        }
+    }
 }
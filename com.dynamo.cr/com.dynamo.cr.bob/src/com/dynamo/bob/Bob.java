@@ -60,6 +60,8 @@ public class Bob {
 
     private static boolean verbose = false;
     private static File rootFolder = null;
+    private static boolean luaInitialized = false;
+    private static boolean androidInitialized = false;
 
     public Bob() {
     }
@@ -93,7 +95,8 @@ public class Bob {
         }));
       }
 
-    private static void init() {
+    // Called from concurrent builder tasks, all access to rootFolder goes through here
+    private static synchronized void init() {
         if (rootFolder != null) {
             return;
         }
@@ -119,16 +122,24 @@ public class Bob {
         }
     }
 
-    public static void initLua() {
+    // Called from concurrent builder tasks, the files must not be extracted again while luajit reads them
+    public static synchronized void initLua() {
+        if (luaInitialized) {
+            return;
+        }
         init();
         try {
             extract(Bob.class.getResource("/lib/luajit-share.zip"), new File(rootFolder, "share"));
+            luaInitialized = true;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    public static void initAndroid() {
+    public static synchronized void initAndroid() {
+        if (androidInitialized) {
+            return;
+        }
         init();
         try {
             // Android SDK aapt is dynamically linked against libc++.so, we need to extract it so that
@@ -153,6 +164,7 @@ public class Bob {
                 File f = new File(rootFolder, "lib/classes.dex");
                 atomicCopy(classes_dex, f, false);
             }
+            androidInitialized = true;
 
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -400,6 +412,15 @@ public class Bob {
 
         options.addOption(null, "version", false, "Prints the version number to the output");
 
+        options.addOption(null, "max-cpu-threads", true, "Max number of threads used to run build tasks. Default is the number of available processors");
+        options.addOption(null, "max-concurrent-downloads", true, "Max number of libraries downloaded concurrently when resolving. Default is 8");
+        options.addOption(null, "archive-cache-size", true, "Max size in megabytes of the cache of compressed archive entries. Default is 512. Set to 0 to disable the cache");
+        options.addOption(null, "shader-cache-size", true, "Max size in megabytes of the cache of compiled shaders. Default is 64. Set to 0 to disable the cache");
+        options.addOption(null, "texture-cache-size", true, "Max size in megabytes of the cache of generated textures. Default is 512. Set to 0 to disable the cache");
+        options.addOption(null, "build-cache-dir", true, "Directory of the build caches, e.g. a directory shared between machines. Default is .internal/cache in the project directory");
+        options.addOption(null, "image-cache-size", true, "Max size in megabytes of the in-memory cache of decoded images. Default is 256. Set to 0 to disable the cache");
+        options.addOption(null, "incremental-archive", false, "Reuse unchanged entries of the previously built archive instead of compressing and encrypting them again");
+
         // debug options
         options.addOption(null, "debug-ne-upload", false, "Outputs the files sent to build server as upload.zip");
 
@@ -500,6 +521,11 @@ public class Bob {
         }
         project.loadProjectFile();
 
+        // Needed when resolving, before the options are passed on to the project below
+        if (cmd.hasOption("max-concurrent-downloads")) {
+            project.setOption("max-concurrent-downloads", cmd.getOptionValue("max-concurrent-downloads"));
+        }
+
         // resolves libraries and finds all sources
         setupProject(project, shouldResolveLibs, sourceDirectory);
 
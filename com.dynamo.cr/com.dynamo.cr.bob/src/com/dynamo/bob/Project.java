@@ -23,9 +23,11 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
@@ -44,6 +46,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -78,11 +90,14 @@ import com.dynamo.bob.bundle.Win32Bundler;
 import com.dynamo.bob.bundle.Win64Bundler;
 import com.dynamo.bob.fs.ClassLoaderMountPoint;
 import com.dynamo.bob.fs.FileSystemWalker;
+import com.dynamo.bob.fs.DigestCache;
 import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
 import com.dynamo.bob.pipeline.ExtenderUtil;
 import com.dynamo.bob.util.BobProjectProperties;
+import com.dynamo.bob.util.FileCache;
+import com.dynamo.bob.util.ImageCache;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.util.ReportGenerator;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
@@ -108,12 +123,17 @@ public class Project {
     private HashMap<String, EnumSet<OutputFlags>> outputs = new HashMap<String, EnumSet<OutputFlags>>();
     private ArrayList<Task<?>> newTasks;
     private State state;
+    private ResourceReferences references;
     private String rootDirectory = ".";
     private String buildDirectory = "build";
     private Map<String, String> options = new HashMap<String, String>();
     private List<URL> libUrls = new ArrayList<URL>();
     private final List<String> excludedCollectionProxies = new ArrayList<String>();
     private List<String> propertyFiles = new ArrayList<String>();
+    private Map<String, FileCache> fileCaches = new HashMap<String, FileCache>();
+    private ImageCache imageCache;
+    private boolean imageCacheCreated = false;
+    private volatile ExecutorService buildExecutor;
 
     private BobProjectProperties projectProperties;
     private Publisher publisher;
@@ -156,7 +176,17 @@ public class Project {
         return FilenameUtils.concat(this.rootDirectory, LIB_DIR);
     }
 
+    /**
+     * Get the directory of the build caches. Controlled by the "build-cache-dir" option,
+     * the entries are content-addressed so the directory can be shared between projects
+     * and machines.
+     * @return path to the build cache directory
+     */
     public String getBuildCachePath() {
+        String cacheDir = option("build-cache-dir", null);
+        if (cacheDir != null) {
+            return new File(cacheDir).getAbsolutePath();
+        }
         return FilenameUtils.concat(this.rootDirectory, CACHE_DIR);
     }
 
@@ -285,7 +315,7 @@ public class Project {
 
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            addTask(task);
         }
         return task;
     }
@@ -300,7 +330,7 @@ public class Project {
     public Task<?> buildResource(IResource input, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            addTask(task);
         }
         return task;
     }
@@ -783,6 +813,8 @@ public class Project {
         fileSystem.loadCache();
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "state"));
         state = State.load(stateResource);
+        IResource referencesResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "references"));
+        references = ResourceReferences.load(referencesResource);
         createTasks();
         validateBuildResourceMapping();
         List<TaskResult> result = new ArrayList<TaskResult>();
@@ -819,6 +851,12 @@ public class Project {
                     m.beginTask("Building...", newTasks.size());
                     result = runTasks(m);
                     m.done();
+                    references.retainReferences(outputs.keySet());
+                    DigestCache.Stats digestCacheStats = fileSystem.getDigestCacheStats();
+                    if (digestCacheStats != null) {
+                        Bob.verbose("Digest cache %s", digestCacheStats);
+                    }
+                    evictFileCaches();
                     if (anyFailing(result)) {
                         break loop;
                     }
@@ -911,164 +949,351 @@ public class Project {
 
         monitor.done();
         state.save(stateResource);
+        references.save(referencesResource);
         fileSystem.saveCache();
         return result;
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+    /**
+     * Get the resources referenced by a built output, as published by its builder
+     * with {@link Task#setReferences(IResource, List)} when the output was last built.
+     * @param output output resource
+     * @return paths of the referenced resources or null if the builder didn't publish any
+     */
+    public List<String> getResourceReferences(IResource output) {
+        if (state == null || references == null) {
+            return null;
+        }
+        String path = output.getAbsPath();
+        return references.getReferences(path, state.getSignature(path));
+    }
 
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
+    /**
+     * Get statistics of the file signature cache for the current build
+     * @return statistics or null if the file system doesn't cache signatures
+     */
+    public DigestCache.Stats getDigestCacheStats() {
+        return fileSystem.getDigestCacheStats();
+    }
 
-        // the set of all output files generated
-        // in this or previous session
-        Set<IResource> completedOutputs = new HashSet<>();
+    /**
+     * Get the max number of threads to use when running tasks. Controlled by
+     * the "max-cpu-threads" option and defaults to the number of available processors.
+     * @return max number of threads, at least one
+     */
+    public int getMaxCpuThreads() {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        String maxThreadsOption = option("max-cpu-threads", null);
+        if (maxThreadsOption != null) {
+            try {
+                maxThreads = Integer.parseInt(maxThreadsOption);
+            } catch (NumberFormatException e) {
+                logWarning("Invalid value '%s' for max-cpu-threads, using %d", maxThreadsOption, maxThreads);
+            }
+        }
+        return Math.max(1, maxThreads);
+    }
 
-        List<TaskResult> result = new ArrayList<>();
+    /**
+     * Get the max size of a cache stored in the build cache directory, see {@link #getBuildCachePath()}.
+     * @param optionName option with the max size in megabytes
+     * @param defaultMegabytes default max size in megabytes
+     * @return max size in bytes, 0 if the cache is disabled
+     */
+    public long getCacheMaxSize(String optionName, int defaultMegabytes) {
+        long megabytes = defaultMegabytes;
+        String sizeOption = option(optionName, null);
+        if (sizeOption != null) {
+            try {
+                megabytes = Long.parseLong(sizeOption);
+            } catch (NumberFormatException e) {
+                logWarning("Invalid value '%s' for %s, using %d", sizeOption, optionName, megabytes);
+            }
+        }
+        return Math.max(0, megabytes) * 1024 * 1024;
+    }
 
-        List<Task<?>> tasks = new ArrayList<>(newTasks);
-        // set of *all* possible output files
-        Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : newTasks) {
-            allOutputs.addAll(task.getOutputs());
+    /**
+     * Get a cache stored in the build cache directory, see {@link #getBuildCachePath()}.
+     * The cache is created on first use and least recently used entries are evicted
+     * when the build tasks have completed.
+     * @param name name of the cache, and of the directory the entries are stored in
+     * @param optionName option with the max size in megabytes, see {@link #getCacheMaxSize(String, int)}
+     * @param defaultMegabytes default max size in megabytes
+     * @return cache or null if the cache is disabled
+     */
+    public synchronized FileCache getFileCache(String name, String optionName, int defaultMegabytes) {
+        if (!fileCaches.containsKey(name)) {
+            long maxSize = getCacheMaxSize(optionName, defaultMegabytes);
+            FileCache cache = maxSize > 0 ? new FileCache(new File(getBuildCachePath(), name), maxSize) : null;
+            fileCaches.put(name, cache);
+        }
+        return fileCaches.get(name);
+    }
+
+    /**
+     * Get the in-memory cache of decoded images shared by the builders. The size is
+     * controlled by the "image-cache-size" option in megabytes.
+     * @return cache or null if the cache is disabled
+     */
+    public synchronized ImageCache getImageCache() {
+        if (!imageCacheCreated) {
+            long maxSize = getCacheMaxSize("image-cache-size", 256);
+            imageCache = maxSize > 0 ? new ImageCache(maxSize) : null;
+            imageCacheCreated = true;
+        }
+        return imageCache;
+    }
+
+    private synchronized void evictFileCaches() {
+        for (Map.Entry<String, FileCache> entry : fileCaches.entrySet()) {
+            FileCache cache = entry.getValue();
+            if (cache != null) {
+                int evicted = cache.evict();
+                Bob.verbose("Cache '%s' hits: %d, misses: %d, evicted: %d", entry.getKey(), cache.getHits(), cache.getMisses(), evicted);
+            }
+        }
+        if (imageCache != null) {
+            Bob.verbose("Image cache hits: %d, misses: %d, size: %d", imageCache.getHits(), imageCache.getMisses(), imageCache.getSize());
         }
+    }
+
+    /**
+     * Create a thread pool for build work. The threads inherit the context class loader
+     * of the calling thread since builders and mount points load resources through it.
+     * @param threads number of threads
+     * @return executor service, the caller is responsible for shutting it down
+     */
+    public static ExecutorService createThreadPool(int threads) {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setContextClassLoader(classLoader);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * Get the thread pool running the build tasks. Builders use it to do parts of a task
+     * in parallel, instead of creating thread pools of their own on top of the tasks
+     * already running in parallel. A build task waiting for work it submitted runs
+     * queued work while waiting.
+     * @return build thread pool, or null when not building
+     */
+    public ExecutorService getExecutor() {
+        return buildExecutor;
+    }
+
+    private synchronized void addTask(Task<?> task) {
+        newTasks.add(task);
+    }
+
+    private synchronized List<Task<?>> takeNewTasks() {
+        List<Task<?>> tasks = new ArrayList<Task<?>>(newTasks);
         newTasks.clear();
+        return tasks;
+    }
 
-        // Keep track of the paths for all outputs
-        outputs = new HashMap<>(allOutputs.size());
-        for (IResource res : allOutputs) {
-            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
-        }
-
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
-        boolean taskFailed = false;
-run:
-        while (completedTasks.size() < tasks.size()) {
-            for (Task<?> task : tasks) {
-                BundleHelper.throwIfCanceled(monitor);
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
-                    continue;
-                }
+    private synchronized void addOutputs(List<Task<?>> tasks) {
+        for (Task<?> task : tasks) {
+            for (IResource res : task.getOutputs()) {
+                outputs.putIfAbsent(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+            }
+        }
+    }
 
-                monitor.worked(1);
+    /**
+     * Run a single task if its outputs are missing or out of date
+     * @param task task to run
+     * @return result of the task or null if the task already was up to date
+     * @throws IOException
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TaskResult runTask(Task<?> task) throws IOException {
+        byte[] taskSignature = task.calculateSignature(this);
+
+        // do all output files exist?
+        boolean allOutputExists = true;
+        for (IResource r : task.getOutputs()) {
+            if (!r.exists()) {
+                allOutputExists = false;
+                break;
+            }
+        }
 
-                byte[] taskSignature = task.calculateSignature(this);
+        // compare all task signature. current task signature between previous
+        // signature from state on disk
+        boolean allSigsEquals = true;
+        for (IResource r : task.getOutputs()) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                allSigsEquals = false;
+                break;
+            }
+        }
 
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : task.getOutputs()) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
-                    }
-                }
+        if (allOutputExists && allSigsEquals) {
+            // Task is successfully completed now or in a previous build.
+            return null;
+        }
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                List<byte[]> outputSigs = new ArrayList<byte[]>();
-                for (IResource r : task.getOutputs()) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    outputSigs.add(s);
-                }
-                boolean allSigsEquals = true;
-                for (byte[] sig : outputSigs) {
-                    if (!Arrays.equals(sig, taskSignature)) {
-                        allSigsEquals = false;
-                        break;
-                    }
-                }
+        TaskResult taskResult = new TaskResult(task);
+        Builder builder = task.getBuilder();
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        try {
+            builder.build(task);
+            for (IResource r : task.getOutputs()) {
+                state.putSignature(r.getAbsPath(), taskSignature);
+            }
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
+            for (IResource r : task.getOutputs()) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
+                    ok = false;
+                    break;
+                }
+            }
 
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(task.getOutputs());
-                    }
-                    continue;
+            for (IResource r : task.getOutputs()) {
+                List<String> outputReferences = task.getReferences(r);
+                if (outputReferences != null) {
+                    references.putReferences(r.getAbsPath(), taskSignature, outputReferences);
+                } else {
+                    references.removeReferences(r.getAbsPath());
                 }
+            }
 
-                completedTasks.add(task);
+        } catch (CompileExceptionError e) {
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            ok = false;
+            message = e.getMessage();
+            exception = e;
 
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
-                try {
-                    builder.build(task);
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), taskSignature);
-                    }
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+            // Clear sigs for all outputs when a task fails
+            for (IResource r : task.getOutputs()) {
+                state.putSignature(r.getAbsPath(), new byte[0]);
+            }
+        }
+        return taskResult;
+    }
+
+    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+        List<TaskResult> result = new ArrayList<>();
 
-                    for (IResource r : task.getOutputs()) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
+        // Keep track of the paths for all outputs
+        outputs = new HashMap<>();
+        List<Task<?>> tasks = takeNewTasks();
+        addOutputs(tasks);
+
+        // Edges from each task to the tasks producing its inputs are created once.
+        // A task is scheduled as soon as all its producers are completed and
+        // the dependents of a failed task are never run.
+        TaskGraph graph = new TaskGraph();
+        graph.addTasks(tasks);
+
+        ExecutorService executor = createThreadPool(getMaxCpuThreads());
+        buildExecutor = executor;
+        CompletionService<TaskResult> completionService = new ExecutorCompletionService<TaskResult>(executor);
+        Map<Future<TaskResult>, Task<?>> running = new HashMap<>();
+        // Set as soon as a task fails unexpectedly, i.e. not with a compile error.
+        // No more tasks are started after that.
+        boolean abort = false;
+        try {
+            while (true) {
+                BundleHelper.throwIfCanceled(monitor);
+                while (!abort && graph.hasReady()) {
+                    final Task<?> task = graph.pollReady();
+                    Future<TaskResult> future = completionService.submit(new Callable<TaskResult>() {
+                        @Override
+                        public TaskResult call() throws Exception {
+                            return runTask(task);
                         }
-                    }
-                    completedOutputs.addAll(task.getOutputs());
+                    });
+                    running.put(future, task);
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
 
-                } catch (CompileExceptionError e) {
-                    ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
-                    ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
+                Future<TaskResult> future = completionService.poll(100, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    continue;
+                }
+                Task<?> task = running.remove(future);
+                TaskResult taskResult = getTaskResult(future);
+                monitor.worked(1);
 
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
+                // Tasks created by the builder while building
+                List<Task<?>> addedTasks = takeNewTasks();
+                if (!addedTasks.isEmpty()) {
+                    addOutputs(addedTasks);
+                    graph.addTasks(addedTasks);
                 }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
-                    // Clear sigs for all outputs when a task fails
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), new byte[0]);
-                    }
-                    if (abort) {
-                        break run;
+
+                if (taskResult == null) {
+                    graph.markCompleted(task);
+                    continue;
+                }
+                result.add(taskResult);
+                if (taskResult.isOk()) {
+                    graph.markCompleted(task);
+                } else {
+                    graph.markFailed(task);
+                    if (taskResult.getException() != null) {
+                        abort = true;
                     }
                 }
             }
-            if (taskFailed) {
-                break;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            buildExecutor = null;
+            executor.shutdownNow();
+        }
+
+        Collections.sort(result, new Comparator<TaskResult>() {
+            Comparator<Task<?>> order = graph.executionOrder();
+
+            @Override
+            public int compare(TaskResult r1, TaskResult r2) {
+                return order.compare(r1.getTask(), r2.getTask());
             }
-            // set of *all* possible output files
-            for (Task<?> task : newTasks) {
-                allOutputs.addAll(task.getOutputs());
+        });
+        return result;
+    }
+
+    private static TaskResult getTaskResult(Future<TaskResult> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
-            tasks.addAll(newTasks);
-            newTasks.clear();
+            throw new RuntimeException(cause);
         }
-        return result;
     }
 
     /**
@@ -1088,7 +1313,7 @@ run:
      * @param resourcePath output resource absolute path
      * @param flag OutputFlag to add
      */
-    public boolean addOutputFlags(String resourcePath, OutputFlags flag) {
+    public synchronized boolean addOutputFlags(String resourcePath, OutputFlags flag) {
         EnumSet<OutputFlags> currentFlags = outputs.get(resourcePath);
         if(currentFlags == null) {
             return false;
@@ -1108,10 +1333,138 @@ run:
     }
 
     /**
-     * Resolve (i.e. download from server) the stored lib URLs.
+     * Get the max number of libraries downloaded concurrently when resolving. Controlled by
+     * the "max-concurrent-downloads" option and defaults to 8.
+     * @return max number of concurrent downloads, at least one
+     */
+    public int getMaxConcurrentDownloads() {
+        int maxDownloads = 8;
+        String maxDownloadsOption = option("max-concurrent-downloads", null);
+        if (maxDownloadsOption != null) {
+            try {
+                maxDownloads = Integer.parseInt(maxDownloadsOption);
+            } catch (NumberFormatException e) {
+                logWarning("Invalid value '%s' for max-concurrent-downloads, using %d", maxDownloadsOption, maxDownloads);
+            }
+        }
+        return Math.max(1, maxDownloads);
+    }
+
+    /**
+     * Download a library unless the local copy is up to date. The sha1 stored as zip
+     * comment in the local copy is sent as If-None-Match and compared with the ETag
+     * of the response. A new version is downloaded to a temporary file and validated
+     * before it replaces the local copy, which is left untouched if anything fails.
+     * @param url library URL
+     * @param f local copy of the library
+     * @throws IOException
+     * @throws LibraryException
+     */
+    private void resolveLibUrl(URL url, File f) throws IOException, LibraryException {
+        String sha1 = null;
+
+        if (f.exists()) {
+            ZipFile zipFile = null;
+
+            try {
+                zipFile = new ZipFile(f);
+                sha1 = zipFile.getComment();
+            } catch (ZipException e) {
+                // Broken local copy, download it again
+            } finally {
+                if (zipFile != null) {
+                    zipFile.close();
+                }
+            }
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (sha1 != null) {
+            connection.addRequestProperty("If-None-Match", sha1);
+        }
+
+        // Check if URL contains basic auth credentials
+        String basicAuthData = null;
+        try {
+            URI uri = new URI(url.toString());
+            basicAuthData = uri.getUserInfo();
+        } catch (URISyntaxException e1) {
+            // Ignored, could not get URI and basic auth data from URL.
+        }
+
+        // Pass correct headers along to server depending on auth alternative.
+        if (basicAuthData != null) {
+            String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
+            connection.setRequestProperty("Authorization", basicAuth);
+        } else {
+            connection.addRequestProperty("X-Email", this.options.get("email"));
+            connection.addRequestProperty("X-Auth", this.options.get("auth"));
+        }
+
+        InputStream input = null;
+        File tmp = null;
+        try {
+            connection.connect();
+            int code = connection.getResponseCode();
+            if (code == 304) {
+                // Reusing cached library
+            } else {
+                boolean serverSha1Match = false;
+                if(code == 200) {
+                    // GitHub uses eTags and we can check we have the up to date version by comparing SHA1 and server eTag if we get a 200 OK response
+                    if (sha1 != null) {
+                        String serverETag = connection.getHeaderField("ETag");
+                        if (serverETag != null) {
+                            if (sha1.equals(serverETag.replace("\"", ""))) {
+                                // Reusing cached library
+                                serverSha1Match = true;
+                            }
+                        }
+                    }
+                }
+                if(!serverSha1Match) {
+                    input = new BufferedInputStream(connection.getInputStream());
+                    tmp = File.createTempFile(f.getName(), ".tmp", f.getParentFile());
+                    FileUtils.copyInputStreamToFile(input, tmp);
+
+                    try {
+                        ZipFile zip = new ZipFile(tmp);
+                        zip.close();
+                    } catch (ZipException e) {
+                        throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
+                    }
+                    try {
+                        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    tmp = null;
+                }
+            }
+            connection.disconnect();
+        } catch (ConnectException e) {
+            throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
+        } catch (FileNotFoundException e) {
+            throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
+        } finally {
+            if(input != null) {
+                IOUtils.closeQuietly(input);
+            }
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Resolve (i.e. download from server) the stored lib URLs. Libraries are
+     * downloaded concurrently, see {@link #getMaxConcurrentDownloads()}, and
+     * progress is reported as each library is resolved.
      * @throws IOException
      */
     public void resolveLibUrls(IProgress progress) throws IOException, LibraryException {
+        ExecutorService executor = null;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
         try {
             String libPath = getLibPath();
             File libDir = new File(libPath);
@@ -1123,90 +1476,51 @@ run:
             int count = this.libUrls.size();
             IProgress subProgress = progress.subProgress(count);
             subProgress.beginTask("Download archives", count);
-            for (int i = 0; i < count; ++i) {
-                BundleHelper.throwIfCanceled(progress);
-                File f = libFiles.get(i);
-                String sha1 = null;
-
-                if (f.exists()) {
-                    ZipFile zipFile = null;
-
-                    try {
-                        zipFile = new ZipFile(f);
-                        sha1 = zipFile.getComment();
-                    } finally {
-                        if (zipFile != null) {
-                            zipFile.close();
-                        }
-                    }
-                }
-
-                URL url = libUrls.get(i);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                if (sha1 != null) {
-                    connection.addRequestProperty("If-None-Match", sha1);
-                }
+            if (count == 0) {
+                return;
+            }
 
-                // Check if URL contains basic auth credentials
-                String basicAuthData = null;
-                try {
-                    URI uri = new URI(url.toString());
-                    basicAuthData = uri.getUserInfo();
-                } catch (URISyntaxException e1) {
-                    // Ignored, could not get URI and basic auth data from URL.
+            executor = Executors.newFixedThreadPool(Math.min(count, getMaxConcurrentDownloads()));
+            CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+            // The same library can't be downloaded to the same file concurrently
+            Set<File> pending = new HashSet<File>();
+            for (int i = 0; i < count; ++i) {
+                final URL url = libUrls.get(i);
+                final File f = libFiles.get(i);
+                if (!pending.add(f)) {
+                    subProgress.worked(1);
+                    continue;
                 }
+                futures.add(completionService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        resolveLibUrl(url, f);
+                        return null;
+                    }
+                }));
+            }
 
-                // Pass correct headers along to server depending on auth alternative.
-                if (basicAuthData != null) {
-                    String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
-                    connection.setRequestProperty("Authorization", basicAuth);
-                } else {
-                    connection.addRequestProperty("X-Email", this.options.get("email"));
-                    connection.addRequestProperty("X-Auth", this.options.get("auth"));
+            int remaining = futures.size();
+            while (remaining > 0) {
+                BundleHelper.throwIfCanceled(progress);
+                Future<Void> future = completionService.poll(100, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    continue;
                 }
-
-                InputStream input = null;
+                --remaining;
                 try {
-                    connection.connect();
-                    int code = connection.getResponseCode();
-                    if (code == 304) {
-                        // Reusing cached library
-                    } else {
-                        boolean serverSha1Match = false;
-                        if(code == 200) {
-                            // GitHub uses eTags and we can check we have the up to date version by comparing SHA1 and server eTag if we get a 200 OK response
-                            if (sha1 != null) {
-                                String serverETag = connection.getHeaderField("ETag");
-                                if (serverETag != null) {
-                                    if (sha1.equals(serverETag.replace("\"", ""))) {
-                                        // Reusing cached library
-                                        serverSha1Match = true;
-                                    }
-                                }
-                            }
-                        }
-                        if(!serverSha1Match) {
-                            input = new BufferedInputStream(connection.getInputStream());
-                            FileUtils.copyInputStreamToFile(input, f);
-
-                            try {
-                                ZipFile zip = new ZipFile(f);
-                                zip.close();
-                            } catch (ZipException e) {
-                                f.delete();
-                                throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
-                            }
-                        }
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof LibraryException) {
+                        throw (LibraryException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
                     }
-                    connection.disconnect();
-                } catch (ConnectException e) {
-                    throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
-                } catch (FileNotFoundException e) {
-                    throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
+                    throw new LibraryException(cause.getMessage(), cause);
                 } finally {
-                    if(input != null) {
-                        IOUtils.closeQuietly(input);
-                    }
                     subProgress.worked(1);
                 }
             }
@@ -1217,10 +1531,22 @@ run:
         catch(LibraryException le) {
             throw le;
         }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibraryException(e.getMessage(), e);
+        }
         catch(Exception e) {
             throw new LibraryException(e.getMessage(), e);
         }
-   }
+        finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
 
     /**
      * Set option
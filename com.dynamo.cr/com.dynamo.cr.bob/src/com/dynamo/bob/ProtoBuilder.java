@@ -59,6 +59,7 @@ public abstract class ProtoBuilder<B extends GeneratedMessage.Builder<B>> extend
         msg.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(msg));
     }
 
 }
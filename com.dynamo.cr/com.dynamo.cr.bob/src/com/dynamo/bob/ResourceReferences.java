@@ -0,0 +1,207 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Persistent index of the resources referenced by built outputs, as published by
+ * the builders with {@link Task#setReferences(IResource, List)}.
+ *
+ * Every entry holds the signature of the task that built the output. An entry is
+ * only valid as long as the signature matches the one in the build {@link State},
+ * i.e. the output hasn't been built again since, which lets outputs that are up to
+ * date keep the references published when they were built.
+ *
+ * The index is stored in a versioned binary format:
+ * <pre>
+ * header:  magic (4 bytes), version (4 bytes), entry count (4 bytes)
+ * entry:   output path (UTF), signature (20 bytes), reference count (4 bytes), references (UTF)
+ * </pre>
+ */
+public class ResourceReferences {
+
+    private static final int MAGIC = 0x424f4252; // "BOBR"
+    private static final int VERSION = 1;
+    private static final int SIGNATURE_SIZE = 20;
+
+    private static class Entry {
+        final byte[] signature;
+        final List<String> references;
+
+        Entry(byte[] signature, List<String> references) {
+            this.signature = signature;
+            this.references = references;
+        }
+    }
+
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+    private boolean changed = false;
+
+    /**
+     * Get the resources referenced by an output
+     * @param path absolute path of the output
+     * @param signature current signature of the output
+     * @return paths of the referenced resources, in the order they appear in the output,
+     * or null if no references were published for the output with the signature
+     */
+    public synchronized List<String> getReferences(String path, byte[] signature) {
+        Entry entry = entries.get(path);
+        if (entry == null || signature == null || !Arrays.equals(entry.signature, signature)) {
+            return null;
+        }
+        return entry.references;
+    }
+
+    /**
+     * Set the resources referenced by an output
+     * @param path absolute path of the output
+     * @param signature signature of the task that built the output
+     * @param references paths of the referenced resources
+     */
+    public synchronized void putReferences(String path, byte[] signature, List<String> references) {
+        if (signature.length != SIGNATURE_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid signature size %d for '%s'", signature.length, path));
+        }
+        entries.put(path, new Entry(Arrays.copyOf(signature, SIGNATURE_SIZE), Collections.unmodifiableList(new ArrayList<String>(references))));
+        changed = true;
+    }
+
+    /**
+     * Remove the references of an output
+     * @param path absolute path of the output
+     */
+    public synchronized void removeReferences(String path) {
+        if (entries.remove(path) != null) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Remove the references of all outputs not in paths
+     * @param paths absolute paths of the outputs to keep
+     */
+    public synchronized void retainReferences(Collection<String> paths) {
+        if (entries.keySet().retainAll(paths)) {
+            changed = true;
+        }
+    }
+
+    private void read(InputStream input) throws IOException {
+        DataInputStream is = new DataInputStream(new BufferedInputStream(input));
+        if (is.readInt() != MAGIC) {
+            throw new IOException("Invalid resource references file");
+        }
+        int version = is.readInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported resource references version %d", version));
+        }
+        int count = is.readInt();
+        for (int i = 0; i < count; ++i) {
+            String path = is.readUTF();
+            byte[] signature = new byte[SIGNATURE_SIZE];
+            is.readFully(signature);
+            int referenceCount = is.readInt();
+            List<String> references = new ArrayList<String>(referenceCount);
+            for (int j = 0; j < referenceCount; ++j) {
+                references.add(is.readUTF());
+            }
+            entries.put(path, new Entry(signature, Collections.unmodifiableList(references)));
+        }
+    }
+
+    /**
+     * Load resource references from resource
+     * @param resource resource references resource
+     * @return {@link ResourceReferences}, empty if the resource doesn't exist or can't be read
+     */
+    public static ResourceReferences load(IResource resource) {
+        ResourceReferences references = new ResourceReferences();
+        try {
+            File file = new File(resource.getAbsPath());
+            if (file.isFile()) {
+                InputStream is = Files.newInputStream(file.toPath());
+                try {
+                    references.read(is);
+                } finally {
+                    is.close();
+                }
+            } else {
+                byte[] content = resource.getContent();
+                if (content != null) {
+                    references.read(new ByteArrayInputStream(content));
+                }
+            }
+            return references;
+        } catch (Throwable e) {
+            System.err.println("Unable to load resource references");
+            e.printStackTrace();
+            return new ResourceReferences();
+        }
+    }
+
+    /**
+     * Save resource references if changed since loaded
+     * @param resource resource references resource
+     * @throws IOException
+     */
+    public synchronized void save(IResource resource) throws IOException {
+        if (!changed) {
+            return;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(bos));
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeInt(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            os.writeUTF(entry.getKey());
+            os.write(entry.getValue().signature);
+            os.writeInt(entry.getValue().references.size());
+            for (String reference : entry.getValue().references) {
+                os.writeUTF(reference);
+            }
+        }
+        os.close();
+
+        File target = new File(resource.getAbsPath());
+        if (target.isFile()) {
+            File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+            Files.write(tmp.toPath(), bos.toByteArray());
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            resource.setContent(bos.toByteArray());
+        }
+        changed = false;
+    }
+
+}
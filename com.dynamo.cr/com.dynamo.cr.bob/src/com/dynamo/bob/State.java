@@ -14,41 +14,224 @@ package com.dynamo.bob;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.MurmurHash;
 
 /**
  * Bob state abstraction for persistent sha1-checksums
+ *
+ * The state is stored in a versioned binary format:
+ * <pre>
+ * header:  magic (4 bytes), version (4 bytes), table entry count (4 bytes)
+ * table:   entries sorted by path hash
+ * journal: entries appended since the table was last written
+ * </pre>
+ * Every entry is a 64-bit hash of the output path followed by the 20 byte signature.
+ * A journal entry with an all-zero signature removes the mapping.
+ *
+ * The table is memory-mapped on load and looked up with a binary search. Changes
+ * are appended to the journal on save and the file is compacted into a new table
+ * when the journal grows too large.
  * @author Christian Murray
  *
  */
-public class State implements Serializable {
+public class State {
+
+    private static final int MAGIC = 0x424f4253; // "BOBS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int SIGNATURE_SIZE = 20;
+    private static final int ENTRY_SIZE = 8 + SIGNATURE_SIZE;
+    private static final int MIN_COMPACT_JOURNAL_COUNT = 1024;
+    private static final byte[] REMOVED = new byte[SIGNATURE_SIZE];
 
-    private static final long serialVersionUID = -275410118302470803L;
-    private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
+    // Sorted table, header excluded
+    private ByteBuffer table = ByteBuffer.allocate(0);
+    private int tableCount = 0;
+    // Journal entries read on load and changes saved since then
+    private Map<Long, byte[]> journal = new HashMap<Long, byte[]>();
+    // Changes not yet saved
+    private Map<Long, byte[]> changes = new HashMap<Long, byte[]>();
+    private int journalCount = 0;
+    // The file the state was loaded from and its size, used to decide if changes can be appended
+    private File file;
+    private long fileLength = -1;
+
+    private static long hashPath(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        return MurmurHash.hash64(bytes, bytes.length);
+    }
+
+    private byte[] lookup(long hash) {
+        int low = 0;
+        int high = tableCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midHash = table.getLong(mid * ENTRY_SIZE);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                byte[] signature = new byte[SIGNATURE_SIZE];
+                for (int i = 0; i < SIGNATURE_SIZE; ++i) {
+                    signature[i] = table.get(mid * ENTRY_SIZE + 8 + i);
+                }
+                return signature;
+            }
+        }
+        return null;
+    }
 
     /**
      * Get signature for path
      * @param path path to get sha1 for
      * @return signature or null of no mapping exists
      */
-    public byte[] getSignature(String path) {
-        return signatures.get(path);
+    public synchronized byte[] getSignature(String path) {
+        long hash = hashPath(path);
+        byte[] signature = changes.get(hash);
+        if (signature == null) {
+            signature = journal.get(hash);
+        }
+        if (signature == null) {
+            signature = lookup(hash);
+        }
+        if (signature == null || Arrays.equals(signature, REMOVED)) {
+            return null;
+        }
+        return signature;
     }
 
     /**
      * Add signature
      * @param path path to set sha1 for
-     * @param signature signature to set
+     * @param signature signature to set. An empty signature removes the mapping.
      */
-    public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+    public synchronized void putSignature(String path, byte[] signature) {
+        if (signature.length == 0) {
+            signature = REMOVED;
+        } else if (signature.length != SIGNATURE_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid signature size %d for '%s'", signature.length, path));
+        }
+        changes.put(hashPath(path), Arrays.copyOf(signature, SIGNATURE_SIZE));
+    }
+
+    private static void readEntries(ByteBuffer buffer, int count, Map<Long, byte[]> entries) {
+        for (int i = 0; i < count; ++i) {
+            long hash = buffer.getLong();
+            byte[] signature = new byte[SIGNATURE_SIZE];
+            buffer.get(signature);
+            entries.put(hash, signature);
+        }
+    }
+
+    // Returns false if the journal ends with a partially written entry
+    private boolean read(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Invalid state file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported state version %d", version));
+        }
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * ENTRY_SIZE > buffer.remaining()) {
+            throw new IOException("Invalid state file");
+        }
+        ByteBuffer t = buffer.slice();
+        t.limit(count * ENTRY_SIZE);
+        table = t;
+        tableCount = count;
+
+        buffer.position(buffer.position() + count * ENTRY_SIZE);
+        journalCount = buffer.remaining() / ENTRY_SIZE;
+        readEntries(buffer, journalCount, journal);
+        return !buffer.hasRemaining();
+    }
+
+    private static boolean canMap() {
+        // Files can't be replaced on Windows while they are mapped
+        Platform host = Platform.getHostPlatform();
+        return host != Platform.X86Win32 && host != Platform.X86_64Win32;
+    }
+
+    private static ByteBuffer readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (canMap()) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * The state used to be stored as a serialized State object holding a map
+     * from path to signature. Used to migrate old state files.
+     */
+    private static class LegacyState implements Serializable {
+        private static final long serialVersionUID = -275410118302470803L;
+        private Map<String, byte[]> signatures;
+    }
+
+    private static boolean isLegacy(byte[] header) {
+        return header.length >= 2 && (header[0] & 0xff) == 0xac && (header[1] & 0xff) == 0xed;
+    }
+
+    private void readLegacy(InputStream input) throws IOException, ClassNotFoundException {
+        ObjectInputStream is = new ObjectInputStream(input) {
+            @Override
+            protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+                ObjectStreamClass desc = super.readClassDescriptor();
+                if (desc.getName().equals(State.class.getName())) {
+                    return ObjectStreamClass.lookup(LegacyState.class);
+                }
+                return desc;
+            }
+        };
+        try {
+            LegacyState legacy = (LegacyState) is.readObject();
+            if (legacy.signatures != null) {
+                for (Map.Entry<String, byte[]> entry : legacy.signatures.entrySet()) {
+                    if (entry.getValue().length == SIGNATURE_SIZE) {
+                        changes.put(hashPath(entry.getKey()), entry.getValue());
+                    }
+                }
+            }
+        } finally {
+            is.close();
+        }
     }
 
     /**
@@ -58,33 +241,127 @@ public class State implements Serializable {
      * @throws IOException
      */
     public static State load(IResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
+        State state = new State();
+        File file = new File(resource.getAbsPath());
+        try {
+            if (file.isFile()) {
+                byte[] header = new byte[2];
+                InputStream is = Files.newInputStream(file.toPath());
+                try {
+                    IOUtils.read(is, header);
+                } finally {
+                    is.close();
+                }
+                if (isLegacy(header)) {
+                    state.readLegacy(Files.newInputStream(file.toPath()));
+                } else {
+                    boolean complete = state.read(readFile(file));
+                    state.file = file;
+                    // Nothing is appended after a partial entry, the whole file is written on save
+                    state.fileLength = complete ? file.length() : -1;
+                }
+            } else {
+                byte[] content = resource.getContent();
+                if (content == null) {
+                    return state;
+                }
+                if (isLegacy(content)) {
+                    state.readLegacy(new ByteArrayInputStream(content));
+                } else {
+                    state.read(ByteBuffer.wrap(content));
+                }
+            }
+            return state;
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
             return new State();
-        } else {
-            try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
-                return state;
-            } catch (Throwable e) {
-                System.err.println("Unable to load state");
-                e.printStackTrace();
-                return new State();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream os, long hash, byte[] signature) throws IOException {
+        os.writeLong(hash);
+        os.write(signature);
+    }
+
+    private byte[] compact() throws IOException {
+        TreeMap<Long, byte[]> entries = new TreeMap<Long, byte[]>();
+        ByteBuffer t = table.duplicate();
+        t.position(0);
+        readEntries(t, tableCount, entries);
+        entries.putAll(journal);
+        entries.putAll(changes);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(HEADER_SIZE + entries.size() * ENTRY_SIZE);
+        DataOutputStream os = new DataOutputStream(bos);
+        int count = 0;
+        for (byte[] signature : entries.values()) {
+            if (!Arrays.equals(signature, REMOVED)) {
+                ++count;
+            }
+        }
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeInt(count);
+        for (Map.Entry<Long, byte[]> entry : entries.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), REMOVED)) {
+                writeEntry(os, entry.getKey(), entry.getValue());
             }
         }
+        os.close();
+        return bos.toByteArray();
+    }
+
+    private void append(File file) throws IOException {
+        DataOutputStream os = new DataOutputStream(new FileOutputStream(file, true));
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(changes.size() * ENTRY_SIZE);
+            DataOutputStream entries = new DataOutputStream(bos);
+            for (Map.Entry<Long, byte[]> entry : changes.entrySet()) {
+                writeEntry(entries, entry.getKey(), entry.getValue());
+            }
+            os.write(bos.toByteArray());
+        } finally {
+            os.close();
+        }
     }
 
     /**
-     * Save state
+     * Save state. Changes are appended to the file the state was loaded from
+     * when possible, otherwise the whole state is written.
      * @param resource state resource
      * @throws IOException
      */
-    public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
-        resource.setContent(bos.toByteArray());
+    public synchronized void save(IResource resource) throws IOException {
+        File target = new File(resource.getAbsPath());
+        boolean canAppend = target.equals(file) && target.isFile() && target.length() == fileLength
+                && journalCount + changes.size() <= Math.max(MIN_COMPACT_JOURNAL_COUNT, tableCount / 4);
+        if (canAppend) {
+            if (changes.isEmpty()) {
+                return;
+            }
+            append(target);
+            journalCount += changes.size();
+            fileLength = target.length();
+        } else {
+            byte[] content = compact();
+            if (target.isFile()) {
+                // Write to a new file and replace the old one since it might still be mapped
+                File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+                Files.write(tmp.toPath(), content);
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                resource.setContent(content);
+            }
+            journal.clear();
+            journalCount = 0;
+            table = ByteBuffer.wrap(content, HEADER_SIZE, content.length - HEADER_SIZE).slice();
+            tableCount = table.remaining() / ENTRY_SIZE;
+            file = target.isFile() ? target : null;
+            fileLength = file != null ? file.length() : -1;
+        }
+        journal.putAll(changes);
+        changes.clear();
     }
 
 }
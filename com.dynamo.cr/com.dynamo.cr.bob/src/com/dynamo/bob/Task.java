@@ -35,6 +35,7 @@ public class Task<T> {
     private List<IResource> outputs = new ArrayList<IResource>();
     private List<IResource> dependencies = new ArrayList<IResource>();
     private Map<String, String> options = new HashMap<String, String>();
+    private Map<IResource, List<String>> references = new HashMap<IResource, List<String>>();
     private Task<?> productOf;
 
     public T data;
@@ -143,6 +144,26 @@ public class Task<T> {
         return signature;
     }
 
+    /**
+     * Set the resources referenced by an output, i.e. the paths of all resource fields of
+     * the message written to it. Set by the builder while building so the resources to
+     * include in the game can be found without reading the outputs back, see {@link ResourceReferences}.
+     * @param output output resource
+     * @param references paths of the referenced resources, in the order they appear in the output
+     */
+    public synchronized void setReferences(IResource output, List<String> references) {
+        this.references.put(output, references);
+    }
+
+    /**
+     * Get the resources referenced by an output, as set by the builder
+     * @param output output resource
+     * @return paths of the referenced resources or null if not set
+     */
+    public synchronized List<String> getReferences(IResource output) {
+        return references.get(output);
+    }
+
     public void setProductOf(Task<?> task) {
         this.productOf = task;
     }
@@ -0,0 +1,212 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Dependency graph of build tasks. A task depends on another task when one of
+ * its inputs is an output of the other task. The edges are created once when a
+ * task is added to the graph and tasks become ready when all their producers
+ * have completed.
+ *
+ * The graph itself is not thread-safe and is only meant to be driven by the
+ * thread scheduling the tasks, see {@link Project}.
+ */
+class TaskGraph {
+
+    private static class Node {
+        Task<?> task;
+        int order;
+        int depth;
+        int pendingProducers;
+        boolean dispatched;
+        boolean failed;
+        Set<Node> producers = new HashSet<Node>();
+        List<Node> dependents = new ArrayList<Node>();
+
+        Node(Task<?> task, int order) {
+            this.task = task;
+            this.order = order;
+        }
+    }
+
+    private Map<Task<?>, Node> nodes = new HashMap<Task<?>, Node>();
+    private Map<IResource, Node> producers = new HashMap<IResource, Node>();
+    private Set<Node> completed = new HashSet<Node>();
+    private Set<Node> waiting = new LinkedHashSet<Node>();
+    private Deque<Node> ready = new ArrayDeque<Node>();
+
+    /**
+     * Add tasks to the graph. Tasks not yet dispatched that consume any of the
+     * outputs of the added tasks will wait for them to complete.
+     * @param tasks tasks to add
+     */
+    public void addTasks(Collection<Task<?>> tasks) {
+        List<Node> added = new ArrayList<Node>(tasks.size());
+        Set<IResource> addedOutputs = new HashSet<IResource>();
+        for (Task<?> task : tasks) {
+            if (nodes.containsKey(task)) {
+                continue;
+            }
+            Node node = new Node(task, nodes.size());
+            nodes.put(task, node);
+            added.add(node);
+            for (IResource output : task.getOutputs()) {
+                producers.put(output, node);
+                addedOutputs.add(output);
+            }
+        }
+
+        // Tasks added before this batch might depend on the new outputs
+        if (!waiting.isEmpty() && !addedOutputs.isEmpty()) {
+            for (Node node : new ArrayList<Node>(waiting)) {
+                for (IResource input : node.task.getInputs()) {
+                    if (addedOutputs.contains(input)) {
+                        addEdge(producers.get(input), node);
+                    }
+                }
+                if (node.pendingProducers > 0) {
+                    ready.remove(node);
+                }
+            }
+        }
+
+        for (Node node : added) {
+            waiting.add(node);
+            for (IResource input : node.task.getInputs()) {
+                addEdge(producers.get(input), node);
+            }
+        }
+
+        for (Node node : added) {
+            if (node.failed) {
+                fail(node);
+            } else if (node.pendingProducers == 0) {
+                ready.add(node);
+            }
+        }
+    }
+
+    private void addEdge(Node producer, Node consumer) {
+        if (producer == null || producer == consumer || completed.contains(producer)) {
+            return;
+        }
+        if (producer.failed) {
+            consumer.failed = true;
+            return;
+        }
+        if (consumer.producers.add(producer)) {
+            producer.dependents.add(consumer);
+            ++consumer.pendingProducers;
+        }
+    }
+
+    /**
+     * Get the next task ready to run, i.e. all its producers have completed.
+     * @return task or null if no task is ready
+     */
+    public Task<?> pollReady() {
+        Node node = ready.poll();
+        if (node == null) {
+            return null;
+        }
+        node.dispatched = true;
+        waiting.remove(node);
+        for (Node producer : node.producers) {
+            node.depth = Math.max(node.depth, producer.depth + 1);
+        }
+        return node.task;
+    }
+
+    /**
+     * Mark a dispatched task as successfully completed, making its dependents
+     * ready when they no longer wait for any other producer.
+     * @param task completed task
+     */
+    public void markCompleted(Task<?> task) {
+        Node node = nodes.get(task);
+        completed.add(node);
+        for (Node dependent : node.dependents) {
+            if (--dependent.pendingProducers == 0 && !dependent.failed && !dependent.dispatched) {
+                ready.add(dependent);
+            }
+        }
+    }
+
+    /**
+     * Mark a dispatched task as failed. All tasks depending on it, directly or
+     * indirectly, are marked as failed and will never become ready.
+     * @param task failed task
+     */
+    public void markFailed(Task<?> task) {
+        fail(nodes.get(task));
+    }
+
+    private void fail(Node node) {
+        Deque<Node> queue = new ArrayDeque<Node>();
+        node.failed = true;
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            Node n = queue.poll();
+            waiting.remove(n);
+            ready.remove(n);
+            for (Node dependent : n.dependents) {
+                if (!dependent.failed) {
+                    dependent.failed = true;
+                    queue.add(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if there are any tasks ready to run
+     * @return true if at least one task is ready
+     */
+    public boolean hasReady() {
+        return !ready.isEmpty();
+    }
+
+    /**
+     * Comparator ordering tasks by their depth in the graph and secondly in the
+     * order they were added. Used to report results in a deterministic order
+     * regardless of how the tasks were scheduled.
+     * @return comparator
+     */
+    public Comparator<Task<?>> executionOrder() {
+        return new Comparator<Task<?>>() {
+            @Override
+            public int compare(Task<?> t1, Task<?> t2) {
+                Node n1 = nodes.get(t1);
+                Node n2 = nodes.get(t2);
+                if (n1.depth != n2.depth) {
+                    return n1.depth - n2.depth;
+                }
+                return n1.order - n2.order;
+            }
+        };
+    }
+}
@@ -12,29 +12,52 @@
 
 package com.dynamo.bob.archive;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.pipeline.ResourceNode;
+import com.dynamo.bob.util.FileCache;
 import com.dynamo.crypt.Crypt;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+import com.dynamo.liveupdate.proto.Manifest.HashDigest;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
 
+import com.google.protobuf.ByteString;
+
 import net.jpountz.lz4.LZ4Compressor;
 import net.jpountz.lz4.LZ4Factory;
 
@@ -45,7 +68,15 @@ public class ArchiveBuilder {
     public static final int HASH_LENGTH = 20;
     public static final int MD5_HASH_DIGEST_BYTE_LENGTH = 16; // 128 bits
 
-    private static final byte[] KEY = "aQj8CScgNP4VsfXK".getBytes();
+    static final byte[] KEY = "aQj8CScgNP4VsfXK".getBytes();
+    static final Crypt.Key CRYPT_KEY = new Crypt.Key(KEY);
+
+    // Part of the compression cache key, change when the compression changes
+    private static final String COMPRESSION_SETTINGS = "lz4hc:ratio=0.95";
+
+    // Source index of an incremental archive, see setPreviousArchive
+    private static final int SOURCE_INDEX_MAGIC = 0x424f4153; // "BOAS"
+    private static final int SOURCE_INDEX_VERSION = 1;
 
     private static final List<String> ENCRYPTED_EXTS = Arrays.asList("luac", "scriptc", "gui_scriptc", "render_scriptc");
 
@@ -54,13 +85,80 @@ public class ArchiveBuilder {
     private ManifestBuilder manifestBuilder = null;
     private LZ4Compressor lz4Compressor;
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
+    private ExecutorService executor = null;
+    private FileCache compressionCache = null;
+
+    // Incremental archive, the previous archive is open while writing
+    private File previousIndexFile = null;
+    private File previousDataFile = null;
+    private File sourceIndexFile = null;
+    private ArchiveReader previousArchive = null;
+    private FileChannel previousData = null;
+    private Map<String, byte[]> previousSources = null;
+    private Map<String, byte[]> sources = null;
+    private AtomicInteger reusedEntryCount = new AtomicInteger();
+
+    // Resource data of an entry, compressed and encrypted, ready to be written
+    private static class PreparedEntry {
+        // Null when the data is copied from the previous archive
+        byte[] buffer;
+        ArchiveEntry previous;
+        byte archiveEntryFlags;
+        byte[] digest;
+        String hexDigest;
+    }
 
     public ArchiveBuilder(String root, ManifestBuilder manifestBuilder) {
         this.root = new File(root).getAbsolutePath();
         this.manifestBuilder = manifestBuilder;
         this.lz4Compressor = LZ4Factory.fastestInstance().highCompressor();
     }
+
+    /**
+     * Set the executor used to load, compress, encrypt and hash entries in
+     * parallel when writing the archive. The entries are always written in
+     * the same order and the output is identical regardless of thread count.
+     * @param executor executor, not shut down by the builder, or null to prepare entries on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
     
+    /**
+     * Set cache of compressed resource data. Only resources not found in
+     * the cache are compressed.
+     * @param compressionCache cache or null to always compress
+     */
+    public void setCompressionCache(FileCache compressionCache) {
+        this.compressionCache = compressionCache;
+    }
+
+    /**
+     * Reuse the data of unchanged entries of a previous archive instead of
+     * compressing and encrypting them again. The source index maps the content
+     * of every entry to its hash in the archive. It is read before and rewritten
+     * after the archive is written. Entries are only reused when the hash is found
+     * in the previous archive, so the output is identical to a full rebuild even
+     * if the source index is stale. A full rebuild is made when any of the files
+     * are missing or can't be read.
+     * @param previousIndex index of the previous archive
+     * @param previousData data of the previous archive
+     * @param sourceIndex source index of the previous archive
+     */
+    public void setPreviousArchive(File previousIndex, File previousData, File sourceIndex) {
+        this.previousIndexFile = previousIndex;
+        this.previousDataFile = previousData;
+        this.sourceIndexFile = sourceIndex;
+    }
+
+    /**
+     * Get the number of entries copied from the previous archive by the last write
+     * @return number of reused entries
+     */
+    public int getReusedEntryCount() {
+        return reusedEntryCount.get();
+    }
+
     private void add(String fileName, boolean doCompress, boolean isLiveUpdate) throws IOException {
         ArchiveEntry e = new ArchiveEntry(root, fileName, doCompress, isLiveUpdate);
         if (!contains(e)) {
@@ -116,7 +214,7 @@ public class ArchiveBuilder {
     }
 
     public byte[] encryptResourceData(byte[] buffer) {
-        return Crypt.encryptCTR(buffer, KEY);
+        return Crypt.encryptCTR(buffer, CRYPT_KEY);
     }
 
     public void writeResourcePack(String filename, String directory, byte[] buffer, byte flags, int size) throws IOException {
@@ -139,9 +237,269 @@ public class ArchiveBuilder {
         }
     }
 
+    private static Map<String, byte[]> readSourceIndex(File file) throws IOException {
+        Map<String, byte[]> sources = new HashMap<String, byte[]>();
+        DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (is.readInt() != SOURCE_INDEX_MAGIC || is.readInt() != SOURCE_INDEX_VERSION) {
+                throw new IOException("Invalid archive source index " + file);
+            }
+            int count = is.readInt();
+            for (int i = 0; i < count; ++i) {
+                String key = is.readUTF();
+                byte[] hash = new byte[is.readUnsignedByte()];
+                is.readFully(hash);
+                sources.put(key, hash);
+            }
+        } finally {
+            is.close();
+        }
+        return sources;
+    }
+
+    private static void writeSourceIndex(File file, Map<String, byte[]> sources) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            os.writeInt(SOURCE_INDEX_MAGIC);
+            os.writeInt(SOURCE_INDEX_VERSION);
+            os.writeInt(sources.size());
+            for (Map.Entry<String, byte[]> source : sources.entrySet()) {
+                os.writeUTF(source.getKey());
+                os.writeByte(source.getValue().length);
+                os.write(source.getValue());
+            }
+        } finally {
+            os.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void openPreviousArchive() {
+        if (sourceIndexFile == null) {
+            return;
+        }
+        sources = new ConcurrentHashMap<String, byte[]>();
+        if (!previousIndexFile.isFile() || !previousDataFile.isFile() || !sourceIndexFile.isFile()) {
+            return;
+        }
+        try {
+            previousSources = readSourceIndex(sourceIndexFile);
+            previousArchive = new ArchiveReader(previousIndexFile.getAbsolutePath(), previousDataFile.getAbsolutePath(), null);
+            previousArchive.read();
+            previousData = new RandomAccessFile(previousDataFile, "r").getChannel();
+        } catch (IOException e) {
+            // Nothing to reuse, all entries are written from scratch
+            closePreviousArchive();
+        }
+    }
+
+    private void closePreviousArchive() {
+        previousSources = null;
+        try {
+            if (previousArchive != null) {
+                previousArchive.close();
+            }
+        } catch (IOException e) {
+            // Only read from, nothing to do
+        }
+        previousArchive = null;
+        IOUtils.closeQuietly(previousData);
+        previousData = null;
+    }
+
+    private static int getStoredSize(ArchiveEntry entry) {
+        return entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED ? entry.compressedSize : entry.size;
+    }
+
+    // Find the data of an unchanged entry in the previous archive
+    private ArchiveEntry findPreviousEntry(ArchiveEntry entry, String sourceKey) throws IOException {
+        if (previousArchive == null) {
+            return null;
+        }
+        byte[] hash = previousSources.get(sourceKey);
+        if (hash == null) {
+            return null;
+        }
+        ArchiveEntry previous = previousArchive.findEntry(hash);
+        // Whether compression was requested is part of the source key
+        if (previous == null || previous.size != entry.size
+                || (long) previous.resourceOffset + getStoredSize(previous) > previousData.size()) {
+            return null;
+        }
+        return previous;
+    }
+
+    private void copyPreviousEntry(ArchiveEntry previous, RandomAccessFile archiveData) throws IOException {
+        FileChannel target = archiveData.getChannel();
+        long position = previous.resourceOffset;
+        long remaining = getStoredSize(previous);
+        while (remaining > 0) {
+            long count = previousData.transferTo(position, remaining, target);
+            if (count <= 0) {
+                throw new IOException("Unable to copy entry from previous archive " + previousDataFile);
+            }
+            position += count;
+            remaining -= count;
+        }
+    }
+
+    private byte[] readPreviousEntry(ArchiveEntry previous) throws IOException {
+        ByteBuffer data = previousArchive.getEntryData(previous);
+        byte[] buffer = new byte[data.remaining()];
+        data.get(buffer);
+        return buffer;
+    }
+
+    // Load, compress, encrypt and hash the resource data of an entry
+    private PreparedEntry prepareEntry(ArchiveEntry entry) throws IOException {
+        PreparedEntry prepared = new PreparedEntry();
+        byte[] buffer = this.loadResourceData(entry.fileName);
+        byte archiveEntryFlags = (byte) entry.flags;
+        String extension = FilenameUtils.getExtension(entry.fileName);
+        boolean encrypt = ENCRYPTED_EXTS.indexOf(extension) != -1;
+
+        // Reuse the data of the previous archive if the source and the way it's stored are unchanged
+        String sourceKey = null;
+        if (this.sources != null) {
+            String settings = String.format("%s:compress=%b:encrypt=%b:hash=%s", COMPRESSION_SETTINGS,
+                    entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED, encrypt, manifestBuilder.getResourceHashAlgorithm());
+            sourceKey = FileCache.key(buffer, settings);
+            ArchiveEntry previous = findPreviousEntry(entry, sourceKey);
+            if (previous != null) {
+                entry.compressedSize = previous.compressedSize;
+                if (previous.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                }
+                if (encrypt) {
+                    archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+                    entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
+                }
+                byte[] hashDigest = this.previousSources.get(sourceKey);
+                entry.hash = new byte[HASH_MAX_LENGTH];
+                System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
+                this.sources.put(sourceKey, hashDigest);
+                prepared.previous = previous;
+                prepared.archiveEntryFlags = archiveEntryFlags;
+                prepared.digest = hashDigest;
+                prepared.hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
+                return prepared;
+            }
+        }
+
+        if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+            // Compress data, or get the result of a previous compression from the cache
+            String cacheKey = null;
+            byte[] compressed = null;
+            boolean useCompressed;
+            if (this.compressionCache != null) {
+                cacheKey = FileCache.key(buffer, COMPRESSION_SETTINGS);
+                compressed = this.compressionCache.get(cacheKey);
+            }
+            if (compressed != null) {
+                useCompressed = compressed.length > 0;
+            } else {
+                compressed = this.compressResourceData(buffer);
+                useCompressed = this.shouldUseCompressedResourceData(buffer, compressed);
+                if (cacheKey != null) {
+                    try {
+                        this.compressionCache.put(cacheKey, useCompressed ? compressed : new byte[0]);
+                    } catch (IOException e) {
+                        // The cache is only an optimization, the entry is compressed again next time
+                    }
+                }
+            }
+            if (useCompressed) {
+                archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                buffer = compressed;
+                entry.compressedSize = compressed.length;
+            } else {
+                entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+            }
+        }
+
+        // Encrypt data
+        if (encrypt) {
+            archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+            entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
+            buffer = this.encryptResourceData(buffer);
+        }
+
+        // Calculate hash digest values for resource
+        try {
+            byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
+            entry.hash = new byte[HASH_MAX_LENGTH];
+            System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
+            prepared.digest = hashDigest;
+            prepared.hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
+            if (sourceKey != null) {
+                this.sources.put(sourceKey, hashDigest);
+            }
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        }
+
+        prepared.buffer = buffer;
+        prepared.archiveEntryFlags = archiveEntryFlags;
+        return prepared;
+    }
+
+    private static PreparedEntry getPreparedEntry(Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // Keeps track of the entries being prepared on the executor, which is shared
+    // and can't be awaited. No entries are started once closed.
+    private static class PrepareTracker {
+        private int running = 0;
+        private boolean closed = false;
+
+        synchronized boolean start() {
+            if (closed) {
+                return false;
+            }
+            ++running;
+            return true;
+        }
+
+        synchronized void end() {
+            --running;
+            notifyAll();
+        }
+
+        // Waits for the running entries to be done
+        synchronized void close() {
+            closed = true;
+            boolean interrupted = false;
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     // Checks if any of the parents are excluded
     // Parents are sorted, deepest parent first, root parent last
-    public boolean isTreeExcluded(List<String> parents, List<String> excludedResources) {
+    public boolean isTreeExcluded(List<String> parents, Collection<String> excludedResources) {
         for (String parent : parents) {
             if (excludedResources.contains(parent))
                 return true;
@@ -149,7 +507,7 @@ public class ArchiveBuilder {
         return false;
     }
 
-    public boolean excludeResource(String filepath, List<String> excludedResources) {
+    public boolean excludeResource(String filepath, Collection<String> excludedResources) {
         boolean result = false;
         if (this.manifestBuilder != null) {
             List<ArrayList<String>> parentChains = this.manifestBuilder.getParentCollections(filepath);
@@ -178,57 +536,84 @@ public class ArchiveBuilder {
         
         int archiveIndexHeaderOffset = (int) archiveIndex.getFilePointer();
 
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            ArchiveEntry entry = entries.get(i);
-            byte[] buffer = this.loadResourceData(entry.fileName);
-            byte archiveEntryFlags = (byte) entry.flags;
-            int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
-            if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
-                    buffer = compressed;
-                    entry.compressedSize = compressed.length;
+        // Looked up for every parent collection of every resource
+        Collection<String> excludedResourceSet = new HashSet<String>(excludedResources);
+
+        // Entries are prepared by a pool of workers, ahead of the entry being written,
+        // and written in order on this thread.
+        int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+        final PrepareTracker tracker = new PrepareTracker();
+        Deque<Future<PreparedEntry>> pending = new ArrayDeque<Future<PreparedEntry>>();
+        int next = entries.size() - 1;
+        reusedEntryCount.set(0);
+        openPreviousArchive();
+        try {
+            for (int i = entries.size() - 1; i >= 0; --i) {
+                ArchiveEntry entry = entries.get(i);
+                PreparedEntry prepared;
+                if (executor != null) {
+                    while (next >= 0 && pending.size() < maxPending) {
+                        final ArchiveEntry nextEntry = entries.get(next--);
+                        pending.add(executor.submit(new Callable<PreparedEntry>() {
+                            @Override
+                            public PreparedEntry call() throws Exception {
+                                if (!tracker.start()) {
+                                    return null;
+                                }
+                                try {
+                                    return prepareEntry(nextEntry);
+                                } finally {
+                                    tracker.end();
+                                }
+                            }
+                        }));
+                    }
+                    prepared = getPreparedEntry(pending.poll());
                 } else {
-                    entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+                    prepared = prepareEntry(entry);
+                }
+                byte[] buffer = prepared.buffer;
+                int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
+
+                // Add entry to manifest
+                String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
+
+                // Write resource to data archive
+                if (this.excludeResource(normalisedPath, excludedResourceSet)) {
+                    resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
+                    if (buffer == null) {
+                        buffer = readPreviousEntry(prepared.previous);
+                    }
+                    this.writeResourcePack(prepared.hexDigest, resourcePackDirectory.toString(), buffer, prepared.archiveEntryFlags, entry.size);
+                    entries.remove(i);
+                } else {
+                    alignBuffer(archiveData, 4);
+                    entry.resourceOffset = (int) archiveData.getFilePointer();
+                    if (buffer == null) {
+                        copyPreviousEntry(prepared.previous, archiveData);
+                    } else {
+                        archiveData.write(buffer, 0, buffer.length);
+                    }
+                }
+                if (prepared.previous != null) {
+                    reusedEntryCount.incrementAndGet();
                 }
-            }
 
-            // Encrypt data
-            String extension = FilenameUtils.getExtension(entry.fileName);
-            if (ENCRYPTED_EXTS.indexOf(extension) != -1) {
-                archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
-                entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
-                buffer = this.encryptResourceData(buffer);
+                HashDigest hash = HashDigest.newBuilder().setData(ByteString.copyFrom(prepared.digest)).build();
+                manifestBuilder.addResourceEntry(normalisedPath, hash, resourceEntryFlags);
             }
-
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
-
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.hash = new byte[HASH_MAX_LENGTH];
-                System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
-            }
-
-            // Write resource to data archive
-            if (this.excludeResource(normalisedPath, excludedResources)) {
-                resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
-                this.writeResourcePack(hexDigest, resourcePackDirectory.toString(), buffer, archiveEntryFlags, entry.size);
-                entries.remove(i);
-            } else {
-                alignBuffer(archiveData, 4);
-                entry.resourceOffset = (int) archiveData.getFilePointer();
-                archiveData.write(buffer, 0, buffer.length);
+        } finally {
+            for (Future<PreparedEntry> future : pending) {
+                future.cancel(false);
             }
+            // The previous archive can't be closed while it's read by workers
+            tracker.close();
+            closePreviousArchive();
+        }
 
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, resourceEntryFlags);
+        if (sourceIndexFile != null) {
+            writeSourceIndex(sourceIndexFile, sources);
+            sources = null;
         }
 
         // Write sorted hashes to index file
@@ -18,13 +18,36 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.dynamo.bob.Platform;
+import com.dynamo.crypt.Crypt;
 import com.dynamo.liveupdate.proto.Manifest.ManifestData;
 import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntry;
 
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Reader of archives written by {@link ArchiveBuilder}
+ *
+ * The index and data files are memory-mapped, except on Windows where mapped
+ * files can't be replaced until the mapping is collected. Entries are looked up
+ * by hash with a binary search on the sorted hash table of the index and entry
+ * data is returned as slices of the mapped data without copying.
+ */
 public class ArchiveReader {
     public static final int VERSION = 4;
     public static final int HASH_BUFFER_BYTESIZE = 64; // 512 bits
@@ -43,92 +66,111 @@ public class ArchiveReader {
     private RandomAccessFile archiveDataFile = null;
     private ManifestFile manifestFile = null;
 
+    // Mapped index and data, data is null when not mapped and read through the channel
+    private ByteBuffer index = null;
+    private ByteBuffer data = null;
+    private FileChannel dataChannel = null;
+    private LZ4FastDecompressor lz4Decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
     public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath) {
         this.archiveIndexFilepath = archiveIndexFilepath;
         this.archiveDataFilepath = archiveDataFilepath;
         this.manifestFilepath = manifestFilepath;
     }
 
+    private static boolean canMap() {
+        // Files can't be replaced on Windows while they are mapped
+        Platform host = Platform.getHostPlatform();
+        return host != Platform.X86Win32 && host != Platform.X86_64Win32;
+    }
+
     public void read() throws IOException {
-    	this.archiveIndexFile = new RandomAccessFile(this.archiveIndexFilepath, "r");
+        this.archiveIndexFile = new RandomAccessFile(this.archiveIndexFilepath, "r");
         this.archiveDataFile = new RandomAccessFile(this.archiveDataFilepath, "r");
-        
-        this.archiveIndexFile.seek(0);
-        this.archiveDataFile.seek(0);
-        
+
+        FileChannel indexChannel = this.archiveIndexFile.getChannel();
+        this.dataChannel = this.archiveDataFile.getChannel();
+        if (canMap()) {
+            this.index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            this.data = this.dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, this.dataChannel.size());
+        } else {
+            this.index = ByteBuffer.allocate((int) indexChannel.size());
+            while (this.index.hasRemaining() && indexChannel.read(this.index) >= 0) {
+            }
+            this.index.flip();
+        }
+
         if (this.manifestFilepath != null) {
-	        InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
-	        this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
-	        manifestInputStream.close();
+            InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
+            this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
+            manifestInputStream.close();
         }
 
         // Version
-        int indexVersion = this.archiveIndexFile.readInt();
+        int indexVersion = this.index.getInt(0);
         if (indexVersion == ArchiveReader.VERSION) {
             readArchiveData();
         } else {
             throw new IOException("Unsupported archive index version: " + indexVersion);
         }
     }
-    
-    private boolean matchHash(byte[] a, byte[] b, int hlen) {
-    	if (a.length < hlen || b.length < hlen) {
-    		return false;
-    	}
-    	
-    	for (int i = 0; i < hlen; ++i) {
-    		if (a[i] != b[i]) {
-    			return false;
-    		}
-    	}
-    	
-    	return true;
+
+    // Key used to match hashes of the index with hashes of the manifest
+    private String hashKey(byte[] hash) {
+        if (hash.length < this.hashLength) {
+            return null;
+        }
+        return ManifestBuilder.CryptographicOperations.hexdigest(Arrays.copyOf(hash, this.hashLength));
     }
 
     private void readArchiveData() throws IOException {
         // INDEX
-        archiveIndexFile.readInt(); // Pad
-        archiveIndexFile.readLong(); // UserData, should be 0
-        entryCount = archiveIndexFile.readInt();
-        entryOffset = archiveIndexFile.readInt();
-        hashOffset = archiveIndexFile.readInt();
-        hashLength = archiveIndexFile.readInt();
+        // Version (4 bytes), Pad (4 bytes) and UserData (8 bytes, should be 0) are skipped
+        entryCount = index.getInt(16);
+        entryOffset = index.getInt(20);
+        hashOffset = index.getInt(24);
+        hashLength = index.getInt(28);
 
         entries = new ArrayList<ArchiveEntry>(entryCount);
 
+        // Map hashes to urls once instead of searching the manifest for every entry
+        Map<String, String> urls = new HashMap<String, String>();
+        if (this.manifestFile != null) {
+            ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
+            for (ResourceEntry resource : manifestData.getResourcesList()) {
+                String key = hashKey(resource.getHash().getData().toByteArray());
+                if (key != null) {
+                    urls.put(key, resource.getUrl());
+                }
+            }
+        }
+
         // Hashes are stored linearly in memory instead of within each entry, so the hashes are read in a separate loop.
         // Once the hashes are read, the rest of the entries are read.
-
-        archiveIndexFile.seek(hashOffset);
-        // Read entry hashes
         for (int i = 0; i < entryCount; ++i) {
-            archiveIndexFile.seek(hashOffset + i * HASH_BUFFER_BYTESIZE);
             ArchiveEntry e = new ArchiveEntry("");
             e.hash = new byte[HASH_BUFFER_BYTESIZE];
-            archiveIndexFile.read(e.hash, 0, hashLength);
-
-            if (this.manifestFile != null) {
-                ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
-                for (ResourceEntry resource : manifestData.getResourcesList()) {
-	            	if (matchHash(e.hash, resource.getHash().getData().toByteArray(), this.hashLength)) {
-	            		e.fileName = resource.getUrl();
-	            		e.relName = resource.getUrl();
-	            	}
-	            }
+            ByteBuffer hash = index.duplicate();
+            hash.position(hashOffset + i * HASH_BUFFER_BYTESIZE);
+            hash.get(e.hash, 0, hashLength);
+
+            String url = urls.get(hashKey(e.hash));
+            if (url != null) {
+                e.fileName = url;
+                e.relName = url;
             }
-            
+
             entries.add(e);
         }
 
         // Read entries
-        archiveIndexFile.seek(entryOffset);
-        for (int i=0; i<entryCount; ++i) {
+        for (int i = 0; i < entryCount; ++i) {
             ArchiveEntry e = entries.get(i);
-
-            e.resourceOffset = archiveIndexFile.readInt();
-            e.size = archiveIndexFile.readInt();
-            e.compressedSize = archiveIndexFile.readInt();
-            e.flags = archiveIndexFile.readInt();
+            int offset = entryOffset + i * 16;
+            e.resourceOffset = index.getInt(offset);
+            e.size = index.getInt(offset + 4);
+            e.compressedSize = index.getInt(offset + 8);
+            e.flags = index.getInt(offset + 12);
         }
     }
 
@@ -136,14 +178,139 @@ public class ArchiveReader {
         return entries;
     }
 
+    private int compareHash(int entryIndex, byte[] hash) {
+        int base = hashOffset + entryIndex * HASH_BUFFER_BYTESIZE;
+        for (int i = 0; i < hashLength; ++i) {
+            int a = index.get(base + i) & 0xff;
+            int b = i < hash.length ? hash[i] & 0xff : 0;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Find entry by hash with a binary search on the sorted hash table
+     * @param hash resource hash, as in the manifest
+     * @return entry or null if not found
+     */
+    public ArchiveEntry findEntry(byte[] hash) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareHash(mid, hash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entries.get(mid);
+            }
+        }
+        return null;
+    }
+
+    // The compressed flag is not stored in the index, compressed entries have a compressed size
+    private static boolean isCompressed(ArchiveEntry entry) {
+        return entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED;
+    }
+
+    private ByteBuffer getData(int offset, int length) throws IOException {
+        if (this.data != null) {
+            ByteBuffer slice = this.data.duplicate();
+            slice.position(offset);
+            slice.limit(offset + length);
+            return slice.slice().asReadOnlyBuffer();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && this.dataChannel.read(buffer, offset + buffer.position()) >= 0) {
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the data of an entry as stored in the archive, i.e. compressed and
+     * encrypted as when it was written. The data is not copied when the
+     * archive is memory-mapped.
+     * @param entry entry to get data for
+     * @return read-only buffer with the entry data
+     * @throws IOException
+     */
+    public ByteBuffer getEntryData(ArchiveEntry entry) throws IOException {
+        return getData(entry.resourceOffset, isCompressed(entry) ? entry.compressedSize : entry.size);
+    }
+
     public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
         byte[] buf = new byte[entry.size];
-        archiveDataFile.seek(entry.resourceOffset);
-        archiveDataFile.read(buf, 0, entry.size);
+        int length = (int) Math.min(entry.size, Math.max(0, archiveDataFile.length() - entry.resourceOffset));
+        getData(entry.resourceOffset, length).get(buf, 0, length);
 
         return buf;
     }
 
+    /**
+     * Get the original content of an entry, decrypted and decompressed
+     * @param entry entry to get content for
+     * @return content
+     * @throws IOException
+     */
+    public byte[] getDecompressedContent(ArchiveEntry entry) throws IOException {
+        ByteBuffer buffer = getEntryData(entry);
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        if ((entry.flags & ArchiveEntry.FLAG_ENCRYPTED) != 0) {
+            Crypt.encryptCTR(ArchiveBuilder.CRYPT_KEY, 0, content, 0, content, 0, content.length);
+        }
+        if (isCompressed(entry)) {
+            byte[] decompressed = new byte[entry.size];
+            lz4Decompressor.decompress(content, 0, decompressed, 0, entry.size);
+            content = decompressed;
+        }
+        return content;
+    }
+
+    /**
+     * Get the original content of all entries, decrypted and decompressed in parallel
+     * @param numThreads number of threads to use
+     * @return content of each entry, in the same order as {@link #getEntries()}
+     * @throws IOException
+     */
+    public List<byte[]> getDecompressedContents(int numThreads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(entries.size());
+            for (final ArchiveEntry entry : entries) {
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return getDecompressedContent(entry);
+                    }
+                }));
+            }
+            List<byte[]> contents = new ArrayList<byte[]>(entries.size());
+            for (Future<byte[]> future : futures) {
+                contents.add(future.get());
+            }
+            return contents;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     public void extractAll(String path) throws IOException {
 
         int entryCount = entries.size();
@@ -157,8 +324,7 @@ public class ArchiveReader {
 
             // extract
             byte[] buf = new byte[entry.size];
-            archiveDataFile.seek(entry.resourceOffset);
-            archiveDataFile.read(buf, 0, readSize);
+            getData(entry.resourceOffset, readSize).get(buf, 0, readSize);
 
             File fo = new File(outdir);
             fo.getParentFile().mkdirs();
@@ -169,6 +335,11 @@ public class ArchiveReader {
     }
 
     public void close() throws IOException {
+        // Mapped buffers are released when collected
+        index = null;
+        data = null;
+        dataChannel = null;
+
         if (archiveIndexFile != null) {
             archiveIndexFile.close();
             archiveIndexFile = null;
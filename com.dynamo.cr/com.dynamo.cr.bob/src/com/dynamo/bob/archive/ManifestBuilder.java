@@ -29,12 +29,16 @@ import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -279,6 +283,8 @@ public class ManifestBuilder {
     private String publicKeyFilepath = null;
     private String projectIdentifier = null;
     private ResourceNode dependencies = null;
+    // Occurrences of each resource in the dependency tree in breadth-first order, built on first use
+    private Map<String, List<ResourceNode>> dependencyIndex = null;
     private boolean outputManifestHash = false;
     private byte[] manifestDataHash = null;
     private byte[] archiveIdentifier = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
@@ -339,8 +345,55 @@ public class ManifestBuilder {
         return this.signatureSignAlgorithm;
     }
 
-    public void setDependencies(ResourceNode dependencies) {
+    public synchronized void setDependencies(ResourceNode dependencies) {
         this.dependencies = dependencies;
+        this.dependencyIndex = null;
+    }
+
+    private static boolean hasAncestor(ResourceNode node, String filepath) {
+        ResourceNode current = node.getParent();
+        while (current != null) {
+            if (current.relativeFilepath.equals(filepath)) {
+                return true;
+            }
+            current = current.getParent();
+        }
+        return false;
+    }
+
+    // Index all occurrences of resources in the dependency tree in breadth-first order.
+    // Occurrences nested below another occurrence of the same resource are left out since
+    // they are covered by the outer occurrence.
+    private synchronized Map<String, List<ResourceNode>> getDependencyIndex() {
+        if (this.dependencyIndex == null) {
+            Map<String, List<ResourceNode>> index = new HashMap<String, List<ResourceNode>>();
+            Deque<ResourceNode> queue = new ArrayDeque<ResourceNode>();
+            if (this.dependencies != null) {
+                queue.add(this.dependencies);
+            }
+            while (!queue.isEmpty()) {
+                ResourceNode current = queue.poll();
+                if (!hasAncestor(current, current.relativeFilepath)) {
+                    List<ResourceNode> occurrences = index.get(current.relativeFilepath);
+                    if (occurrences == null) {
+                        occurrences = new ArrayList<ResourceNode>(1);
+                        index.put(current.relativeFilepath, occurrences);
+                    }
+                    occurrences.add(current);
+                }
+                queue.addAll(current.getChildren());
+            }
+            this.dependencyIndex = index;
+        }
+        return this.dependencyIndex;
+    }
+
+    private List<ResourceNode> getOccurrences(String filepath) {
+        List<ResourceNode> occurrences = getDependencyIndex().get(filepath);
+        if (occurrences == null) {
+            return Collections.emptyList();
+        }
+        return occurrences;
     }
 
     public void setPrivateKeyFilepath(String filepath) {
@@ -386,62 +439,47 @@ public class ManifestBuilder {
 
     public void addResourceEntry(String url, byte[] data, int flags) throws IOException {
         try {
-            ResourceEntry.Builder builder = ResourceEntry.newBuilder();
-            builder.setUrl(url);
-            builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
             HashDigest hash = CryptographicOperations.createHashDigest(data, this.resourceHashAlgorithm);
-            builder.setHash(hash);
-            builder.setFlags(flags);
-            this.resourceEntries.add(builder.buildPartial());
+            addResourceEntry(url, hash, flags);
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create Manifest, hashing algorithm is not supported!");
         }
     }
 
+    // Add a resource entry with an already calculated hash of the resource data
+    public void addResourceEntry(String url, HashDigest hash, int flags) {
+        ResourceEntry.Builder builder = ResourceEntry.newBuilder();
+        builder.setUrl(url);
+        builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
+        builder.setHash(hash);
+        builder.setFlags(flags);
+        this.resourceEntries.add(builder.buildPartial());
+    }
+
     // Calculate all parent collection paths (to the root) for a resource
     // Resource could occur multiple times in the tree (referenced from several collections) or several times within the same collection
     public List<ArrayList<String>> getParentCollections(String filepath) {
-        List<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
-        List<ResourceNode> candidates = new LinkedList<ResourceNode>();
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        // Find occurences of resource in tree (may be referenced from several collections for example)
-        while (!queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-
-            if (current != null) {
-                if (current.relativeFilepath.equals(filepath)) {
-                    if (!candidates.contains(current)) {
-                        candidates.add(current);
-                    }
-                } else {
-                    queue.addAll(current.getChildren());
-                }
-            }
-        }
-
-        int i = 0;
-        while (!candidates.isEmpty()) {
-            ResourceNode current = candidates.remove(0).getParent();
-            result.add(new ArrayList<String>());
+        List<ResourceNode> occurrences = getOccurrences(filepath);
+        List<ArrayList<String>> result = new ArrayList<ArrayList<String>>(occurrences.size());
+        for (ResourceNode occurrence : occurrences) {
+            ArrayList<String> parents = new ArrayList<String>();
+            ResourceNode current = occurrence.getParent();
             while (current != null) {
                 if (current.relativeFilepath.endsWith("collectionproxyc") ||
                     current.relativeFilepath.endsWith("collectionc")) {
-                    result.get(i).add(current.relativeFilepath);
+                    parents.add(current.relativeFilepath);
                 }
 
                 current = current.getParent();
             }
-            ++i;
+            result.add(parents);
         }
         return result;
     }
 
     public List<String> getDependants(String filepath) throws IOException {
-        /* This function first tries to find the correct resource in the
-           dependency tree. Since there is no index we have to iterate over
-           the structure and match the relative filepaths that identifies the
-           resource.
+        /* This function first finds the first occurrence of the resource in
+           the dependency tree, in breadth-first order, using the index.
 
            Once a candidate has been found the children, the children, and so
            on are added to the list of dependants. If a CollectionProxy is
@@ -454,26 +492,13 @@ public class ManifestBuilder {
            and thus create a partial archive that has to be updated (through
            LiveUpdate) before that CollectionProxy can be loaded.
         */
-        ResourceNode candidate = null;
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        while (candidate == null && !queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-            if (current.relativeFilepath.equals(filepath)) {
-                candidate = current;
-            } else {
-                for (ResourceNode child : current.getChildren()) {
-                    queue.add(child);
-                }
-            }
-        }
-
+        List<ResourceNode> occurrences = getOccurrences(filepath);
         List<String> dependants = new ArrayList<String>();
-        if (candidate != null) {
-            queue.clear();
-            queue.add(candidate);
+        if (!occurrences.isEmpty()) {
+            Deque<ResourceNode> queue = new ArrayDeque<ResourceNode>();
+            queue.add(occurrences.get(0));
             while (!queue.isEmpty()) {
-                ResourceNode current = queue.remove(0);
+                ResourceNode current = queue.poll();
                 for (ResourceNode child : current.getChildren()) {
                     dependants.add(child.relativeFilepath);
                     if (!child.relativeFilepath.endsWith("collectionproxyc")) {
@@ -511,18 +536,21 @@ public class ManifestBuilder {
         builder.setHeader(manifestHeader);
 
         builder.addAllEngineVersions(this.supportedEngineVersions);
+        Map<String, ResourceEntry> urlToEntry = new HashMap<String, ResourceEntry>(this.resourceEntries.size() * 2);
+        for (ResourceEntry entry : this.resourceEntries) {
+            urlToEntry.put(entry.getUrl(), entry);
+        }
         for (ResourceEntry entry : this.resourceEntries) {
             ResourceEntry.Builder resourceEntryBuilder = entry.toBuilder();
 
             List<String> dependants = this.getDependants(entry.getUrl());
             for (String dependant : dependants) {
-                for (ResourceEntry dependantEntry : this.resourceEntries) {
-                    if (dependantEntry.getUrl().equals(dependant)) {
-                        if (dependantEntry.hasHash()) {
-                            resourceEntryBuilder.addDependants(dependantEntry.getHash());
-                        } else {
-                            throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
-                        }
+                ResourceEntry dependantEntry = urlToEntry.get(dependant);
+                if (dependantEntry != null) {
+                    if (dependantEntry.hasHash()) {
+                        resourceEntryBuilder.addDependants(dependantEntry.getHash());
+                    } else {
+                        throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
                     }
                 }
             }
@@ -12,10 +12,24 @@
 
 package com.dynamo.bob.font;
 
+import java.util.Arrays;
+
 public class DistanceFieldGenerator
 {
+    // Returned when there are no line segments
+    private static final double NO_DISTANCE = 10000000;
+    // Width and height in pixels of the blocks that share a list of candidate segments in render
+    private static final int CELL_SIZE = 8;
+    // Relative slack when comparing bounds computed at different points, to stay safe from rounding
+    private static final double BOUND_SLACK = 1e-9;
+
     public double[] lineSegments = new double[32768];
     public int lineSegmentsEnd = 0;
+    // End points of the line segments as given, two values per segment
+    private double[] lineEnds = new double[32768 / 5 * 2];
+    // Row crossings used by windingRow
+    private double[] crossingX = new double[64];
+    private int[] crossingDir = new int[64];
 
     public DistanceFieldGenerator()
     {
@@ -24,6 +38,15 @@ public class DistanceFieldGenerator
 
     public void addLine(double x0, double y0, double x1, double y1)
     {
+        if (lineSegmentsEnd + 5 > lineSegments.length) {
+            lineSegments = Arrays.copyOf(lineSegments, lineSegments.length * 2);
+        }
+        int segment = lineSegmentsEnd / 5;
+        if (segment * 2 + 2 > lineEnds.length) {
+            lineEnds = Arrays.copyOf(lineEnds, lineEnds.length * 2);
+        }
+        lineEnds[segment*2+0] = x1;
+        lineEnds[segment*2+1] = y1;
         lineSegments[lineSegmentsEnd+0] = x0;
         lineSegments[lineSegmentsEnd+1] = y0;
         lineSegments[lineSegmentsEnd+2] = x1 - x0;
@@ -32,64 +55,239 @@ public class DistanceFieldGenerator
         lineSegmentsEnd += 5;
     }
 
+    // Squared distance from [x, y] to the line segment starting at index i in lineSegments
+    private double segmentDistSqr(int i, double x, double y)
+    {
+        double x0 = lineSegments[i];
+        double y0 = lineSegments[i+1];
+        double dx = lineSegments[i+2];
+        double dy = lineSegments[i+3];
+        double k = lineSegments[i+4];
+
+        double dx0 = x - x0;
+        double dy0 = y - y0;
+        double t = k * (dx * dx0 + dy * dy0);
+
+        if (t < 0)
+        {
+            // Closest point is t=0 of the line
+            return dx0 * dx0 + dy0 * dy0;
+        }
+        else if (t > 1)
+        {
+            // Closest point is t=1 of the line
+            double xx = x - (x0 + dx);
+            double yy = y - (y0 + dy);
+            return xx*xx + yy*yy;
+        }
+        else
+        {
+            // Case when the closest point is along the line, and t will be [0,1]
+            double px = x0 + t * dx - x;
+            double py = y0 + t * dy - y;
+            return px*px + py*py;
+        }
+    }
+
     // Compute the minimal distance from [x, y] to any of the line segments
     public double distSqr(double x, double y)
     {
-        double distMin = 10000000;
+        double distMin = NO_DISTANCE;
         for (int i=0;i<lineSegmentsEnd;i+=5)
         {
-            double x0 = lineSegments[i];
-            double y0 = lineSegments[i+1];
-            double dx = lineSegments[i+2];
-            double dy = lineSegments[i+3];
-            double k = lineSegments[i+4];
-
-            double dx0 = x - x0;
-            double dy0 = y - y0;
-            double t = k * (dx * dx0 + dy * dy0);
+            double distSqr = segmentDistSqr(i, x, y);
+            if (distSqr < distMin)
+                distMin = distSqr;
+        }
+        return distMin;
+    }
 
-            if (t < 0)
+    // Compute the winding number of the line segments around the points [xs[i], y], where
+    // xs is sorted in ascending order. The segments are expected to form closed paths.
+    // Points on, or very close to, a segment might get either of the adjacent winding numbers.
+    public void windingRow(double y, double[] xs, int count, int[] output)
+    {
+        int crossings = 0;
+        for (int i=0;i<lineSegmentsEnd;i+=5)
+        {
+            double sx0 = lineSegments[i];
+            double sy0 = lineSegments[i+1];
+            double sx1 = lineEnds[i/5*2];
+            double sy1 = lineEnds[i/5*2+1];
+            int dir;
+            if (sy0 <= y && y < sy1)
+                dir = 1;
+            else if (sy1 <= y && y < sy0)
+                dir = -1;
+            else
+                continue;
+            if (crossings == crossingX.length)
             {
-                // Closest point is t=0 of the line
-                double distSqr = dx0 * dx0 + dy0 * dy0;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                crossingX = Arrays.copyOf(crossingX, crossings * 2);
+                crossingDir = Arrays.copyOf(crossingDir, crossings * 2);
             }
-            else if (t > 1)
+            double x = sx0 + (y - sy0) * (sx1 - sx0) / (sy1 - sy0);
+            // Insertion sort on x, there are only a few crossings per row
+            int j = crossings++;
+            while (j > 0 && crossingX[j-1] > x)
             {
-                // Closest point is t=1 of the line
-                double xx = x - (x0 + dx);
-                double yy = y - (y0 + dy);
-                double distSqr = xx*xx + yy*yy;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                crossingX[j] = crossingX[j-1];
+                crossingDir[j] = crossingDir[j-1];
+                j--;
             }
-            else
+            crossingX[j] = x;
+            crossingDir[j] = dir;
+        }
+
+        // The winding number is the sum of the crossings to the right of the point
+        int winding = 0;
+        for (int c=0;c<crossings;c++)
+            winding += crossingDir[c];
+        int c = 0;
+        for (int k=0;k<count;k++)
+        {
+            while (c < crossings && crossingX[c] <= xs[k])
+                winding -= crossingDir[c++];
+            output[k] = winding;
+        }
+    }
+
+    // Squared distance from every segment to the points [xs[k], y], stored per point
+    private void cornerDistSqr(double[] xs, double y, double[] out)
+    {
+        int segments = lineSegmentsEnd / 5;
+        for (int k=0;k<xs.length;k++)
+        {
+            int ofs = k * segments;
+            for (int i=0;i<lineSegmentsEnd;i+=5)
             {
-                // Case when the closest point is along the line, and t will be [0,1]
-                double px = x0 + t * dx - x;
-                double py = y0 + t * dy - y;
-                double distSqr = px*px + py*py;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                out[ofs++] = segmentDistSqr(i, xs[k], y);
             }
         }
-        return distMin;
     }
 
+    // Same result as calling distSqr for every pixel, but the pixels are processed in
+    // blocks of CELL_SIZE x CELL_SIZE where only the segments that can be the closest to
+    // some point in the block are measured:
+    // The squared distance to a segment is convex, so its maximum over the block is found
+    // in one of the corners, and the smallest such maximum is an upper bound (distMin) for
+    // the distance of every pixel in the block. Segments whose bounding box is further away
+    // than that are rejected.
     public void render(double[] output, double x0, double y0, double x1, double y1, int width, int height)
     {
-        int ofs = 0;
+        if (width <= 0 || height <= 0)
+        {
+            return;
+        }
+        int segments = lineSegmentsEnd / 5;
+        if (segments == 0)
+        {
+            Arrays.fill(output, 0, width * height, Math.sqrt(NO_DISTANCE));
+            return;
+        }
+
+        // Pixel coordinates, computed as they always have been
         double dx = (x1 - x0) / (double)width;
+        double[] xs = new double[width];
+        double px = x0;
+        for (int x=0;x<width;x++)
+        {
+            xs[x] = px;
+            px += dx;
+        }
+        double[] ys = new double[height];
         for (int y=0;y<height;y++)
         {
-            double py = y0 + y * (y1-y0) / (double)height;
-            double px = x0;
-            for (int x=0;x<width;x++)
+            ys[y] = y0 + y * (y1-y0) / (double)height;
+        }
+
+        // Blocks extend to the first pixel of the next block so that corners are shared
+        int columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        double[] cornerXs = new double[columns + 1];
+        for (int c=0;c<=columns;c++)
+        {
+            cornerXs[c] = xs[Math.min(width - 1, c * CELL_SIZE)];
+        }
+
+        double[] segmentMinX = new double[segments];
+        double[] segmentMinY = new double[segments];
+        double[] segmentMaxX = new double[segments];
+        double[] segmentMaxY = new double[segments];
+        for (int s=0;s<segments;s++)
+        {
+            double sx0 = lineSegments[s*5];
+            double sy0 = lineSegments[s*5+1];
+            double sx1 = sx0 + lineSegments[s*5+2];
+            double sy1 = sy0 + lineSegments[s*5+3];
+            segmentMinX[s] = Math.min(sx0, sx1);
+            segmentMinY[s] = Math.min(sy0, sy1);
+            segmentMaxX[s] = Math.max(sx0, sx1);
+            segmentMaxY[s] = Math.max(sy0, sy1);
+        }
+
+        double[] top = new double[(columns + 1) * segments];
+        double[] bottom = new double[(columns + 1) * segments];
+        int[] candidates = new int[segments];
+        cornerDistSqr(cornerXs, ys[0], top);
+        for (int row=0;row<rows;row++)
+        {
+            int py0 = row * CELL_SIZE;
+            int py1 = Math.min(height, py0 + CELL_SIZE);
+            double cornerY0 = ys[py0];
+            double cornerY1 = ys[Math.min(height - 1, py1)];
+            cornerDistSqr(cornerXs, cornerY1, bottom);
+            double rectMinY = Math.min(cornerY0, cornerY1);
+            double rectMaxY = Math.max(cornerY0, cornerY1);
+
+            for (int column=0;column<columns;column++)
             {
-                output[ofs++] = Math.sqrt(distSqr(px, py));
-                px += dx;
+                int left = column * segments;
+                int right = left + segments;
+                double distMin = NO_DISTANCE;
+                for (int s=0;s<segments;s++)
+                {
+                    double d = Math.max(Math.max(top[left + s], top[right + s]), Math.max(bottom[left + s], bottom[right + s]));
+                    if (d < distMin)
+                        distMin = d;
+                }
+                distMin += distMin * BOUND_SLACK;
+
+                double rectMinX = Math.min(cornerXs[column], cornerXs[column + 1]);
+                double rectMaxX = Math.max(cornerXs[column], cornerXs[column + 1]);
+                int candidateCount = 0;
+                for (int s=0;s<segments;s++)
+                {
+                    double gapX = Math.max(0.0, Math.max(segmentMinX[s] - rectMaxX, rectMinX - segmentMaxX[s]));
+                    double gapY = Math.max(0.0, Math.max(segmentMinY[s] - rectMaxY, rectMinY - segmentMaxY[s]));
+                    if (gapX * gapX + gapY * gapY <= distMin)
+                        candidates[candidateCount++] = s * 5;
+                }
+
+                int px0 = column * CELL_SIZE;
+                int px1 = Math.min(width, px0 + CELL_SIZE);
+                for (int y=py0;y<py1;y++)
+                {
+                    double sy = ys[y];
+                    int ofs = y * width + px0;
+                    for (int x=px0;x<px1;x++)
+                    {
+                        double sx = xs[x];
+                        double pixelDistMin = NO_DISTANCE;
+                        for (int c=0;c<candidateCount;c++)
+                        {
+                            double distSqr = segmentDistSqr(candidates[c], sx, sy);
+                            if (distSqr < pixelDistMin)
+                                pixelDistMin = distSqr;
+                        }
+                        output[ofs++] = Math.sqrt(pixelDistMin);
+                    }
+                }
             }
+
+            double[] tmp = top;
+            top = bottom;
+            bottom = tmp;
         }
     }
 }
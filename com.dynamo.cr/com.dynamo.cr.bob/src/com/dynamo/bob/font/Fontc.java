@@ -48,8 +48,14 @@ import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -142,6 +148,11 @@ public class Fontc {
 
     static final float sdf_edge = 0.75f;
 
+    // Max distance between the glyph outline and the line segments used for distance fields
+    static final double outline_flatness = 0.1;
+    // Pixels further than this from the line segments are on the same side of them as of the outline
+    static final double outline_inside_margin = 0.5;
+
     private InputFontFormat inputFormat = InputFontFormat.FORMAT_TRUETYPE;
     private Stroke outlineStroke = null;
     private int channelCount = 3;
@@ -151,6 +162,7 @@ public class Fontc {
 
     private Font font;
     private BMFont bmfont;
+    private ExecutorService executor = null;
 
     public interface FontResourceResolver {
         public InputStream getResource(String resourceName) throws FileNotFoundException;
@@ -164,6 +176,16 @@ public class Fontc {
         return inputFormat;
     }
 
+    /**
+     * Set the executor used to generate glyph bitmaps in parallel. The glyphs
+     * are independent of each other and the output is identical regardless
+     * of thread count.
+     * @param executor executor, not shut down by Fontc, or null to generate glyphs on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     public void TTFBuilder(InputStream fontStream) throws FontFormatException, IOException {
 
         ArrayList<Integer> characters = new ArrayList<Integer>();
@@ -533,110 +555,46 @@ public class Fontc {
         if (preview) {
             include_glyph_count = Math.min(glyphs.size(), cache_rows * cache_columns);
         }
-        for (int i = 0; i < include_glyph_count; i++) {
-
-            Glyph glyph = glyphs.get(i);
-            if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
-                continue;
-            }
-
-            // Generate bitmap for each glyph depending on format
-            BufferedImage glyphImage = null;
-            if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                       inputFormat == InputFontFormat.FORMAT_BMFONT) {
-                glyphImage = drawBMFontGlyph(glyph, imageBMFont);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
-                       inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
-            } else {
-                throw new FontFormatException("Invalid font format combination!");
-            }
-
-            if (preview) {
 
-                glyph.image = glyphImage;
+        // Glyphs are generated and compressed by a pool of workers, ahead of being
+        // added to the glyph data bank in order on this thread.
+        GlyphGenerator generator = new GlyphGenerator(preview, padding, cell_padding, sdf_spread, sdf_shadow_spread,
+                                                      faceColor, outlineColor, blendComposite, shadowConvolve, imageBMFont);
+        int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+        Deque<Future<GlyphBitmap>> pending = new ArrayDeque<Future<GlyphBitmap>>();
+        int next = 0;
+        try {
+            for (int i = 0; i < include_glyph_count; i++) {
 
-            } else {
-                BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
-                                                                    glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
-
-                int clearData = 0;
-                int mask = 0xFFFFFFFF;
-                if (channelCount==1)
-                    mask = 0xFF;
-                else if (channelCount==2)
-                    mask = 0xFFFF;
-                else if (channelCount==3)
-                    mask = 0xFFFFFF;
-
-                int py = 0;
-                // Get raster data from rendered glyph and store in glyph data bank
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                py++;
-                for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
-                    int px = 0;
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                    for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
-                        int color = glyphImage.getRGB(x, y);
-                        int blue  = (color) & 0xff;
-                        int green = (color >> 8) & 0xff;
-                        int red   = (color >> 16) & 0xff;
-                        int alpha = (color >> 24) & 0xff;
-                        blue = (blue * alpha) / 255;
-                        green = (green * alpha) / 255;
-                        red = (red * alpha) / 255;
-                        color = ((alpha << 24) |
-                                (blue << 16) |
-                                (green << 8) |
-                                (red << 0)) & mask;
-
-                        paddedGlyphImage.setRGB(px, py, color);
+                Glyph glyph = glyphs.get(i);
+                GlyphBitmap bitmap;
+                if (executor != null) {
+                    while (next < include_glyph_count && pending.size() < maxPending) {
+                        pending.add(generator.submit(executor, glyphs.get(next++)));
                     }
-                    paddedGlyphImage.setRGB(px++, py, clearData);
+                    bitmap = getGlyphBitmap(pending.poll());
+                } else {
+                    bitmap = generator.generate(glyph, generator.getOutline(glyph));
+                }
+                if (bitmap == null) {
+                    continue;
                 }
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
-                    paddedGlyphImage.setRGB(x, 0, clearData);
-
-                Pointer compressedTexture = null;
-                try {
-                    int width = paddedGlyphImage.getWidth();
-                    int height = paddedGlyphImage.getHeight();
-                    int compressionLevel = TexcLibrary.CompressionLevel.CL_BEST;
-                    int compressionType = TexcLibrary.CompressionType.CT_WEBP;
-
-                    int pixelFormat = PixelFormat.L8;
-                    if (channelCount > 3)
-                        pixelFormat = PixelFormat.R8G8B8A8;
-                    else if (channelCount > 1)
-                        pixelFormat = PixelFormat.R8G8B8;
-
-                    ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
 
-                    compressedTexture = TexcLibrary.TEXC_CompressWebPBuffer(width, height, channelCount*8, paddedBuffer, width*height*channelCount, pixelFormat, compressionLevel, compressionType);
+                if (preview) {
 
-                    int bufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
-                    ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
-                    TexcLibrary.TEXC_GetBufferData(compressedTexture, buffer, bufferSize);
+                    glyph.image = bitmap.image;
 
+                } else {
                     glyph.cache_entry_offset = dataOffset;
-                    dataOffset += bufferSize;
-
-                    byte[] arr = new byte[buffer.limit()];
-                    buffer.get(arr);
-                    glyphDataBank.write(arr);
-
-                    glyph.cache_entry_size = bufferSize;
-
-                } catch(IOException e) {
-                    throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
-                } finally {
-                    TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+                    dataOffset += bitmap.data.length;
+                    glyphDataBank.write(bitmap.data, 0, bitmap.data.length);
+                    glyph.cache_entry_size = bitmap.data.length;
                 }
             }
+        } finally {
+            for (Future<GlyphBitmap> future : pending) {
+                future.cancel(true);
+            }
         }
 
         // Sanity check;
@@ -691,26 +649,214 @@ public class Fontc {
 
     }
 
+    // Generated bitmap of a glyph, and the compressed bitmap data for the glyph data bank
+    private static class GlyphBitmap {
+        BufferedImage image;
+        byte[] data;
+    }
+
+    private static GlyphBitmap getGlyphBitmap(Future<GlyphBitmap> future) throws TextureGeneratorException, FontFormatException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TextureGeneratorException("Interrupted while generating glyphs");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TextureGeneratorException) {
+                throw (TextureGeneratorException) cause;
+            } else if (cause instanceof FontFormatException) {
+                throw (FontFormatException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    // Generates the bitmap of one glyph at a time, independently of the other glyphs.
+    // Every glyph is drawn into its own image with its own Graphics2D, and the shared
+    // state is only read, so glyphs can be generated on any thread.
+    private class GlyphGenerator {
+        private final boolean preview;
+        private final int padding;
+        private final int cell_padding;
+        private final float sdf_spread;
+        private final float sdf_shadow_spread;
+        private final Color faceColor;
+        private final Color outlineColor;
+        private final Composite blendComposite;
+        private final ConvolveOp shadowConvolve;
+        private final BufferedImage imageBMFont;
+
+        GlyphGenerator(boolean preview, int padding, int cell_padding, float sdf_spread, float sdf_shadow_spread,
+                       Color faceColor, Color outlineColor, Composite blendComposite, ConvolveOp shadowConvolve, BufferedImage imageBMFont) {
+            this.preview = preview;
+            this.padding = padding;
+            this.cell_padding = cell_padding;
+            this.sdf_spread = sdf_spread;
+            this.sdf_shadow_spread = sdf_shadow_spread;
+            this.faceColor = faceColor;
+            this.outlineColor = outlineColor;
+            this.blendComposite = blendComposite;
+            this.shadowConvolve = shadowConvolve;
+            this.imageBMFont = imageBMFont;
+        }
+
+        // The outlines are read from glyph vectors sharing the same font, on the calling thread
+        Shape getOutline(Glyph glyph) {
+            if (glyph.vector == null) {
+                return null;
+            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD) {
+                return glyph.vector.getGlyphOutline(0);
+            }
+            return glyph.vector.getOutline(0, 0);
+        }
+
+        Future<GlyphBitmap> submit(ExecutorService executor, final Glyph glyph) {
+            final Shape outline = getOutline(glyph);
+            return executor.submit(new Callable<GlyphBitmap>() {
+                @Override
+                public GlyphBitmap call() throws Exception {
+                    return generate(glyph, outline);
+                }
+            });
+        }
+
+        /**
+         * Generate the bitmap of a glyph
+         * @param glyph glyph to generate
+         * @param outline outline of the glyph from getOutline
+         * @return the bitmap, null if the glyph has no bitmap
+         */
+        GlyphBitmap generate(Glyph glyph, Shape outline) throws TextureGeneratorException, FontFormatException {
+            if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
+                return null;
+            }
+
+            // Generate bitmap for each glyph depending on format
+            BufferedImage glyphImage = null;
+            if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
+                inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+                glyphImage = drawGlyph(glyph, outline, padding, blendComposite, faceColor, outlineColor, shadowConvolve);
+            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
+                       inputFormat == InputFontFormat.FORMAT_BMFONT) {
+                glyphImage = drawBMFontGlyph(glyph, imageBMFont);
+            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
+                       inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+                glyphImage = makeDistanceField(glyph, outline, padding, sdf_spread, sdf_shadow_spread, sdf_edge, shadowConvolve);
+            } else {
+                throw new FontFormatException("Invalid font format combination!");
+            }
+
+            GlyphBitmap bitmap = new GlyphBitmap();
+            if (preview) {
+                bitmap.image = glyphImage;
+            } else {
+                bitmap.data = compress(glyphImage);
+            }
+            return bitmap;
+        }
+
+        // Pads the bitmap and compresses it for the glyph data bank
+        private byte[] compress(BufferedImage glyphImage) throws TextureGeneratorException {
+            BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
+                                                                glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
+
+            int clearData = 0;
+            int mask = 0xFFFFFFFF;
+            if (channelCount==1)
+                mask = 0xFF;
+            else if (channelCount==2)
+                mask = 0xFFFF;
+            else if (channelCount==3)
+                mask = 0xFFFFFF;
+
+            int py = 0;
+            // Get raster data from rendered glyph and store in glyph data bank
+            for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
+                paddedGlyphImage.setRGB(x, py, clearData);
+            py++;
+            for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
+                int px = 0;
+                paddedGlyphImage.setRGB(px++, py, clearData);
+                for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
+                    int color = glyphImage.getRGB(x, y);
+                    int blue  = (color) & 0xff;
+                    int green = (color >> 8) & 0xff;
+                    int red   = (color >> 16) & 0xff;
+                    int alpha = (color >> 24) & 0xff;
+                    blue = (blue * alpha) / 255;
+                    green = (green * alpha) / 255;
+                    red = (red * alpha) / 255;
+                    color = ((alpha << 24) |
+                            (blue << 16) |
+                            (green << 8) |
+                            (red << 0)) & mask;
+
+                    paddedGlyphImage.setRGB(px, py, color);
+                }
+                paddedGlyphImage.setRGB(px++, py, clearData);
+            }
+            for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
+                paddedGlyphImage.setRGB(x, 0, clearData);
+
+            Pointer compressedTexture = null;
+            try {
+                int width = paddedGlyphImage.getWidth();
+                int height = paddedGlyphImage.getHeight();
+                int compressionLevel = TexcLibrary.CompressionLevel.CL_BEST;
+                int compressionType = TexcLibrary.CompressionType.CT_WEBP;
+
+                int pixelFormat = PixelFormat.L8;
+                if (channelCount > 3)
+                    pixelFormat = PixelFormat.R8G8B8A8;
+                else if (channelCount > 1)
+                    pixelFormat = PixelFormat.R8G8B8;
+
+                ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
+
+                compressedTexture = TexcLibrary.TEXC_CompressWebPBuffer(width, height, channelCount*8, paddedBuffer, width*height*channelCount, pixelFormat, compressionLevel, compressionType);
+
+                int bufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+                TexcLibrary.TEXC_GetBufferData(compressedTexture, buffer, bufferSize);
+
+                byte[] arr = new byte[buffer.limit()];
+                buffer.get(arr);
+                return arr;
+
+            } catch(IOException e) {
+                throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
+            } finally {
+                TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+            }
+        }
+    }
+
     private BufferedImage drawBMFontGlyph(Glyph glyph, BufferedImage imageBMFontInput) {
         return imageBMFontInput.getSubimage(glyph.x, glyph.y, glyph.width, glyph.ascent + glyph.descent);
     }
 
-    private BufferedImage makeDistanceField(Glyph glyph, int padding, float sdf_spread, float sdf_shadow_spread, Font font, float edge, ConvolveOp shadowConvolve) {
+    private BufferedImage makeDistanceField(Glyph glyph, Shape sh, int padding, float sdf_spread, float sdf_shadow_spread, float edge, ConvolveOp shadowConvolve) {
         int width = glyph.width + padding * 2;
         int height = glyph.ascent + glyph.descent + padding * 2;
 
-        Shape sh = glyph.vector.getGlyphOutline(0);
         PathIterator pi = sh.getPathIterator(new AffineTransform(1,0,0,1,0,0));
-        pi = new FlatteningPathIterator(pi,  0.1);
+        pi = new FlatteningPathIterator(pi,  outline_flatness);
+        int windingRule = pi.getWindingRule();
 
         double _x = 0, _y = 0;
         double _lastmx = 0, _lastmy = 0;
+        // Path2D.contains closes open sub paths, which the line segments don't
+        boolean closed = true;
         DistanceFieldGenerator df = new DistanceFieldGenerator();
         while (!pi.isDone()) {
             double [] c = new double[100];
             int res = pi.currentSegment(c);
             switch (res) {
               case PathIterator.SEG_MOVETO:
+                  closed = closed && (_x == _lastmx && _y == _lastmy);
                   _x = c[0];
                   _y = c[1];
                   _lastmx = _x;
@@ -731,6 +877,7 @@ public class Fontc {
             }
             pi.next();
         }
+        closed = closed && (_x == _lastmx && _y == _lastmy);
 
         glyph.x = -glyph.leftBearing + padding;
         glyph.y =  glyph.ascent + padding;
@@ -747,19 +894,41 @@ public class Fontc {
 
         double widthInverse  = 1 / (double)width;
         double heightInverse = 1 / (double)height;
+        float sdf_outline = fontMapBuilder.getSdfOutline();
 
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
 
+        // Testing if a pixel is inside the outline with sh.contains is as expensive as finding
+        // the distance, so the winding numbers of the line segments are used for all pixels
+        // except those close enough to the outline to be on another side of it.
+        double[] rowX = new double[width];
+        int[] rowWinding = new int[width];
+        double insideMargin = closed ? Math.max(outline_inside_margin, outline_flatness) : Double.MAX_VALUE;
+
         // TODO: Split this work into a pre-pass and subsequent face/outline & shadow passes
         for (int v=0;v<height;v++) {
             int ofs = v * width;
+            double rowY = v0 + heightInverse * v * (v1 - v0);
+            if (closed) {
+                for (int u=0;u<width;u++) {
+                    rowX[u] = u0 + widthInverse * u * (u1 - u0);
+                }
+                df.windingRow(rowY, rowX, width, rowWinding);
+            }
             for (int u=0;u<width;u++) {
                 double gx = u0 + widthInverse * u * (u1 - u0);
-                double gy = v0 + heightInverse * v * (v1 - v0);
+                double gy = rowY;
                 double distance_to_edge   = distance_data[ofs + u];
                 double distance_to_border = -(distance_to_edge - fontDesc.getOutlineWidth());
 
-                if (!sh.contains(gx, gy)) {
+                boolean inside;
+                if (distance_to_edge > insideMargin) {
+                    int winding = rowWinding[u];
+                    inside = windingRule == PathIterator.WIND_NON_ZERO ? winding != 0 : (winding & 1) != 0;
+                } else {
+                    inside = sh.contains(gx, gy);
+                }
+                if (!inside) {
                     distance_to_edge = -distance_to_edge;
                 }
 
@@ -769,8 +938,6 @@ public class Fontc {
                 int outline_channel = (int)(255.0f * distance_to_edge_normalized);
                 outline_channel     = Math.max(0,Math.min(255,outline_channel));
 
-                float sdf_outline = fontMapBuilder.getSdfOutline();
-
                 // This is needed to 'fill' the shadow body since
                 // we have no good way of knowing if the pixel is inside or outside
                 // of the shadow limit
@@ -817,7 +984,7 @@ public class Fontc {
         return image;
     }
 
-    private BufferedImage drawGlyph(Glyph glyph, int padding, Font font, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve) {
+    private BufferedImage drawGlyph(Glyph glyph, Shape outline, int padding, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve) {
         int width = glyph.width + padding * 2;
         int height = glyph.ascent + glyph.descent + padding * 2;
 
@@ -834,7 +1001,6 @@ public class Fontc {
         g.clearRect(0, 0, image.getWidth(), image.getHeight());
         g.translate(dx, dy);
 
-        Shape outline = glyph.vector.getOutline(0, 0);
         if (this.fontDesc.getShadowAlpha() > 0.0f) {
             if (this.fontDesc.getAlpha() > 0.0f) {
                 g.setPaint(new Color(0.0f, 0.0f, this.fontDesc.getShadowAlpha() * this.fontDesc.getAlpha()));
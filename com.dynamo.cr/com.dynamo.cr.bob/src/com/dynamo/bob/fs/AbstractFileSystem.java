@@ -15,9 +15,12 @@ package com.dynamo.bob.fs;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -25,13 +28,17 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
     protected F fileSystem;
     protected String rootDirectory;
     protected String buildDirectory;
-    protected Map<String, R> resources = new HashMap<String, R>();
-    protected Vector<IMountPoint> mountPoints;
+    // Interned resources by path, shared by all threads using the file system
+    protected ConcurrentMap<String, IResource> resources = new ConcurrentHashMap<String, IResource>();
+    protected List<IMountPoint> mountPoints;
+    // The first indexed mount point providing each path, see IMountPoint#getPaths
+    private Map<String, IMountPoint> mountPointIndex = new ConcurrentHashMap<String, IMountPoint>();
+    private Set<IMountPoint> indexedMountPoints = ConcurrentHashMap.newKeySet();
 
     @SuppressWarnings("unchecked")
     public AbstractFileSystem() {
         fileSystem = (F) this;
-        mountPoints = new Vector<IMountPoint>();
+        mountPoints = new CopyOnWriteArrayList<IMountPoint>();
     }
 
     @Override
@@ -58,14 +65,31 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
     }
 
     @Override
-    public void addMountPoint(IMountPoint mountPoint) throws IOException {
+    public DigestCache.Stats getDigestCacheStats() {
+        return null;
+    }
+
+    @Override
+    public synchronized void addMountPoint(IMountPoint mountPoint) throws IOException {
         mountPoint.mount();
+        Collection<String> paths = mountPoint.getPaths();
+        if (paths != null) {
+            for (String path : paths) {
+                this.mountPointIndex.putIfAbsent(path, mountPoint);
+            }
+            this.indexedMountPoints.add(mountPoint);
+        }
         this.mountPoints.add(mountPoint);
+        // Previously interned resources might now be provided by the mount point
+        this.resources.clear();
     }
 
     @Override
-    public void clearMountPoints() {
+    public synchronized void clearMountPoints() {
         this.mountPoints.clear();
+        this.mountPointIndex.clear();
+        this.indexedMountPoints.clear();
+        this.resources.clear();
     }
 
     @Override
@@ -75,16 +99,54 @@ public abstract class AbstractFileSystem<F extends IFileSystem, R extends IResou
         }
     }
 
+    /**
+     * Get a resource from the mount points. Indexed mount points are only asked
+     * for the paths they provide, the others for every path, in the order the
+     * mount points were added.
+     * @param path root relative path
+     * @return resource or null if no mount point provides the path
+     */
     protected IResource getFromMountPoints(String path) {
+        IMountPoint indexed = this.mountPointIndex.get(path);
         for (IMountPoint mountPoint : this.mountPoints) {
-            IResource resource = mountPoint.get(path);
-            if (resource != null) {
-                return resource;
+            if (mountPoint == indexed || !this.indexedMountPoints.contains(mountPoint)) {
+                IResource resource = mountPoint.get(path);
+                if (resource != null) {
+                    return resource;
+                }
             }
         }
         return null;
     }
 
+    /**
+     * Get an interned resource, created the first time the path is requested.
+     * Concurrent callers for the same path always get the same resource.
+     * @param path root relative path
+     * @return resource
+     */
+    protected IResource getInterned(String path) {
+        IResource resource = this.resources.get(path);
+        if (resource == null) {
+            resource = getFromMountPoints(path);
+            if (resource == null) {
+                resource = createResource(path);
+            }
+            IResource previous = this.resources.putIfAbsent(path, resource);
+            if (previous != null) {
+                resource = previous;
+            }
+        }
+        return resource;
+    }
+
+    /**
+     * Create a resource for a path not provided by any mount point.
+     * @param path root relative path
+     * @return resource
+     */
+    protected abstract IResource createResource(String path);
+
     private void walk(IWalker walker, String path, Collection<String> results) {
         String absolutePath = FilenameUtils.normalizeNoEndSeparator(FilenameUtils.concat(this.rootDirectory, path));
         File file = new File(absolutePath);
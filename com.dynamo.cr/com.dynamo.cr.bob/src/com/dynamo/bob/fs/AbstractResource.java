@@ -15,8 +15,7 @@ package com.dynamo.bob.fs;
 import static org.apache.commons.io.FilenameUtils.concat;
 
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -43,20 +42,31 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
         return newResource.output();
     }
 
+    /**
+     * Open a stream to the resource content. Used to calculate the sha1 without
+     * reading the whole content into memory.
+     * @return stream or null if the resource doesn't support streaming
+     * @throws IOException
+     */
+    protected InputStream openInputStream() throws IOException {
+        return null;
+    }
+
     @Override
     public byte[] sha1() throws IOException {
+        InputStream is = openInputStream();
+        if (is != null) {
+            try {
+                return ResourceUtil.calculateSha1(is);
+            } finally {
+                is.close();
+            }
+        }
         byte[] content = getContent();
         if (content == null) {
             throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
         }
-        MessageDigest sha1;
-        try {
-            sha1 = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-        sha1.update(content);
-        return sha1.digest();
+        return ResourceUtil.calculateSha1(content);
     }
 
     @Override
@@ -44,6 +44,11 @@ public class ClassLoaderMountPoint implements IMountPoint {
             }
         }
 
+        @Override
+        protected InputStream openInputStream() throws IOException {
+            return ClassLoaderMountPoint.this.resourceScanner.openInputStream(path);
+        }
+
         @Override
         public void setContent(byte[] content) throws IOException {
             throw new IOException("Zip resources can't be written to.");
@@ -0,0 +1,314 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of file sha1 digests
+ *
+ * A cached digest is valid as long as the modification time, size and file key
+ * (inode or similar where the platform provides one) of the file are unchanged.
+ *
+ * The cache is stored in a versioned binary format:
+ * <pre>
+ * header:  magic (4 bytes), version (4 bytes)
+ * entries: path (modified UTF-8), modification time (8 bytes), size (8 bytes),
+ *          file key hash (8 bytes), sha1 (20 bytes)
+ * </pre>
+ * Entries are read in order and a later entry for a path replaces an earlier one.
+ * Entries changed during a build are appended on save and the file is rewritten
+ * when too many stale entries have accumulated.
+ *
+ * The cache is thread-safe and concurrent requests for the digest of the same
+ * file share a single calculation.
+ */
+public class DigestCache {
+
+    private static final int MAGIC = 0x424f4244; // "BOBD"
+    private static final int VERSION = 1;
+    private static final int SHA1_SIZE = 20;
+    private static final int MIN_COMPACT_ENTRY_COUNT = 1024;
+
+    /**
+     * Digest cache statistics
+     */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long bytesHashed;
+
+        Stats(long hits, long misses, long bytesHashed) {
+            this.hits = hits;
+            this.misses = misses;
+            this.bytesHashed = bytesHashed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits: %d, misses: %d, bytes hashed: %d", hits, misses, bytesHashed);
+        }
+    }
+
+    private static class Entry {
+        final long mTime;
+        final long size;
+        final long fileKey;
+        final byte[] sha1;
+
+        Entry(long mTime, long size, long fileKey, byte[] sha1) {
+            this.mTime = mTime;
+            this.size = size;
+            this.fileKey = fileKey;
+            this.sha1 = sha1;
+        }
+
+        boolean matches(long mTime, long size, long fileKey) {
+            return this.mTime == mTime && this.size == size && this.fileKey == fileKey;
+        }
+    }
+
+    private File file;
+    private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    // Paths with entries not yet saved
+    private Set<String> changed = ConcurrentHashMap.newKeySet();
+    // Digests currently being calculated, keyed on path, modification time, size and file key
+    private ConcurrentHashMap<String, FutureTask<Entry>> pending = new ConcurrentHashMap<String, FutureTask<Entry>>();
+    // Number of entries in the file, including replaced entries
+    private int fileEntryCount = 0;
+    private long fileLength = -1;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong bytesHashed = new AtomicLong();
+
+    /**
+     * Create a digest cache stored in file
+     * @param file cache file or null for a cache only kept in memory
+     */
+    public DigestCache(File file) {
+        this.file = file;
+    }
+
+    private static long hashFileKey(Object fileKey) {
+        if (fileKey == null) {
+            return 0;
+        }
+        // The key is only compared for equality, a hash is good enough
+        return fileKey.hashCode() & 0xffffffffL | (long) fileKey.toString().hashCode() << 32;
+    }
+
+    private Entry calculate(File f, long mTime, long size, long fileKey) throws IOException {
+        byte[] sha1 = ResourceUtil.calculateSha1(f);
+        misses.incrementAndGet();
+        bytesHashed.addAndGet(size);
+        return new Entry(mTime, size, fileKey, sha1);
+    }
+
+    /**
+     * Get sha1 of a file, calculating it when there is no valid cached digest
+     * @param path path used as cache key
+     * @param f file to get sha1 for
+     * @return sha1 digest
+     * @throws IOException
+     * @throws IllegalArgumentException if the file doesn't exist
+     */
+    public byte[] sha1(final String path, final File f) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", path));
+        }
+        final long mTime = attributes.lastModifiedTime().toMillis();
+        final long size = attributes.size();
+        final long fileKey = hashFileKey(attributes.fileKey());
+
+        Entry entry = entries.get(path);
+        if (entry != null && entry.matches(mTime, size, fileKey)) {
+            hits.incrementAndGet();
+            return entry.sha1;
+        }
+
+        // Tasks running in parallel often share inputs. Only one of them calculates
+        // the digest and the others wait for the result.
+        String key = path + ":" + mTime + ":" + size + ":" + fileKey;
+        FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+            @Override
+            public Entry call() throws Exception {
+                return calculate(f, mTime, size, fileKey);
+            }
+        });
+        FutureTask<Entry> existing = pending.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                pending.remove(key, task);
+            }
+        } else {
+            hits.incrementAndGet();
+            task = existing;
+        }
+
+        try {
+            entry = task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        if (entries.put(path, entry) != entry) {
+            changed.add(path);
+        }
+        return entry.sha1;
+    }
+
+    /**
+     * Get statistics since the cache was loaded
+     * @return statistics
+     */
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), bytesHashed.get());
+    }
+
+    /**
+     * Load the cache from file. Any entries and statistics are cleared. A missing
+     * or invalid file results in an empty cache.
+     */
+    public synchronized void load() {
+        entries.clear();
+        changed.clear();
+        hits.set(0);
+        misses.set(0);
+        bytesHashed.set(0);
+        fileEntryCount = 0;
+        fileLength = -1;
+        if (file == null || !file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                return;
+            }
+            int count = 0;
+            while (true) {
+                // The file only ends cleanly between entries, see the EOFException below
+                is.mark(1);
+                if (is.read() == -1) {
+                    break;
+                }
+                is.reset();
+                String path = is.readUTF();
+                long mTime = is.readLong();
+                long size = is.readLong();
+                long fileKey = is.readLong();
+                byte[] sha1 = new byte[SHA1_SIZE];
+                is.readFully(sha1);
+                entries.put(path, new Entry(mTime, size, fileKey, sha1));
+                ++count;
+            }
+            fileEntryCount = count;
+            fileLength = file.length();
+        } catch (EOFException e) {
+            // Last entry is incomplete, keep the complete ones and rewrite the file on save
+        } catch (IOException e) {
+            // Corrupt cache, start over
+            entries.clear();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream os, String path, Entry entry) throws IOException {
+        os.writeUTF(path);
+        os.writeLong(entry.mTime);
+        os.writeLong(entry.size);
+        os.writeLong(entry.fileKey);
+        os.write(entry.sha1);
+    }
+
+    /**
+     * Save the cache to file. Changed entries are appended when possible,
+     * otherwise the whole cache is written.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        boolean canAppend = fileLength >= 0 && file.isFile() && file.length() == fileLength
+                && fileEntryCount + changed.size() <= Math.max(MIN_COMPACT_ENTRY_COUNT, entries.size() * 2);
+        if (canAppend) {
+            if (changed.isEmpty()) {
+                return;
+            }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream os = new DataOutputStream(bos);
+            int count = 0;
+            for (String path : changed) {
+                Entry entry = entries.get(path);
+                if (entry != null) {
+                    writeEntry(os, path, entry);
+                    ++count;
+                }
+            }
+            os.close();
+            try (FileOutputStream fos = new FileOutputStream(file, true)) {
+                fos.write(bos.toByteArray());
+            }
+            fileEntryCount += count;
+        } else {
+            file.getParentFile().mkdirs();
+            File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+            int count = 0;
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    writeEntry(os, entry.getKey(), entry.getValue());
+                    ++count;
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            fileEntryCount = count;
+        }
+        fileLength = file.length();
+        changed.clear();
+    }
+}
@@ -87,6 +87,12 @@ public interface IFileSystem {
      */
     public void saveCache();
 
+    /**
+     * Get statistics of the cache of file signatures since it was loaded
+     * @return statistics or null if the file system doesn't cache signatures
+     */
+    public DigestCache.Stats getDigestCacheStats();
+
     /**
      * Add a mount point to the file system, e.g. a zip archive or Java class loader.
      * @param mountPoint mount point to add
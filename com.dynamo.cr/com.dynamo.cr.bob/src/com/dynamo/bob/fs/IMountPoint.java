@@ -30,6 +30,17 @@ public interface IMountPoint {
      */
     IResource get(String path);
 
+    /**
+     * Get the paths of all resources in the mount point. File systems use it to
+     * index the mount point when it is added, so that {@link #get(String)} is
+     * only called for paths it provides.
+     * @return paths of the mounted resources, or null if the content can't be
+     * listed and the mount point must be asked for every path
+     */
+    default Collection<String> getPaths() {
+        return null;
+    }
+
     /**
      * Mount the mount point.
      * @throws IOException
@@ -41,6 +52,12 @@ public interface IMountPoint {
      */
     void unmount();
 
+    /**
+     * Save any cache kept by the mount point, e.g. of resource digests.
+     */
+    default void saveCache() {
+    }
+
     /**
      * Walk recursively through the content of this mount point.
      * @param path path within the mount point to start from
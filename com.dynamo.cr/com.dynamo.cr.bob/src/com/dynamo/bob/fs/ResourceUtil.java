@@ -12,8 +12,86 @@
 
 package com.dynamo.bob.fs;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 public class ResourceUtil {
 
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+
+    // Per thread buffer reused for all digests calculated by the thread
+    private static final ThreadLocal<ByteBuffer> digestBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+        }
+    };
+
+    private static MessageDigest createSha1() {
+        try {
+            return MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calculate sha1 of file content. The file is read in fixed-size chunks
+     * and never held in memory as a whole.
+     * @param file file to calculate sha1 for
+     * @return sha1 digest
+     * @throws IOException
+     */
+    public static byte[] calculateSha1(File file) throws IOException {
+        MessageDigest sha1 = createSha1();
+        ByteBuffer buffer = digestBuffer.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                if (!buffer.hasRemaining()) {
+                    sha1.update(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+            }
+            sha1.update(buffer.array(), 0, buffer.position());
+        }
+        return sha1.digest();
+    }
+
+    /**
+     * Calculate sha1 of stream content. The stream is read in fixed-size chunks
+     * until end of stream but not closed.
+     * @param is stream to calculate sha1 for
+     * @return sha1 digest
+     * @throws IOException
+     */
+    public static byte[] calculateSha1(InputStream is) throws IOException {
+        MessageDigest sha1 = createSha1();
+        byte[] buffer = digestBuffer.get().array();
+        int n;
+        while ((n = is.read(buffer)) >= 0) {
+            sha1.update(buffer, 0, n);
+        }
+        return sha1.digest();
+    }
+
+    /**
+     * Calculate sha1 of content
+     * @param content content to calculate sha1 for
+     * @return sha1 digest
+     */
+    public static byte[] calculateSha1(byte[] content) {
+        MessageDigest sha1 = createSha1();
+        sha1.update(content);
+        return sha1.digest();
+    }
+
     /**
      * Change extension of filename
      * @param fileName file-name to change extension for
@@ -0,0 +1,175 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package com.dynamo.bob.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Persistent cache of sha1 digests of zip archive entries
+ *
+ * Library archives don't change once resolved. The cache is valid for as long as the
+ * archive key is unchanged, which is the archive comment (the sha1 or ETag of the
+ * library set by the server) or, for archives without comment, their size and
+ * modification time. A cached digest is valid as long as the CRC and size of the
+ * entry are unchanged.
+ *
+ * The cache is stored next to the archive in a versioned binary format:
+ * <pre>
+ * header:  magic (4 bytes), version (4 bytes), archive key (modified UTF-8)
+ * entries: entry name (modified UTF-8), crc (8 bytes), size (8 bytes), sha1 (20 bytes)
+ * </pre>
+ */
+class ZipDigestCache {
+
+    private static final int MAGIC = 0x424f425a; // "BOBZ"
+    private static final int VERSION = 1;
+    private static final int SHA1_SIZE = 20;
+    static final String SUFFIX = ".digests";
+
+    private static class Entry {
+        final long crc;
+        final long size;
+        final byte[] sha1;
+
+        Entry(long crc, long size, byte[] sha1) {
+            this.crc = crc;
+            this.size = size;
+            this.sha1 = sha1;
+        }
+    }
+
+    private File file;
+    private String archiveKey;
+    private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private AtomicBoolean changed = new AtomicBoolean();
+
+    /**
+     * Create a digest cache for an archive
+     * @param archive archive file, the cache is stored next to it
+     * @param zipFile the opened archive
+     */
+    ZipDigestCache(File archive, ZipFile zipFile) {
+        this.file = new File(archive.getPath() + SUFFIX);
+        String comment = zipFile.getComment();
+        if (comment != null && !comment.isEmpty()) {
+            this.archiveKey = "comment:" + comment;
+        } else {
+            this.archiveKey = "file:" + archive.length() + ":" + archive.lastModified();
+        }
+    }
+
+    /**
+     * Get sha1 of an archive entry, calculating it when there is no valid cached digest
+     * @param zipFile archive
+     * @param entry entry to get sha1 for
+     * @return sha1 digest
+     * @throws IOException
+     */
+    byte[] sha1(ZipFile zipFile, ZipEntry entry) throws IOException {
+        long crc = entry.getCrc();
+        long size = entry.getSize();
+        Entry cached = entries.get(entry.getName());
+        if (cached != null && cached.crc == crc && cached.size == size) {
+            return cached.sha1;
+        }
+        byte[] sha1;
+        try (InputStream is = zipFile.getInputStream(entry)) {
+            sha1 = ResourceUtil.calculateSha1(is);
+        }
+        // The CRC and size are only unknown for entries not read from the central directory
+        if (crc != -1 && size != -1) {
+            entries.put(entry.getName(), new Entry(crc, size, sha1));
+            changed.set(true);
+        }
+        return sha1;
+    }
+
+    /**
+     * Load the cache from file. A missing or invalid file, or one written for
+     * another version of the archive, results in an empty cache.
+     */
+    synchronized void load() {
+        entries.clear();
+        changed.set(false);
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION || !is.readUTF().equals(archiveKey)) {
+                return;
+            }
+            while (true) {
+                is.mark(1);
+                if (is.read() == -1) {
+                    break;
+                }
+                is.reset();
+                String name = is.readUTF();
+                long crc = is.readLong();
+                long size = is.readLong();
+                byte[] sha1 = new byte[SHA1_SIZE];
+                is.readFully(sha1);
+                entries.put(name, new Entry(crc, size, sha1));
+            }
+        } catch (EOFException e) {
+            // Truncated file, the entries read so far are valid and saved again without the rest
+            changed.set(true);
+        } catch (IOException e) {
+            // Corrupt cache, start over
+            entries.clear();
+        }
+    }
+
+    /**
+     * Save the cache to file if any digests were calculated since it was loaded.
+     * @throws IOException
+     */
+    synchronized void save() throws IOException {
+        if (!changed.getAndSet(false)) {
+            return;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeUTF(archiveKey);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                os.writeUTF(entry.getKey());
+                os.writeLong(entry.getValue().crc);
+                os.writeLong(entry.getValue().size);
+                os.write(entry.getValue().sha1);
+            }
+        } catch (IOException e) {
+            changed.set(true);
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -12,13 +12,16 @@
 
 package com.dynamo.bob.fs;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -38,6 +41,8 @@ public class ZipMountPoint implements IMountPoint {
     Set<String> includeDirs = null;
     String includeBaseDir = "";
     private boolean isProject = true; // is it a Defold project?
+    // Digests of library entries, null for other archives
+    private ZipDigestCache digestCache = null;
 
     private class ZipResource extends AbstractResource<IFileSystem> {
         ZipEntry entry;
@@ -49,15 +54,29 @@ public class ZipMountPoint implements IMountPoint {
 
         @Override
         public byte[] getContent() throws IOException {
-            InputStream is = null;
-            try {
-                ByteArrayOutputStream os = new ByteArrayOutputStream((int)this.entry.getSize());
-                is = file.getInputStream(this.entry);
-                IOUtils.copy(is, os);
-                return os.toByteArray();
-            } finally {
-                IOUtils.closeQuietly(is);
+            try (InputStream is = file.getInputStream(this.entry)) {
+                long size = this.entry.getSize();
+                if (size < 0) {
+                    return IOUtils.toByteArray(is);
+                }
+                // Read straight into the result when the size is known
+                byte[] content = new byte[(int) size];
+                IOUtils.readFully(is, content);
+                return content;
+            }
+        }
+
+        @Override
+        public byte[] sha1() throws IOException {
+            if (digestCache != null) {
+                return digestCache.sha1(file, this.entry);
             }
+            return super.sha1();
+        }
+
+        @Override
+        protected InputStream openInputStream() throws IOException {
+            return file.getInputStream(this.entry);
         }
 
         @Override
@@ -119,6 +138,32 @@ public class ZipMountPoint implements IMountPoint {
         return null;
     }
 
+    @Override
+    public Collection<String> getPaths() {
+        if (this.file == null) {
+            return Collections.emptyList();
+        }
+        List<String> paths = new ArrayList<String>();
+        Enumeration<? extends ZipEntry> entries = this.file.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String entryPath = entry.getName();
+            if (!entryPath.startsWith(this.includeBaseDir)) {
+                continue;
+            }
+            entryPath = entryPath.substring(this.includeBaseDir.length());
+            if (this.isProject && !includes(entryPath)) {
+                continue;
+            }
+            paths.add(entryPath);
+            if (entry.isDirectory()) {
+                // ZipFile.getEntry also finds directories without the trailing slash
+                paths.add(entryPath.substring(0, entryPath.length() - 1));
+            }
+        }
+        return paths;
+    }
+
     @Override
     public void mount() throws IOException {
         try {
@@ -127,6 +172,8 @@ public class ZipMountPoint implements IMountPoint {
             if (this.isProject) {
                 this.includeBaseDir = LibraryUtil.findIncludeBaseDir(this.file);
                 this.includeDirs = LibraryUtil.readIncludeDirsFromArchive(this.includeBaseDir, this.file);
+                this.digestCache = new ZipDigestCache(new File(this.archivePath), this.file);
+                this.digestCache.load();
             }
         } catch (ZipException e) {
             throw new IOException(String.format("Failed to mount zip file '%s': %s", this.archivePath, e));
@@ -135,8 +182,22 @@ public class ZipMountPoint implements IMountPoint {
         }
     }
 
+    @Override
+    public void saveCache() {
+        if (this.digestCache != null) {
+            try {
+                this.digestCache.save();
+            } catch (IOException e) {
+                System.err.println(String.format("Unable to save digest cache of '%s'", this.archivePath));
+                e.printStackTrace();
+            }
+        }
+    }
+
     @Override
     public void unmount() {
+        saveCache();
+        this.digestCache = null;
         // Zip files are not quietly closeable on their own
         IOUtils.closeQuietly(new Closeable() {
             @Override
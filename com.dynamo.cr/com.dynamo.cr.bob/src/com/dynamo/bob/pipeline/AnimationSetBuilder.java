@@ -140,9 +140,11 @@ public class AnimationSetBuilder extends Builder<Void>  {
 
         // write merged animationset
         ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
-        animationSetBuilder.build().writeTo(out);
+        AnimationSet animationSet = animationSetBuilder.build();
+        animationSet.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(animationSet));
     }
 }
 
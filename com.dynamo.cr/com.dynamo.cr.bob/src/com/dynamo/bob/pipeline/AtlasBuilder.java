@@ -24,6 +24,7 @@ import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
+import com.dynamo.bob.util.FileCache;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
@@ -71,7 +72,8 @@ public class AtlasBuilder extends Builder<Void>  {
         TextureImage texture;
         try {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(result.image, texProfile, compress);
+            FileCache cache = project.getFileCache("texture", "texture-cache-size", 512);
+            texture = TextureGenerator.generate(result.image, texProfile, compress, cache, project.getExecutor());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
@@ -87,6 +89,7 @@ public class AtlasBuilder extends Builder<Void>  {
         }
 
         task.output(0).setContent(textureSet.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(textureSet));
         task.output(1).setContent(texture.toByteArray());
     }
 
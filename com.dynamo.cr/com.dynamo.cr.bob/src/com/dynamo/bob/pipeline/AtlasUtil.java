@@ -21,6 +21,10 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -36,6 +40,7 @@ import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
+import com.dynamo.bob.util.ImageCache;
 import com.dynamo.tile.proto.Tile.Playback;
 import com.dynamo.tile.proto.Tile.SpriteTrimmingMode;
 
@@ -149,15 +154,101 @@ public class AtlasUtil {
         return resources;
     }
 
+    /**
+     * Decode an image resource
+     * @param resource image resource
+     * @param cache cache of decoded images, or null to always decode the image
+     * @return image or null if the resource could not be decoded
+     * @throws IOException
+     */
+    static BufferedImage readImage(IResource resource, ImageCache cache) throws IOException {
+        byte[] content = resource.getContent();
+        if (cache != null) {
+            return cache.read(content);
+        }
+        return ImageIO.read(new ByteArrayInputStream(content));
+    }
+
+    private static BufferedImage loadImage(IResource resource, ImageCache cache) throws IOException, CompileExceptionError {
+        BufferedImage image = readImage(resource, cache);
+        if (image == null) {
+            throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
+        }
+        return image;
+    }
+
+    private static BufferedImage getImage(Future<BufferedImage> future) throws IOException, CompileExceptionError {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof CompileExceptionError) {
+                throw (CompileExceptionError) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
     public static List<BufferedImage> loadImages(List<IResource> resources) throws IOException, CompileExceptionError {
-        List<BufferedImage> images = new ArrayList<BufferedImage>(resources.size());
+        return loadImages(resources, null, null);
+    }
 
+    /**
+     * Load images. Each unique resource is only decoded once and the images
+     * are returned in the order of the resources.
+     * @param resources image resources
+     * @param cache cache of decoded images shared between builders, or null to always decode the images
+     * @param executor executor used to decode the images in parallel, or null to decode them on the calling thread
+     * @return images
+     * @throws IOException
+     * @throws CompileExceptionError if an image could not be decoded
+     */
+    public static List<BufferedImage> loadImages(List<IResource> resources, final ImageCache cache, ExecutorService executor) throws IOException, CompileExceptionError {
+        List<BufferedImage> images = new ArrayList<BufferedImage>(resources.size());
+        Map<String, Integer> firstIndices = new HashMap<String, Integer>();
+        List<IResource> uniqueResources = new ArrayList<IResource>();
         for (IResource resource : resources) {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
-            if (image == null) {
-                throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
+            if (!firstIndices.containsKey(resource.getPath())) {
+                firstIndices.put(resource.getPath(), firstIndices.size());
+                uniqueResources.add(resource);
             }
-            images.add(image);
+        }
+
+        List<BufferedImage> uniqueImages = new ArrayList<BufferedImage>(uniqueResources.size());
+        if (executor != null && uniqueResources.size() > 1) {
+            List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(uniqueResources.size());
+            try {
+                for (final IResource resource : uniqueResources) {
+                    futures.add(executor.submit(new Callable<BufferedImage>() {
+                        @Override
+                        public BufferedImage call() throws Exception {
+                            return loadImage(resource, cache);
+                        }
+                    }));
+                }
+                for (Future<BufferedImage> future : futures) {
+                    uniqueImages.add(getImage(future));
+                }
+            } finally {
+                for (Future<BufferedImage> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        } else {
+            for (IResource resource : uniqueResources) {
+                uniqueImages.add(loadImage(resource, cache));
+            }
+        }
+
+        for (IResource resource : resources) {
+            images.add(uniqueImages.get(firstIndices.get(resource.getPath())));
         }
         return images;
     }
@@ -210,7 +301,7 @@ public class AtlasUtil {
             imageHullSizes.add(spriteTrimModeToInt(image.getSpriteTrimMode()));
         }
         List<IResource> imageResources = toResources(atlasResource, imagePaths);
-        List<BufferedImage> images = AtlasUtil.loadImages(imageResources);
+        List<BufferedImage> images = AtlasUtil.loadImages(imageResources, project.getImageCache(), project.getExecutor());
         PathTransformer transformer = new PathTransformer() {
             @Override
             public String transform(String path) {
@@ -226,6 +317,6 @@ public class AtlasUtil {
         return TextureSetGenerator.generate(images, imageHullSizes, imagePaths, iterator,
                 Math.max(0, atlas.getMargin()),
                 Math.max(0, atlas.getInnerPadding()),
-                Math.max(0, atlas.getExtrudeBorders()), true, false, null);
+                Math.max(0, atlas.getExtrudeBorders()), true, false, null, project.getExecutor());
     }
 }
@@ -60,9 +60,11 @@ public class ColladaModelBuilder extends Builder<Void>  {
         } catch (LoaderException e) {
             throw new CompileExceptionError(task.input(0), -1, "Failed to compile mesh: " + e.getLocalizedMessage(), e);
         }
-        meshSetBuilder.build().writeTo(out);
+        MeshSet meshSet = meshSetBuilder.build();
+        meshSet.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(meshSet));
 
         // Skeleton
         out = new ByteArrayOutputStream(64 * 1024);
@@ -75,9 +77,11 @@ public class ColladaModelBuilder extends Builder<Void>  {
         } catch (LoaderException e) {
             throw new CompileExceptionError(task.input(0), -1, "Failed to compile skeleton: " + e.getLocalizedMessage(), e);
         }
-        skeletonBuilder.build().writeTo(out);
+        Skeleton skeleton = skeletonBuilder.build();
+        skeleton.writeTo(out);
         out.close();
         task.output(1).setContent(out.toByteArray());
+        task.setReferences(task.output(1), ProtoUtil.getResourceReferences(skeleton));
 
         // Animationset
         out = new ByteArrayOutputStream(64 * 1024);
@@ -90,9 +94,11 @@ public class ColladaModelBuilder extends Builder<Void>  {
         } catch (LoaderException e) {
             throw new CompileExceptionError(task.input(0), -1, "Failed to compile animation: " + e.getLocalizedMessage(), e);
         }
-        animationSetBuilder.build().writeTo(out);
+        AnimationSet animationSet = animationSetBuilder.build();
+        animationSet.writeTo(out);
         out.close();
         task.output(2).setContent(out.toByteArray());
+        task.setReferences(task.output(2), ProtoUtil.getResourceReferences(animationSet));
 
     }
 }
@@ -18,6 +18,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -529,6 +530,95 @@ public class ColladaUtil {
         return null;
     }
 
+    // Read-only list views of primitive arrays, used to add values to messages without first copying them to boxed lists
+    private static List<Float> asList(final float[] values) {
+        return new AbstractList<Float>() {
+            @Override
+            public Float get(int index) {
+                return values[index];
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    private static List<Integer> asList(final int[] values) {
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return values[index];
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    private static int hashVertex(int position, int texcoord, int normal) {
+        int h = position * 0x9e3779b1;
+        h = (h ^ (h >>> 15) ^ texcoord) * 0x85ebca77;
+        h = (h ^ (h >>> 13) ^ normal) * 0xc2b2ae3d;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Weld the vertices of triangle corners. Corners with the same position, texcoord and normal
+     * indices share a vertex, numbered in the order the vertices first appear. Uses an open addressing
+     * hash table over the vertex indices.
+     * @param positions position index of each corner
+     * @param texcoords texcoord index of each corner
+     * @param normals normal index of each corner, or null if the mesh has no normals
+     * @param count number of corners
+     * @param optimize share vertices between corners, otherwise every corner gets a vertex of its own
+     * @param vertices position, texcoord and normal index of each vertex, room for count * 3 values
+     * @param indices vertex index of each corner, room for count values
+     * @return number of vertices
+     */
+    static int weldVertices(int[] positions, int[] texcoords, int[] normals, int count, boolean optimize, int[] vertices, int[] indices) {
+        int capacity = Integer.highestOneBit(Math.max(1, count * 2 - 1)) << 1;
+        int mask = capacity - 1;
+        int[] table = null;
+        if (optimize) {
+            table = new int[capacity];
+            Arrays.fill(table, -1);
+        }
+        int vertexCount = 0;
+        for (int i = 0; i < count; ++i) {
+            int position = positions[i];
+            int texcoord = texcoords[i];
+            int normal = normals != null ? normals[i] : 0;
+            int index = -1;
+            if (optimize) {
+                int slot = hashVertex(position, texcoord, normal) & mask;
+                while (table[slot] != -1) {
+                    int v = table[slot];
+                    if (vertices[v*3] == position && vertices[v*3+1] == texcoord && vertices[v*3+2] == normal) {
+                        index = v;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (index == -1) {
+                    table[slot] = vertexCount;
+                }
+            }
+            if (index == -1) {
+                // create new vertex as this is not equal to any existing vertex
+                index = vertexCount++;
+                vertices[index*3] = position;
+                vertices[index*3+1] = texcoord;
+                vertices[index*3+2] = normal;
+            }
+            indices[i] = index;
+        }
+        return vertexCount;
+    }
+
     public static void loadMesh(XMLCOLLADA collada, Rig.MeshSet.Builder meshSetBuilder, boolean optimize) throws IOException, XMLStreamException, LoaderException {
         if (collada.libraryGeometries.size() != 1) {
             if (collada.libraryGeometries.isEmpty()) {
@@ -635,13 +725,15 @@ public class ColladaUtil {
         assetSpaceMtx.mul(assetSpace.rotation, assetScaleMtx);
         bindShapeMatrix.mul(assetSpaceMtx, bindShapeMatrix);
 
-        List<Float> position_list = new ArrayList<Float>(positions.floatArray.count);
-        for (int i = 0; i < positions.floatArray.count / 3; ++i) {
-            Point3f p = new Point3f(positions.floatArray.floats[i*3], positions.floatArray.floats[i*3+1], positions.floatArray.floats[i*3+2]);
+        int position_count = positions.floatArray.count / 3;
+        float[] position_array = new float[position_count * 3];
+        Point3f p = new Point3f();
+        for (int i = 0; i < position_count; ++i) {
+            p.set(positions.floatArray.floats[i*3], positions.floatArray.floats[i*3+1], positions.floatArray.floats[i*3+2]);
             bindShapeMatrix.transform(p);
-            position_list.add(p.getX());
-            position_list.add(p.getY());
-            position_list.add(p.getZ());
+            position_array[i*3] = p.getX();
+            position_array[i*3+1] = p.getY();
+            position_array[i*3+2] = p.getZ();
         }
 
         // Create a normal matrix which is the transposed inverse of
@@ -650,126 +742,95 @@ public class ColladaUtil {
         normalMatrix.invert();
         normalMatrix.transpose();
 
-        List<Float> normal_list = null;
+        float[] normal_array = null;
         if(normals != null) {
-            normal_list = new ArrayList<Float>(normals.floatArray.count);
-            for (int i = 0; i < normals.floatArray.count / 3; ++i) {
-                Vector3f n = new Vector3f(normals.floatArray.floats[i*3], normals.floatArray.floats[i*3+1], normals.floatArray.floats[i*3+2]);
+            int normal_count = normals.floatArray.count / 3;
+            normal_array = new float[normal_count * 3];
+            Vector3f n = new Vector3f();
+            for (int i = 0; i < normal_count; ++i) {
+                n.set(normals.floatArray.floats[i*3], normals.floatArray.floats[i*3+1], normals.floatArray.floats[i*3+2]);
                 normalMatrix.transform(n);
                 if (n.lengthSquared() > 0.0) {
                     n.normalize();
                 }
-                normal_list.add(n.getX());
-                normal_list.add(n.getY());
-                normal_list.add(n.getZ());
+                normal_array[i*3] = n.getX();
+                normal_array[i*3+1] = n.getY();
+                normal_array[i*3+2] = n.getZ();
             }
         }
 
-        List<Float> texcoord_list;
+        float[] texcoord_array;
         if(texcoords == null) {
-            texcoord_list = new ArrayList<Float>(Arrays.asList(0f, 0f));
+            texcoord_array = new float[] {0f, 0f};
         } else {
-            texcoord_list = new ArrayList<Float>(texcoords.floatArray.count);
-            for (int i = 0; i < texcoords.floatArray.count; i += 2 ) {
-                texcoord_list.add(texcoords.floatArray.floats[i]);
-                texcoord_list.add(texcoords.floatArray.floats[i+1]);
-            }
+            texcoord_array = Arrays.copyOf(texcoords.floatArray.floats, (texcoords.floatArray.count + 1) / 2 * 2);
         }
 
-        List<Integer> position_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> normal_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> texcoord_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
+        int corner_count = mesh.triangles.count * 3;
+        int[] position_indices = new int[corner_count];
+        int[] normal_indices = normals != null ? new int[corner_count] : null;
+        int[] texcoord_indices = new int[corner_count];
 
         // Sometimes the <p> values can be -1 from Maya exports, we clamp it below to 0 instead.
         // Similar solution as AssImp; https://github.com/assimp/assimp/blob/master/code/ColladaParser.cpp#L2336
+        int[] triangles_p = mesh.triangles.p;
         for (int i = 0; i < mesh.triangles.count; ++i) {
 
             for (int j = 0; j < 3; ++j) {
+                int corner = i * 3 + j;
                 int idx = i * stride * 3 + vertex_input.offset;
-                int vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                position_indices_list.add(vert_idx);
+                position_indices[corner] = Math.max(0, triangles_p[idx + stride * j]);
 
                 if (normals != null) {
                     idx = i * stride * 3 + normalOffset;
-                    vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    normal_indices_list.add(vert_idx);
+                    normal_indices[corner] = Math.max(0, triangles_p[idx + stride * j]);
                 }
 
-                if (texcoords == null) {
-                    texcoord_indices_list.add(0);
-                } else {
+                if (texcoords != null) {
                     idx = i * stride * 3 + texcoord_input.offset;
-                    vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    texcoord_indices_list.add(vert_idx);
+                    texcoord_indices[corner] = Math.max(0, triangles_p[idx + stride * j]);
                 }
 
             }
 
         }
 
-        class MeshVertexIndex {
-            public int position, texcoord0, normal;
-            public boolean equals(Object o) {
-                MeshVertexIndex m = (MeshVertexIndex) o;
-                return (this.position == m.position && this.texcoord0 == m.texcoord0 && this.normal == m.normal);
-            }
-        }
-
         // Build an optimized list of triangles from indices and instance (make unique) any vertices common attributes (position, normal etc.).
         // We can then use this to quickly build am optimized indexed vertex buffer of any selected vertex elements in run-time without any sorting.
-        boolean mesh_has_normals = normal_indices_list.size() > 0;
-        List<MeshVertexIndex> shared_vertex_indices = new ArrayList<MeshVertexIndex>(mesh.triangles.count*3);
-        List<Integer> mesh_index_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        for (int i = 0; i < mesh.triangles.count*3; ++i) {
-            MeshVertexIndex ci = new MeshVertexIndex();
-            ci.position = position_indices_list.get(i);
-            ci.texcoord0 = texcoord_indices_list.get(i);
-            ci.normal = mesh_has_normals ? normal_indices_list.get(i) : 0;
-            int index = optimize ? shared_vertex_indices.indexOf(ci) : -1;
-            if(index == -1) {
-                // create new vertex as this is not equal to any existing in generated list
-                mesh_index_list.add(shared_vertex_indices.size());
-                shared_vertex_indices.add(ci);
-            } else {
-                // shared vertex, add index to existing vertex in generating list instead of adding new
-                mesh_index_list.add(index);
-            }
-        }
-        List<Rig.MeshVertexIndices> mesh_vertex_indices = new ArrayList<Rig.MeshVertexIndices>(mesh.triangles.count*3);
-        for (int i = 0; i < shared_vertex_indices.size() ; ++i) {
+        int[] shared_vertex_indices = new int[corner_count * 3];
+        int[] mesh_index_list = new int[corner_count];
+        int shared_vertex_count = weldVertices(position_indices, texcoord_indices, normal_indices, corner_count, optimize, shared_vertex_indices, mesh_index_list);
+
+        List<Rig.MeshVertexIndices> mesh_vertex_indices = new ArrayList<Rig.MeshVertexIndices>(shared_vertex_count);
+        for (int i = 0; i < shared_vertex_count; ++i) {
             Rig.MeshVertexIndices.Builder b = Rig.MeshVertexIndices.newBuilder();
-            MeshVertexIndex ci = shared_vertex_indices.get(i);
-            b.setPosition(ci.position);
-            b.setTexcoord0(ci.texcoord0);
-            b.setNormal(ci.normal);
+            b.setPosition(shared_vertex_indices[i*3]);
+            b.setTexcoord0(shared_vertex_indices[i*3+1]);
+            b.setNormal(shared_vertex_indices[i*3+2]);
             mesh_vertex_indices.add(b.build());
         }
 
         Rig.IndexBufferFormat indices_format;
         ByteBuffer indices_bytes;
-        if(shared_vertex_indices.size() <= 65536)
+        if(shared_vertex_count <= 65536)
         {
             // if we only need 16-bit indices, use this primarily. Less data to upload to GPU and ES2.0 core functionality.
             indices_format = Rig.IndexBufferFormat.INDEXBUFFER_FORMAT_16;
-            indices_bytes = ByteBuffer.allocateDirect(mesh_index_list.size() * 2);
-            indices_bytes.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
-            for (int i = 0; i < mesh_index_list.size();) {
-                indices_bytes.putShort(mesh_index_list.get(i++).shortValue());
+            indices_bytes = ByteBuffer.allocate(corner_count * 2).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < corner_count; ++i) {
+                indices_bytes.putShort((short) mesh_index_list[i]);
             }
         }
         else
         {
             indices_format = Rig.IndexBufferFormat.INDEXBUFFER_FORMAT_32;
-            indices_bytes = ByteBuffer.allocateDirect(mesh_index_list.size() * 4);
-            indices_bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
-            for (int i = 0; i < mesh_index_list.size();) {
-                indices_bytes.putInt(mesh_index_list.get(i++));
-            }
+            indices_bytes = ByteBuffer.allocate(corner_count * 4).order(ByteOrder.LITTLE_ENDIAN);
+            indices_bytes.asIntBuffer().put(mesh_index_list);
         }
         indices_bytes.rewind();
 
-        List<Integer> bone_indices_list = new ArrayList<Integer>(position_list.size()*4);
-        List<Float> bone_weights_list = new ArrayList<Float>(position_list.size()*4);
+        List<Integer> bone_indices_list = new ArrayList<Integer>(position_array.length*4);
+        List<Float> bone_weights_list = new ArrayList<Float>(position_array.length*4);
         int max_bone_count = loadVertexWeights(collada, bone_weights_list, bone_indices_list);
 
         // We currently only support one mesh per collada file
@@ -782,13 +843,13 @@ public class ColladaUtil {
         meshBuilder.setIndices(ByteString.copyFrom(indices_bytes));
         meshBuilder.setIndicesFormat(indices_format);
         if(normals != null) {
-            meshBuilder.addAllNormals(normal_list);
-            meshBuilder.addAllNormalsIndices(normal_indices_list);
+            meshBuilder.addAllNormals(asList(normal_array));
+            meshBuilder.addAllNormalsIndices(asList(normal_indices));
         }
-        meshBuilder.addAllPositions(position_list);
-        meshBuilder.addAllTexcoord0(texcoord_list);
-        meshBuilder.addAllPositionIndices(position_indices_list);
-        meshBuilder.addAllTexcoord0Indices(texcoord_indices_list);
+        meshBuilder.addAllPositions(asList(position_array));
+        meshBuilder.addAllTexcoord0(asList(texcoord_array));
+        meshBuilder.addAllPositionIndices(asList(position_indices));
+        meshBuilder.addAllTexcoord0Indices(asList(texcoord_indices));
         meshBuilder.addAllWeights(bone_weights_list);
         meshBuilder.addAllBoneIndices(bone_indices_list);
 
@@ -23,6 +23,7 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.FileCache;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
 import com.dynamo.graphics.proto.Graphics.Cubemap;
@@ -68,6 +69,7 @@ public class CubemapBuilder extends Builder<Void> {
 
         TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
 
+        FileCache cache = project.getFileCache("texture", "texture-cache-size", 512);
         TextureImage[] textures = new TextureImage[6];
         try {
             for (int i = 0; i < 6; i++) {
@@ -85,7 +87,7 @@ public class CubemapBuilder extends Builder<Void> {
                 //
                 // So for cube map textures we don't flip on any axis, meaning the texture data begin at the
                 // upper left corner of the input image.
-                TextureImage texture = TextureGenerator.generate(is, texProfile, compress, EnumSet.noneOf(FlipAxis.class));
+                TextureImage texture = TextureGenerator.generate(is, texProfile, compress, EnumSet.noneOf(FlipAxis.class), cache, project.getExecutor());
                 textures[i] = texture;
             }
             validate(task, textures);
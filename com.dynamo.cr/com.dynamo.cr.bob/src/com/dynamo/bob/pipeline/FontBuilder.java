@@ -58,6 +58,7 @@ public class FontBuilder extends Builder<Void>  {
         BuilderUtil.checkResource(this.project, task.input(0), "material", fontDesc.getMaterial());
 
         Fontc fontc = new Fontc();
+        fontc.setExecutor(project.getExecutor());
         BufferedInputStream fontStream = new BufferedInputStream(new ByteArrayInputStream(inputFontFile.getContent()));
         try {
 
@@ -81,6 +82,7 @@ public class FontBuilder extends Builder<Void>  {
 
             // Save fontmap file
             task.output(0).setContent(fontc.getFontMap().toByteArray());
+            task.setReferences(task.output(0), ProtoUtil.getResourceReferences(fontc.getFontMap()));
 
         } catch (FontFormatException e) {
             task.output(0).remove();
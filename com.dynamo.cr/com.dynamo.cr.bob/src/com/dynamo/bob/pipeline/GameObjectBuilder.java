@@ -161,6 +161,7 @@ public class GameObjectBuilder extends Builder<Void> {
         proto.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(proto));
     }
 
     static String[][] extensionMapping = new String[][] {
@@ -27,6 +27,7 @@ import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +40,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
 import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
@@ -76,7 +78,6 @@ import com.dynamo.lua.proto.Lua.LuaModule;
 import com.dynamo.model.proto.ModelProto.Model;
 import com.dynamo.particle.proto.Particle.ParticleFX;
 import com.dynamo.physics.proto.Physics.CollisionObjectDesc;
-import com.dynamo.proto.DdfExtensions;
 import com.dynamo.render.proto.Font.FontMap;
 import com.dynamo.render.proto.Material.MaterialDesc;
 import com.dynamo.render.proto.Render.DisplayProfiles;
@@ -89,8 +90,6 @@ import com.dynamo.spine.proto.Spine.SpineModelDesc;
 import com.dynamo.sprite.proto.Sprite.SpriteDesc;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.dynamo.tile.proto.Tile.TileGrid;
-import com.google.protobuf.DescriptorProtos.FieldOptions;
-import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.GeneratedMessage;
 import com.google.protobuf.Message;
 
@@ -228,10 +227,20 @@ public class GameProjectBuilder extends Builder<Void> {
         return builder.build();
     }
 
-    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
+    private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory, IResource previousIndex, IResource previousData) throws IOException, CompileExceptionError {
         String root = FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory());
         ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder);
+        archiveBuilder.setExecutor(project.getExecutor());
+        if (project.hasOption("incremental-archive")) {
+            // The previous archive is the output of the last build, not yet replaced by the new one
+            File previousDataFile = new File(previousData.getAbsPath());
+            File sourceIndexFile = new File(previousDataFile.getParentFile(), previousDataFile.getName() + ".sources");
+            archiveBuilder.setPreviousArchive(new File(previousIndex.getAbsPath()), previousDataFile, sourceIndexFile);
+        }
         boolean doCompress = project.getProjectProperties().getBooleanValue("project", "compress_archive", true);
+        if (doCompress) {
+            archiveBuilder.setCompressionCache(project.getFileCache("archive", "archive-cache-size", 512));
+        }
         HashMap<String, EnumSet<Project.OutputFlags>> outputs = project.getOutputs();
 
         for (String s : resources) {
@@ -245,6 +254,10 @@ public class GameProjectBuilder extends Builder<Void> {
         archiveIndex.close();
         archiveData.close();
 
+        if (project.hasOption("incremental-archive")) {
+            Bob.verbose("Archive entries reused from the previous archive: %d", archiveBuilder.getReusedEntryCount());
+        }
+
         // Populate publisher with the resource pack
         for (File fhandle : (new File(resourcePackDirectory.toAbsolutePath().toString())).listFiles()) {
             if (fhandle.isFile()) {
@@ -253,98 +266,70 @@ public class GameProjectBuilder extends Builder<Void> {
         }
     }
 
-    private static void findResources(Project project, Message node, Collection<String> resources) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                findResources(project, (Message) value, resources);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        findResources(project, (Message) v, resources);
-                    } else if (isResource && v instanceof String) {
-                        findResources(project, project.getResource((String) v), resources);
-                    }
-                }
-            } else if (isResource && value instanceof String) {
-                findResources(project, project.getResource((String) value), resources);
-            }
-        }
-    }
-
-    /*  Adds unique resources to list 'resources'. Each resource should once occur
-        once in the list regardless if the resource appears in several collections
-        or collectionproxies.
+    /*  Get the paths of the resources referenced by a built resource, in the order they
+        appear in the output. The references published by the builder are used when available,
+        otherwise the output is read back and parsed. Parsed references are kept in 'parsed'
+        since both findResources and buildResourceGraph visit the same resources.
     */
-    private static void findResources(Project project, IResource resource, Collection<String> resources) throws CompileExceptionError {
-        if (resource.getPath().equals("") || resources.contains(resource.output().getAbsPath())) {
-            return;
-        }
-
-        resources.add(resource.output().getAbsPath());
-
+    private static List<String> getReferences(Project project, IResource resource, Map<String, List<String>> parsed) throws CompileExceptionError {
         int i = resource.getPath().lastIndexOf(".");
         if (i == -1) {
-            return;
+            return Collections.emptyList();
         }
         String ext = resource.getPath().substring(i);
 
         if (leafResourceTypes.contains(ext)) {
-            return;
+            return Collections.emptyList();
         }
 
         Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
-        if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
-            try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
-                    throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
-                }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                findResources(project, (Message) message, resources);
-            } catch(CompileExceptionError e) {
-                throw e;
-            } catch(Exception e) {
-                throw new RuntimeException(e);
-            }
-        } else {
+        if (klass == null) {
             throw new CompileExceptionError(resource, -1, "No mapping for " + ext);
         }
-    }
 
-    private static void buildResourceGraph(Project project, Message node, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                buildResourceGraph(project, (Message) value, parentNode, visitedNodes);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        buildResourceGraph(project, (Message) v, parentNode, visitedNodes);
-                    } else if (isResource && v instanceof String) {
-                        buildResourceGraph(project, project.getResource((String) v), parentNode, visitedNodes);
-                    }
-                }
-            } else if (isResource && value instanceof String) {
-                buildResourceGraph(project, project.getResource((String) value), parentNode, visitedNodes);
+        List<String> references = project.getResourceReferences(resource.output());
+        if (references != null) {
+            return references;
+        }
+        String path = resource.output().getAbsPath();
+        references = parsed.get(path);
+        if (references != null) {
+            return references;
+        }
+
+        GeneratedMessage.Builder<?> builder;
+        try {
+            Method newBuilder = klass.getDeclaredMethod("newBuilder");
+            builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
+            final byte[] content = resource.output().getContent();
+            if(content == null) {
+                throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
             }
+            builder.mergeFrom(content);
+            Object message = builder.build();
+            references = ProtoUtil.getResourceReferences((Message) message);
+        } catch(CompileExceptionError e) {
+            throw e;
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        parsed.put(path, references);
+        return references;
+    }
+
+    /*  Adds unique resources to list 'resources'. Each resource should once occur
+        once in the list regardless if the resource appears in several collections
+        or collectionproxies.
+    */
+    private static void findResources(Project project, IResource resource, Collection<String> resources, Map<String, List<String>> parsed) throws CompileExceptionError {
+        if (resource.getPath().equals("") || resources.contains(resource.output().getAbsPath())) {
+            return;
+        }
+
+        resources.add(resource.output().getAbsPath());
+
+        for (String reference : getReferences(project, resource, parsed)) {
+            findResources(project, project.getResource(reference), resources, parsed);
         }
     }
 
@@ -354,7 +339,7 @@ public class GameProjectBuilder extends Builder<Void> {
         will appear as a single node per collectionproxy, but can still have a other nodes
         in other collections/collectionproxies.
     */
-    private static void buildResourceGraph(Project project, IResource resource, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
+    private static void buildResourceGraph(Project project, IResource resource, ResourceNode parentNode, Collection<String> visitedNodes, Map<String, List<String>> parsed) throws CompileExceptionError {
         if (resource.getPath().equals("") || visitedNodes.contains(resource.output().getAbsPath())) {
             return;
         }
@@ -367,36 +352,8 @@ public class GameProjectBuilder extends Builder<Void> {
         ResourceNode currentNode = new ResourceNode(resource.getPath(), resource.output().getAbsPath());
         parentNode.addChild(currentNode);
 
-        int i = resource.getPath().lastIndexOf(".");
-        if (i == -1) {
-            return;
-        }
-        String ext = resource.getPath().substring(i);
-
-        if (leafResourceTypes.contains(ext)) {
-            return;
-        }
-
-        Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
-        if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
-            try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
-                    throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
-                }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                buildResourceGraph(project, (Message) message, currentNode, visitedNodes);
-            } catch(CompileExceptionError e) {
-                throw e;
-            } catch(Exception e) {
-                throw new RuntimeException(e);
-            }
-        } else {
-            throw new CompileExceptionError(resource, -1, "No mapping for " + ext);
+        for (String reference : getReferences(project, resource, parsed)) {
+            buildResourceGraph(project, project.getResource(reference), currentNode, visitedNodes, parsed);
         }
     }
 
@@ -412,6 +369,7 @@ public class GameProjectBuilder extends Builder<Void> {
 
         } else {
 
+            Map<String, List<String>> parsed = new HashMap<String, List<String>>();
             // Root nodes to follow (default values from engine.cpp)
             for (String[] tuples : new String[][] { {"bootstrap", "main_collection", "/logic/main.collectionc"},
                                                     {"bootstrap", "render", "/builtins/render/default.renderc"},
@@ -422,8 +380,8 @@ public class GameProjectBuilder extends Builder<Void> {
                 String path = project.getProjectProperties().getStringValue(tuples[0], tuples[1], tuples[2]);
                 HashSet<String> visitedNodes = new HashSet<String>();
                 if (path != null) {
-                    findResources(project, project.getResource(path), resources);
-                    buildResourceGraph(project, project.getResource(path), rootNode, visitedNodes);
+                    findResources(project, project.getResource(path), resources, parsed);
+                    buildResourceGraph(project, project.getResource(path), rootNode, visitedNodes, parsed);
                 }
             }
 
@@ -561,7 +519,7 @@ public class GameProjectBuilder extends Builder<Void> {
                 File archiveDataHandle = File.createTempFile("defold.data_", ".arcd");
                 RandomAccessFile archiveData = createRandomAccessFile(archiveDataHandle);
                 Path resourcePackDirectory = Files.createTempDirectory("defold.resourcepack_");
-                createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory);
+                createArchive(resources, archiveIndex, archiveData, manifestBuilder, excludedResources, resourcePackDirectory, task.getOutputs().get(1), task.getOutputs().get(2));
 
                 // Create manifest
                 byte[] manifestFile = manifestBuilder.buildManifest();
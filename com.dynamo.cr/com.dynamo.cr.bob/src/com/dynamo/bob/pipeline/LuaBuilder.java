@@ -87,7 +87,62 @@ public abstract class LuaBuilder extends Builder<Void> {
         return string.getBytes();
     }
 
+    // Get the chunk name of a script
+    //
+    // See implementation of luaO_chunkid and why a prefix '=' is used; it is to pass through the filename without modifications.
+    //
+    // We will also limit the chunkname (the identifying part of a script/source chunk) to 59 chars.
+    // Lua has a maximum length of chunknames, by default defined to 60 chars.
+    //
+    // If a script error occurs in runtime we want Lua to report the end of the filepath
+    // associated with the chunk, since this is where the filename is visible.
+    private static String getChunkName(Task<Void> task) {
+        String chunkName = task.input(0).getPath();
+        if (chunkName.length() >= 59) {
+            chunkName = chunkName.substring(chunkName.length() - 59);
+        }
+        return "=" + chunkName;
+    }
+
+    // Create a compile error from the output of luajit
+    private static CompileExceptionError createCompileError(Task<Void> task, String cmdOutput) {
+        // first delimiter is the executable name "luajit:"
+        int execSep = cmdOutput.indexOf(':');
+        if (execSep > 0) {
+            // then comes the filename and the line like this:
+            // "file.lua:30: <error message>"
+            int lineBegin = cmdOutput.indexOf(':', execSep + 1);
+            if (lineBegin > 0) {
+                int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
+                if (lineEnd > 0) {
+                    return new CompileExceptionError(task.input(0),
+                            Integer.parseInt(cmdOutput.substring(
+                                    lineBegin + 1, lineEnd)),
+                            cmdOutput.substring(lineEnd + 2));
+                }
+            }
+        }
+        // Since parsing out the actual error failed, as a backup just
+        // spit out whatever luajit said.
+        return new CompileExceptionError(task.input(0), 1, cmdOutput);
+    }
+
     public byte[] constructBytecode(Task<Void> task, String luajitExe, byte[] byteString) throws IOException, CompileExceptionError {
+        LuaJITCompiler.Result result;
+        try {
+            result = LuaJITCompiler.compile(luajitExe, getChunkName(task), byteString);
+        } catch (IOException e) {
+            // Compile with a luajit process of its own, which reports the actual error if luajit is broken
+            Logger.getLogger(LuaBuilder.class.getCanonicalName()).log(Level.WARNING, "Unable to use luajit compiler, starting luajit for " + task.input(0).getPath(), e);
+            return constructBytecodeWithProcess(task, luajitExe, byteString);
+        }
+        if (result.error != null) {
+            throw createCompileError(task, result.error);
+        }
+        return result.bytecode;
+    }
+
+    private byte[] constructBytecodeWithProcess(Task<Void> task, String luajitExe, byte[] byteString) throws IOException, CompileExceptionError {
 
         java.io.FileOutputStream fo = null;
         RandomAccessFile rdr = null;
@@ -108,21 +163,7 @@ public abstract class LuaBuilder extends Builder<Void> {
             //
             // NOTE: The -f option for bytecode is a small custom modification to bcsave.lua in LuaJIT which allows us to supply the
             //       correct chunk name (the original original source file) already here.
-            //
-            // See implementation of luaO_chunkid and why a prefix '=' is used; it is to pass through the filename without modifications.
-            //
-            // We will also limit the chunkname (the identifying part of a script/source chunk) to 59 chars.
-            // Lua has a maximum length of chunknames, by default defined to 60 chars.
-            //
-            // If a script error occurs in runtime we want Lua to report the end of the filepath
-            // associated with the chunk, since this is where the filename is visible.
-            //
-            String chunkName = task.input(0).getPath();
-            if (chunkName.length() >= 59) {
-                chunkName = chunkName.substring(chunkName.length() - 59);
-            }
-            chunkName = "=" + chunkName;
-            ProcessBuilder pb = new ProcessBuilder(new String[] { Bob.getExe(Platform.getHostPlatform(), luajitExe), "-bgf", chunkName, inputFile.getAbsolutePath(), outputFile.getAbsolutePath() }).redirectErrorStream(true);
+            ProcessBuilder pb = new ProcessBuilder(new String[] { Bob.getExe(Platform.getHostPlatform(), luajitExe), "-bgf", getChunkName(task), inputFile.getAbsolutePath(), outputFile.getAbsolutePath() }).redirectErrorStream(true);
 
             java.util.Map<String, String> env = pb.environment();
             env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
@@ -141,26 +182,8 @@ public abstract class LuaBuilder extends Builder<Void> {
 
                 String cmdOutput = new String(buf);
                 if (ret != 0) {
-                    // first delimiter is the executable name "luajit:"
-                    int execSep = cmdOutput.indexOf(':');
-                    if (execSep > 0) {
-                        // then comes the filename and the line like this:
-                        // "file.lua:30: <error message>"
-                        int lineBegin = cmdOutput.indexOf(':', execSep + 1);
-                        if (lineBegin > 0) {
-                            int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
-                            if (lineEnd > 0) {
-                                throw new CompileExceptionError(task.input(0),
-                                        Integer.parseInt(cmdOutput.substring(
-                                                lineBegin + 1, lineEnd)),
-                                        cmdOutput.substring(lineEnd + 2));
-                            }
-                        }
-                    }
-                    // Since parsing out the actual error failed, as a backup just
-                    // spit out whatever luajit said.
                     inputFile.delete();
-                    throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+                    throw createCompileError(task, cmdOutput);
                 }
             } catch (InterruptedException e) {
                 Logger.getLogger(LuaBuilder.class.getCanonicalName()).log(Level.SEVERE, "Unexpected interruption", e);
@@ -238,6 +261,7 @@ public abstract class LuaBuilder extends Builder<Void> {
         msg.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(msg));
 
 
     }
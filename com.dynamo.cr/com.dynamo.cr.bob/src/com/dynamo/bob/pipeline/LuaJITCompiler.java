@@ -0,0 +1,184 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
+
+/**
+ * Compiles Lua source to LuaJIT bytecode with long-lived luajit processes
+ * running luajit_compiler.lua, instead of starting a process per script.
+ * Workers are started when needed and kept for the lifetime of the JVM, so
+ * there is at most one worker per executable and concurrently building thread.
+ *
+ * The bytecode and error messages are the same as from "luajit -bgf".
+ */
+public class LuaJITCompiler {
+
+    public static class Result {
+        /** Bytecode, or null if the source failed to compile */
+        public final byte[] bytecode;
+        /** Error output as printed by luajit, or null if the source compiled */
+        public final String error;
+
+        Result(byte[] bytecode, String error) {
+            this.bytecode = bytecode;
+            this.error = error;
+        }
+    }
+
+    private static class Worker {
+        Process process;
+        Writer writer;
+        BufferedReader reader;
+
+        Worker(String exe, String script) throws IOException {
+            process = new ProcessBuilder(exe, script).redirectErrorStream(true).start();
+            writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII);
+            reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+        }
+
+        Result compile(String chunkName, byte[] source) throws IOException {
+            writer.write(Hex.encodeHex(chunkName.getBytes(StandardCharsets.UTF_8)));
+            writer.write(' ');
+            writer.write(Hex.encodeHex(source));
+            writer.write('\n');
+            writer.flush();
+
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("luajit compiler exited unexpectedly");
+            }
+            try {
+                if (line.startsWith("ok ")) {
+                    return new Result(Hex.decodeHex(line.substring(3).toCharArray()), null);
+                } else if (line.startsWith("error ")) {
+                    return new Result(null, new String(Hex.decodeHex(line.substring(6).toCharArray()), StandardCharsets.UTF_8));
+                }
+            } catch (DecoderException e) {
+                throw new IOException("Invalid response from luajit compiler", e);
+            }
+            // Anything else is output from luajit itself, e.g. an error in the compiler script
+            throw new IOException("Unexpected output from luajit compiler: " + line);
+        }
+
+        void close() {
+            IOUtils.closeQuietly(writer);
+            IOUtils.closeQuietly(reader);
+            process.destroy();
+        }
+    }
+
+    private static final Map<String, Deque<Worker>> idleWorkers = new ConcurrentHashMap<String, Deque<Worker>>();
+    private static final List<Worker> allWorkers = new ArrayList<Worker>();
+    private static File script = null;
+
+    private static synchronized String getScript() throws IOException {
+        if (script == null) {
+            URL url = LuaJITCompiler.class.getResource("luajit_compiler.lua");
+            if (url == null) {
+                throw new IOException("luajit_compiler.lua could not be found");
+            }
+            File file = File.createTempFile("luajit_compiler", ".lua");
+            file.deleteOnExit();
+            FileUtils.copyURLToFile(url, file);
+            script = file;
+
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (allWorkers) {
+                        for (Worker worker : allWorkers) {
+                            worker.close();
+                        }
+                    }
+                }
+            }));
+        }
+        return script.getAbsolutePath();
+    }
+
+    private static Worker acquire(String exe) throws IOException {
+        Deque<Worker> idle = idleWorkers.get(exe);
+        Worker worker = idle != null ? idle.pollFirst() : null;
+        if (worker == null) {
+            worker = new Worker(exe, getScript());
+            synchronized (allWorkers) {
+                allWorkers.add(worker);
+            }
+        }
+        return worker;
+    }
+
+    private static void release(String exe, Worker worker) {
+        Deque<Worker> idle = idleWorkers.get(exe);
+        if (idle == null) {
+            idleWorkers.putIfAbsent(exe, new ConcurrentLinkedDeque<Worker>());
+            idle = idleWorkers.get(exe);
+        }
+        idle.addFirst(worker);
+    }
+
+    private static void discard(Worker worker) {
+        worker.close();
+        synchronized (allWorkers) {
+            allWorkers.remove(worker);
+        }
+    }
+
+    /**
+     * Compile Lua source to bytecode with debug information
+     * @param luajitExe name of the luajit executable, e.g. "luajit-64"
+     * @param chunkName chunk name, as passed to loadstring
+     * @param source Lua source
+     * @return bytecode or the compile error
+     * @throws IOException if the luajit process could not be started or failed
+     */
+    public static Result compile(String luajitExe, String chunkName, byte[] source) throws IOException {
+        String exe = Bob.getExe(Platform.getHostPlatform(), luajitExe);
+        Worker worker = acquire(exe);
+        Result result;
+        try {
+            result = worker.compile(chunkName, source);
+        } catch (IOException e) {
+            discard(worker);
+            throw e;
+        } catch (RuntimeException e) {
+            discard(worker);
+            throw e;
+        }
+        release(exe, worker);
+        return result;
+    }
+}
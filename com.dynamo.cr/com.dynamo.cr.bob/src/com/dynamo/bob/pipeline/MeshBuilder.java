@@ -77,8 +77,10 @@ public class MeshBuilder extends Builder<Void> {
         meshDescBuilder.addAllTextures(newTextureList);
 
         ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
-        meshDescBuilder.build().writeTo(out);
+        MeshDesc meshDesc = meshDescBuilder.build();
+        meshDesc.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(meshDesc));
     }
 }
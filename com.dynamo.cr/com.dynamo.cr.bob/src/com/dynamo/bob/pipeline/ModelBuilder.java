@@ -91,9 +91,11 @@ public class ModelBuilder extends Builder<Void> {
 
         rigBuilder.setTextureSet(""); // this is set in the model
         ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
-        rigBuilder.build().writeTo(out);
+        RigScene rigScene = rigBuilder.build();
+        rigScene.writeTo(out);
         out.close();
         task.output(1).setContent(out.toByteArray());
+        task.setReferences(task.output(1), ProtoUtil.getResourceReferences(rigScene));
 
         // Model
         IResource resource = task.input(0);
@@ -112,9 +114,11 @@ public class ModelBuilder extends Builder<Void> {
         model.setDefaultAnimation(modelDescBuilder.getDefaultAnimation());
 
         out = new ByteArrayOutputStream(64 * 1024);
-        model.build().writeTo(out);
+        Model modelDesc = model.build();
+        modelDesc.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(modelDesc));
     }
 }
 
@@ -13,11 +13,16 @@
 package com.dynamo.bob.pipeline;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.proto.DdfExtensions;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
 import com.google.protobuf.TextFormat;
 
@@ -37,4 +42,36 @@ public class ProtoUtil {
             }
         }
     }
+
+    private static void findResourceReferences(Message node, List<String> references) {
+        FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
+        for (FieldDescriptor fieldDescriptor : node.getDescriptorForType().getFields()) {
+            boolean isResource = (Boolean) fieldDescriptor.getOptions().getField(resourceDesc);
+            Object value = node.getField(fieldDescriptor);
+            if (value instanceof Message) {
+                findResourceReferences((Message) value, references);
+            } else if (value instanceof List) {
+                for (Object v : (List<?>) value) {
+                    if (v instanceof Message) {
+                        findResourceReferences((Message) v, references);
+                    } else if (isResource && v instanceof String) {
+                        references.add((String) v);
+                    }
+                }
+            } else if (isResource && value instanceof String) {
+                references.add((String) value);
+            }
+        }
+    }
+
+    /**
+     * Get the paths of all fields marked as resources in a message, including nested messages
+     * @param message message to search
+     * @return paths in field order, empty paths and duplicates included
+     */
+    public static List<String> getResourceReferences(Message message) {
+        List<String> references = new ArrayList<String>();
+        findResourceReferences(message, references);
+        return references;
+    }
 }
@@ -17,6 +17,8 @@ import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -29,15 +31,18 @@ import java.util.Locale;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
@@ -47,15 +52,24 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.fs.ResourceUtil;
 import com.dynamo.bob.pipeline.ShaderUtil.ES2ToES3Converter;
 import com.dynamo.bob.pipeline.ShaderUtil.SPIRVReflector;
 import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.Exec.Result;
+import com.dynamo.bob.util.FileCache;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 import com.google.protobuf.ByteString;
 
 public abstract class ShaderProgramBuilder extends Builder<Void> {
 
+    // Part of the shader cache key, change when the SPIR-V shaders are created differently
+    private static final int SHADER_CACHE_VERSION = 1;
+    private static final byte CACHE_ENTRY_SHADER = 0;
+    private static final byte CACHE_ENTRY_ISSUES = 1;
+
+    private static Map<String, String> toolDigests = new ConcurrentHashMap<String, String>();
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
 
@@ -210,6 +224,28 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
             es3Result.shaderVersion = Integer.parseInt(es3Result.shaderVersion) < 140 ? "140" : es3Result.shaderVersion;
         }
 
+        String spirvShaderStage = (shaderType == ES2ToES3Converter.ShaderType.VERTEX_SHADER ? "vert" : "frag");
+
+        // Identical shaders are compiled once and the result shared between builds and projects
+        FileCache cache = project != null ? project.getFileCache("shader", "shader-cache-size", 64) : null;
+        String cacheKey = null;
+        if (cache != null) {
+            String settings = String.format("version=%d:glslc=%s:spirv-cross=%s:std=%s%s:stage=%s", SHADER_CACHE_VERSION,
+                    getToolDigest("glslc"), getToolDigest("spirv-cross"), es3Result.shaderVersion, es3Result.shaderProfile, spirvShaderStage);
+            cacheKey = FileCache.key(es3Result.output.getBytes(StandardCharsets.UTF_8), settings);
+            byte[] cached = cache.get(cacheKey);
+            if (cached != null) {
+                try {
+                    ArrayList<String> shaderIssues = new ArrayList<String>();
+                    ShaderDesc.Shader.Builder builder = readCacheEntry(cached, shaderIssues);
+                    printShaderIssues(shaderIssues, resource, resourceOutput);
+                    return builder;
+                } catch (IOException e) {
+                    // Compile the shader again if the entry can't be read
+                }
+            }
+        }
+
         // compile GLSL (ES3 or Desktop 140) to SPIR-V
         File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
         file_in_glsl.deleteOnExit();
@@ -218,8 +254,6 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
         File file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
         file_out_spv.deleteOnExit();
 
-        String spirvShaderStage = (shaderType == ES2ToES3Converter.ShaderType.VERTEX_SHADER ? "vert" : "frag");
-
         Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
                 "-w",
                 "-fauto-bind-uniforms",
@@ -229,6 +263,7 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
                 "-o", file_out_spv.getAbsolutePath(),
                 file_in_glsl.getAbsolutePath()
                 );
+        file_in_glsl.delete();
 
         String result_string = getResultString(result);
         if (soft_fail && result_string != null) {
@@ -256,8 +291,83 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
         }
 
         String result_json                = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
-        SPIRVReflector reflector          = new SPIRVReflector(result_json);
+        byte[] spv_data                   = FileUtils.readFileToByteArray(file_out_spv);
+        file_out_refl.delete();
+        file_out_spv.delete();
+
         ArrayList<String> shaderIssues    = new ArrayList<String>();
+        ShaderDesc.Shader.Builder builder = createSPIRVShader(shaderType, spv_data, new SPIRVReflector(result_json), shaderIssues);
+        if (cache != null) {
+            try {
+                cache.put(cacheKey, writeCacheEntry(builder, shaderIssues));
+            } catch (IOException e) {
+                // The cache is only an optimization, the shader is compiled again next time
+            }
+        }
+        printShaderIssues(shaderIssues, resource, resourceOutput);
+        return builder;
+    }
+
+    // Get a digest of a tool executable, part of the cache key to not reuse results of other tool versions
+    private static String getToolDigest(String name) throws IOException {
+        String exe = Bob.getExe(Platform.getHostPlatform(), name);
+        String digest = toolDigests.get(exe);
+        if (digest == null) {
+            digest = new String(Hex.encodeHex(ResourceUtil.calculateSha1(new File(exe))));
+            toolDigests.put(exe, digest);
+        }
+        return digest;
+    }
+
+    // A cache entry holds the SPIR-V shader with its resource bindings, or the issues found in the shader
+    private static byte[] writeCacheEntry(ShaderDesc.Shader.Builder builder, List<String> shaderIssues) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        if (builder != null) {
+            os.writeByte(CACHE_ENTRY_SHADER);
+            // Built from a copy since a builder can only be built once
+            builder.clone().build().writeTo(os);
+        } else {
+            os.writeByte(CACHE_ENTRY_ISSUES);
+            os.writeInt(shaderIssues.size());
+            for (String issue : shaderIssues) {
+                os.writeUTF(issue);
+            }
+        }
+        os.close();
+        return bos.toByteArray();
+    }
+
+    private static ShaderDesc.Shader.Builder readCacheEntry(byte[] entry, List<String> shaderIssues) throws IOException {
+        DataInputStream is = new DataInputStream(new ByteArrayInputStream(entry));
+        if (is.readByte() == CACHE_ENTRY_SHADER) {
+            return ShaderDesc.Shader.newBuilder().mergeFrom(is);
+        }
+        int count = is.readInt();
+        for (int i = 0; i < count; ++i) {
+            shaderIssues.add(is.readUTF());
+        }
+        return null;
+    }
+
+    static private void printShaderIssues(List<String> shaderIssues, IResource resource, String resourceOutput) {
+        // This is a soft-fail mechanism just to notify that the shaders won't work in runtime.
+        // At some point we should probably throw a compilation error here so that the build fails.
+        if (shaderIssues.size() > 0) {
+            String resourcePath = resourceOutput;
+
+            if (resource != null)
+                resourcePath = resource.getPath();
+
+            System.err.println("\nWarning! Found " + shaderIssues.size() + " issues when compiling '" + resourcePath + "' to SPIR-V:");
+            for (String issueStr : shaderIssues) {
+                System.err.println("  " + issueStr);
+            }
+        }
+    }
+
+    // Create a SPIR-V shader from the reflection data, or add the issues found to shaderIssues and return null
+    private static ShaderDesc.Shader.Builder createSPIRVShader(ES2ToES3Converter.ShaderType shaderType, byte[] spv_data, SPIRVReflector reflector, List<String> shaderIssues) {
         ShaderDesc.Shader.Builder builder = ShaderDesc.Shader.newBuilder();
 
         // Put all shader resources on a separate list that will be sorted by binding number later
@@ -364,19 +474,7 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
             }
         }
 
-        // This is a soft-fail mechanism just to notify that the shaders won't work in runtime.
-        // At some point we should probably throw a compilation error here so that the build fails.
         if (shaderIssues.size() > 0) {
-            String resourcePath = resourceOutput;
-
-            if (resource != null)
-                resourcePath = resource.getPath();
-
-            System.err.println("\nWarning! Found " + shaderIssues.size() + " issues when compiling '" + resourcePath + "' to SPIR-V:");
-            for (String issueStr : shaderIssues) {
-                System.err.println("  " + issueStr);
-            }
-
             return null;
         }
 
@@ -412,7 +510,6 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
         }
 
         builder.setLanguage(ShaderDesc.Language.LANGUAGE_SPIRV);
-        byte[] spv_data = FileUtils.readFileToByteArray(file_out_spv);
         builder.setSource(ByteString.copyFrom(spv_data));
 
         return builder;
@@ -27,7 +27,7 @@ import com.dynamo.bob.CompileExceptionError;
 public class ShaderUtil {
 
     public static class SPIRVReflector {
-        private static JsonNode root;
+        private JsonNode root;
 
         public SPIRVReflector(String json) throws IOException
         {
@@ -47,7 +47,7 @@ public class ShaderUtil {
             public ArrayList<Resource> uniforms;
         }
 
-        public static ArrayList<UniformBlock> getUniformBlocks()
+        public ArrayList<UniformBlock> getUniformBlocks()
         {
             ArrayList<UniformBlock> uniformBlocks = new ArrayList<UniformBlock>();
 
@@ -90,7 +90,7 @@ public class ShaderUtil {
             return uniformBlocks;
         }
 
-        public static ArrayList<Resource> getTextures() {
+        public ArrayList<Resource> getTextures() {
             ArrayList<Resource> textures = new ArrayList<Resource>();
 
             JsonNode texturesNode = root.get("textures");
@@ -112,7 +112,7 @@ public class ShaderUtil {
             return textures;
         }
 
-        public static ArrayList<Resource> getInputs() {
+        public ArrayList<Resource> getInputs() {
             ArrayList<Resource> inputs = new ArrayList<Resource>();
 
             JsonNode inputsNode = root.get("inputs");
@@ -407,9 +407,11 @@ public class SpineSceneBuilder extends Builder<Void> {
             int maxBoneCount = skeletonBuilder.getBonesCount();
             out = new ByteArrayOutputStream(64 * 1024);
             skeletonBuilder.setLocalBoneScaling(scene.localBoneScaling);
-            skeletonBuilder.build().writeTo(out);
+            Skeleton skeleton = skeletonBuilder.build();
+            skeleton.writeTo(out);
             out.close();
             task.output(1).setContent(out.toByteArray());
+            task.setReferences(task.output(1), ProtoUtil.getResourceReferences(skeleton));
 
             // MeshSet
             MeshSet.Builder meshSetBuilder = MeshSet.newBuilder();
@@ -418,9 +420,11 @@ public class SpineSceneBuilder extends Builder<Void> {
             skinsToDDF(scene.skins, meshSetBuilder);
             meshSetBuilder.setSlotCount(scene.getSlotCount());
             out = new ByteArrayOutputStream(64 * 1024);
-            meshSetBuilder.build().writeTo(out);
+            MeshSet meshSet = meshSetBuilder.build();
+            meshSet.writeTo(out);
             out.close();
             task.output(2).setContent(out.toByteArray());
+            task.setReferences(task.output(2), ProtoUtil.getResourceReferences(meshSet));
 
             // AnimationSet
             AnimationSet.Builder animSetBuilder = AnimationSet.newBuilder();
@@ -428,9 +432,11 @@ public class SpineSceneBuilder extends Builder<Void> {
                 animationToDDF(scene, entry.getKey(), entry.getValue(), animSetBuilder, builder.getSampleRate());
             }
             out = new ByteArrayOutputStream(64 * 1024);
-            animSetBuilder.build().writeTo(out);
+            AnimationSet animSet = animSetBuilder.build();
+            animSet.writeTo(out);
             out.close();
             task.output(3).setContent(out.toByteArray());
+            task.setReferences(task.output(3), ProtoUtil.getResourceReferences(animSet));
 
         } catch (LoadException e) {
             throw new CompileExceptionError(task.input(1), -1, e.getMessage());
@@ -448,5 +454,6 @@ public class SpineSceneBuilder extends Builder<Void> {
         msg.writeTo(out);
         out.close();
         task.output(0).setContent(out.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(msg));
     }
 }
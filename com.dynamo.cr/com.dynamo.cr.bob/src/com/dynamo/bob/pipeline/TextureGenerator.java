@@ -15,20 +15,44 @@ package com.dynamo.bob.pipeline;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.EnumSet;
 
 import javax.imageio.ImageIO;
 
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
 import com.dynamo.bob.TexcLibrary;
 import com.dynamo.bob.TexcLibrary.ColorSpace;
 import com.dynamo.bob.TexcLibrary.DitherType;
@@ -36,6 +60,9 @@ import com.dynamo.bob.TexcLibrary.PixelFormat;
 import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.fs.ResourceUtil;
+import com.dynamo.bob.util.DirectBufferPool;
+import com.dynamo.bob.util.FileCache;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
@@ -44,11 +71,27 @@ import com.dynamo.graphics.proto.Graphics.TextureFormatAlternative;
 import com.dynamo.graphics.proto.Graphics.TextureImage.Type;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.sun.jna.Pointer;
 
+import org.apache.commons.codec.binary.Hex;
+
 
 public class TextureGenerator {
 
+    // Version of the generated images stored in the texture cache, increase when the output changes
+    private static final int TEXTURE_CACHE_VERSION = 1;
+
+    // Buffers for the pixels passed to and read back from texc, reused between textures
+    private static final DirectBufferPool bufferPool = new DirectBufferPool(256 * 1024 * 1024);
+
+    // Native memory, in KB, that texc textures being generated at the same time may use.
+    // Shared by all threads since textures are also generated by several build tasks at once.
+    private static final int MEMORY_BUDGET_KB = (int) Math.max(256 * 1024, Math.min(Runtime.getRuntime().maxMemory() / 2048, 2 * 1024 * 1024));
+    private static final Semaphore memoryBudget = new Semaphore(MEMORY_BUDGET_KB, true);
+
+    private static volatile String texcDigest = null;
+
     private static HashMap<TextureFormatAlternative.CompressionLevel, Integer> compressionLevelLUT = new HashMap<TextureFormatAlternative.CompressionLevel, Integer>();
     static {
         compressionLevelLUT.put(TextureFormatAlternative.CompressionLevel.FAST, CompressionLevel.CL_FAST);
@@ -150,33 +193,94 @@ public class TextureGenerator {
         return targetFormat;
     }
 
-    private static TextureImage.Image generateFromColorAndFormat(BufferedImage image, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
-
+    /**
+     * Write the pixels of an image as 8 bit RGBA to a buffer. The pixels are read
+     * directly from the backing array of TYPE_4BYTE_ABGR and TYPE_INT_ARGB images.
+     * @param image image to read pixels from
+     * @param buffer buffer to write to, with room for width * height * 4 bytes from position 0
+     */
+    static void writePixels(BufferedImage image, ByteBuffer buffer) {
         int width = image.getWidth();
         int height = image.getHeight();
-        int componentCount = colorModel.getNumComponents();
-        Integer pixelFormat = PixelFormat.R8G8B8A8;
-        int texcCompressionLevel;
-        int texcCompressionType;
-
-        int dataSize = width * height * 4;
-        ByteBuffer buffer = ByteBuffer.allocateDirect(dataSize);
-
-        // On Linux we run out of memory while trying to load a 4K texture.
-        // We split the pixel read out into blocks with 512 scan lines per block.
-        for (int y = 0; y < height; y+=512) {
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+        IntBuffer dst = buffer.duplicate().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+
+        if (image.getType() == BufferedImage.TYPE_4BYTE_ABGR && sampleModel instanceof PixelInterleavedSampleModel
+                && dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1) {
+            PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) sampleModel;
+            int[] bandOffsets = sm.getBandOffsets();
+            if (sm.getPixelStride() == 4 && Arrays.equals(bandOffsets, new int[] {3, 2, 1, 0})) {
+                byte[] data = ((DataBufferByte) dataBuffer).getData();
+                for (int y = 0; y < height; ++y) {
+                    // The offset is of the first band, R, at the last byte of the pixel
+                    int offset = dataBuffer.getOffset() + sm.getOffset(-tx, y - ty) - bandOffsets[0];
+                    // The A, B, G, R bytes read as a little-endian int are R, G, B, A when written as big-endian
+                    IntBuffer row = ByteBuffer.wrap(data, offset, width * 4).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                    dst.put(row);
+                }
+                return;
+            }
+        }
 
-            int count = Math.min(height - y, 512);
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && sampleModel instanceof SinglePixelPackedSampleModel
+                && dataBuffer instanceof DataBufferInt && dataBuffer.getNumBanks() == 1) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) sampleModel;
+            int[] data = ((DataBufferInt) dataBuffer).getData();
+            for (int y = 0; y < height; ++y) {
+                int offset = dataBuffer.getOffset() + sm.getOffset(-tx, y - ty);
+                for (int x = 0; x < width; ++x) {
+                    // ARGB to RGBA
+                    dst.put(Integer.rotateLeft(data[offset + x], 8));
+                }
+            }
+            return;
+        }
 
-            int[] rasterData = new int[count*width*4];
-            image.getRaster().getPixels(0, y, width, count, rasterData);
-            for (int i = 0; i < rasterData.length; ++i) {
-                buffer.put((byte) (rasterData[i] & 0xff));
+        // Other layouts are read through the raster in blocks of scan lines to limit the memory used
+        ByteBuffer out = buffer.duplicate();
+        int blockHeight = Math.max(1, Math.min(height, 512));
+        int[] rasterData = new int[blockHeight * width * 4];
+        for (int y = 0; y < height; y += blockHeight) {
+            int count = Math.min(height - y, blockHeight);
+            raster.getPixels(0, y, width, count, rasterData);
+            for (int i = 0; i < count * width * 4; ++i) {
+                out.put((byte) (rasterData[i] & 0xff));
             }
         }
+    }
+
+    /**
+     * Estimate the native memory, in KB, used by texc while generating an image.
+     * The source pixels, the resized image with mip-maps and the transcoded data are held at the same time.
+     */
+    private static int estimateMemoryKB(int width, int height, boolean generateMipMaps, int maxTextureSize) {
+        long size = Math.max(TextureUtil.closestPOT(width), TextureUtil.closestPOT(height));
+        if (maxTextureSize > 0) {
+            size = Math.min(size, maxTextureSize);
+        }
+        // Square since PVR textures are resized to be square
+        long resized = size * size * 4;
+        if (generateMipMaps) {
+            resized = resized * 4 / 3;
+        }
+        long total = (long) width * height * 4 + resized * 3;
+        return (int) Math.min(MEMORY_BUDGET_KB, Math.max(1, total / 1024));
+    }
 
-        buffer.flip();
-        Pointer texture = TexcLibrary.TEXC_Create(width, height, PixelFormat.R8G8B8A8, ColorSpace.SRGB, buffer);
+    // pixels holds the RGBA pixels of the image, see writePixels(). It is only read and can be shared between threads.
+    private static TextureImage.Image generateFromColorAndFormat(ByteBuffer pixels, int width, int height, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+
+        Integer pixelFormat = PixelFormat.R8G8B8A8;
+        int texcCompressionLevel;
+        int texcCompressionType;
+        int dataSize;
+
+        // The pixels are copied by texc
+        Pointer texture = TexcLibrary.TEXC_Create(width, height, PixelFormat.R8G8B8A8, ColorSpace.SRGB, pixels.duplicate());
 
         // convert from protobuf specified compressionlevel to texc int
         texcCompressionLevel = compressionLevelLUT.get(compressionLevel);
@@ -205,8 +309,9 @@ public class TextureGenerator {
 
         try {
 
-            int newWidth  = image.getWidth();
-            int newHeight = image.getHeight();
+            ByteString data;
+            int newWidth  = width;
+            int newHeight = height;
 
             newWidth = TextureUtil.closestPOT(newWidth);
             newHeight = TextureUtil.closestPOT(newHeight);
@@ -266,9 +371,14 @@ public class TextureGenerator {
             }
 
             int bufferSize = TexcLibrary.TEXC_GetTotalDataSize(texture);
-            buffer = ByteBuffer.allocateDirect(bufferSize);
-            dataSize = TexcLibrary.TEXC_GetData(texture, buffer, bufferSize);
-            buffer.limit(dataSize);
+            ByteBuffer buffer = bufferPool.acquire(bufferSize);
+            try {
+                dataSize = TexcLibrary.TEXC_GetData(texture, buffer, bufferSize);
+                buffer.limit(dataSize);
+                data = ByteString.copyFrom(buffer);
+            } finally {
+                bufferPool.release(buffer);
+            }
 
             TextureImage.Image.Builder raw = TextureImage.Image.newBuilder().setWidth(newWidth).setHeight(newHeight)
                     .setOriginalWidth(width).setOriginalHeight(height).setFormat(textureFormat);
@@ -297,7 +407,7 @@ public class TextureGenerator {
                     break;
             }
 
-            raw.setData(ByteString.copyFrom(buffer));
+            raw.setData(data);
             raw.setFormat(textureFormat);
             raw.setCompressionType(compressionType);
             raw.setCompressionFlags(TexcLibrary.TEXC_GetCompressionFlags(texture));
@@ -310,6 +420,190 @@ public class TextureGenerator {
 
     }
 
+    // Get a digest of the texc libraries, part of the cache key to not reuse textures generated by other versions
+    private static String getTexcDigest() throws IOException {
+        String digest = texcDigest;
+        if (digest == null) {
+            Platform platform = Platform.getJavaPlatform();
+            byte[] texc = ResourceUtil.calculateSha1(new File(Bob.getLib(platform, "texc_shared")));
+            byte[] pvrtc = ResourceUtil.calculateSha1(new File(Bob.getLib(platform, "PVRTexLib")));
+            digest = new String(Hex.encodeHex(texc)) + new String(Hex.encodeHex(pvrtc));
+            texcDigest = digest;
+        }
+        return digest;
+    }
+
+    /**
+     * Calculate a digest of the RGBA pixels of an image, as passed to texc.
+     */
+    private static byte[] pixelDigest(ByteBuffer pixels, int width, int height) {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        sha1.update(ByteBuffer.allocate(8).putInt(width).putInt(height).array());
+        sha1.update(pixels.duplicate());
+        return sha1.digest();
+    }
+
+    /**
+     * Settings of an image generated from a format alternative. Alternatives with the
+     * same settings generate identical images, the image is generated once and shared.
+     */
+    private static class Alternative implements Callable<TextureImage.Image> {
+        final TextureFormat textureFormat;
+        final TextureFormatAlternative.CompressionLevel compressionLevel;
+        final TextureImage.CompressionType compressionType;
+        final boolean generateMipMaps;
+        final int maxTextureSize;
+        final boolean compress;
+        final boolean premulAlpha;
+        final EnumSet<FlipAxis> flipAxis;
+
+        ByteBuffer pixels;
+        int width;
+        int height;
+        FileCache cache;
+        byte[] pixelDigest;
+
+        Alternative(TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) {
+            this.textureFormat = textureFormat;
+            this.compressionLevel = compressionLevel;
+            this.compressionType = compressionType;
+            this.generateMipMaps = generateMipMaps;
+            this.maxTextureSize = maxTextureSize;
+            this.compress = compress;
+            this.premulAlpha = premulAlpha;
+            this.flipAxis = flipAxis;
+        }
+
+        String getSettings() {
+            return String.format("version=%d:format=%s:level=%s:type=%s:mipmaps=%b:max=%d:compress=%b:premul=%b:flip=%s",
+                    TEXTURE_CACHE_VERSION, textureFormat, compressionLevel, compressionType, generateMipMaps, maxTextureSize, compress, premulAlpha, flipAxis);
+        }
+
+        TextureImage.Image generate() throws TextureGeneratorException, IOException {
+            int memoryKB = estimateMemoryKB(width, height, generateMipMaps, maxTextureSize);
+            try {
+                memoryBudget.acquire(memoryKB);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            try {
+                return generateFromColorAndFormat(pixels, width, height, textureFormat, compressionLevel, compressionType, generateMipMaps, maxTextureSize, compress, premulAlpha, flipAxis);
+            } finally {
+                memoryBudget.release(memoryKB);
+            }
+        }
+
+        @Override
+        public TextureImage.Image call() throws TextureGeneratorException, IOException {
+            if (cache == null) {
+                return generate();
+            }
+            String key = FileCache.key(pixelDigest, String.format("%s:texc=%s", getSettings(), getTexcDigest()));
+            byte[] cached = cache.get(key);
+            if (cached != null) {
+                try {
+                    return TextureImage.Image.parseFrom(cached);
+                } catch (InvalidProtocolBufferException e) {
+                    // Generate the texture again if the entry can't be read
+                }
+            }
+            TextureImage.Image raw = generate();
+            try {
+                cache.put(key, raw.toByteArray());
+            } catch (IOException e) {
+                // The cache is only an optimization, the texture is generated again next time
+            }
+            return raw;
+        }
+    }
+
+    /**
+     * Generate the images of the alternatives, in order. The RGBA pixels of the image are
+     * written once and shared by all alternatives. Alternatives with the same settings are
+     * generated once and the others are generated concurrently on the executor, if not null.
+     * The number of images generated at the same time is also limited by the native memory they
+     * are estimated to use.
+     */
+    private static List<TextureImage.Image> generateAlternatives(BufferedImage image, List<Alternative> alternatives, FileCache cache, ExecutorService executor) throws TextureGeneratorException, IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Map<String, Alternative> unique = new LinkedHashMap<String, Alternative>();
+        for (Alternative alternative : alternatives) {
+            if (!unique.containsKey(alternative.getSettings())) {
+                unique.put(alternative.getSettings(), alternative);
+            }
+        }
+
+        ByteBuffer pixels = bufferPool.acquire(width * height * 4);
+        List<Future<TextureImage.Image>> futures = new ArrayList<Future<TextureImage.Image>>();
+        try {
+            writePixels(image, pixels);
+            byte[] pixelDigest = cache != null ? pixelDigest(pixels, width, height) : null;
+            for (Alternative alternative : unique.values()) {
+                alternative.pixels = pixels;
+                alternative.width = width;
+                alternative.height = height;
+                alternative.cache = cache;
+                alternative.pixelDigest = pixelDigest;
+            }
+
+            Map<String, TextureImage.Image> images = new HashMap<String, TextureImage.Image>();
+            if (executor != null && unique.size() > 1) {
+                for (Alternative alternative : unique.values()) {
+                    futures.add(executor.submit(alternative));
+                }
+                int i = 0;
+                for (String settings : unique.keySet()) {
+                    images.put(settings, futures.get(i++).get());
+                }
+            } else {
+                for (Map.Entry<String, Alternative> entry : unique.entrySet()) {
+                    images.put(entry.getKey(), entry.getValue().call());
+                }
+            }
+
+            List<TextureImage.Image> result = new ArrayList<TextureImage.Image>(alternatives.size());
+            for (Alternative alternative : alternatives) {
+                result.add(images.get(alternative.getSettings()));
+            }
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TextureGeneratorException) {
+                throw (TextureGeneratorException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            boolean running = false;
+            for (Future<TextureImage.Image> future : futures) {
+                if (!future.isDone()) {
+                    future.cancel(false);
+                    running = true;
+                }
+            }
+            // The pixels might still be read by an alternative that was running when a
+            // generation failed, the buffer is then left to the garbage collector
+            if (!running) {
+                bufferPool.release(pixels);
+            }
+        }
+    }
+
     // For convenience, some methods without the flipAxis and/or compress argument.
     // It will always try to flip on Y axis since this is the byte order that OpenGL expects for regular/most textures,
     // for those methods without this argument.
@@ -334,22 +628,46 @@ public class TextureGenerator {
         return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
     }
 
+    public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, FileCache cache, ExecutorService executor) throws TextureGeneratorException, IOException {
+        BufferedImage origImage = ImageIO.read(inputStream);
+        inputStream.close();
+        if (origImage == null) {
+            throw new TextureGeneratorException("Unknown texture format.");
+        }
+        return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), cache, executor);
+    }
+
     public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        return generate(inputStream, texProfile, compress, flipAxis, null, null);
+    }
+
+    public static TextureImage generate(InputStream inputStream, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, FileCache cache, ExecutorService executor) throws TextureGeneratorException, IOException {
         BufferedImage origImage = ImageIO.read(inputStream);
         inputStream.close();
-        return generate(origImage, texProfile, compress, flipAxis);
+        return generate(origImage, texProfile, compress, flipAxis, cache, executor);
     }
 
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress) throws TextureGeneratorException, IOException {
         return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
     }
 
-    // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, FileCache cache, ExecutorService executor) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), cache, executor);
+    }
+
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, flipAxis, null, null);
+    }
+
+    // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
+    // Generated images are stored in the cache, if not null, keyed on the pixels and the settings used to generate them.
+    // The alternatives are generated in parallel on the executor, if not null, the result is identical regardless of thread count.
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, FileCache cache, ExecutorService executor) throws TextureGeneratorException, IOException {
         // Convert image into readable format
         // Always convert to ABGR since the texc lib demands that for resizing etc
+        // ARGB images are converted while the pixels are passed to texc, see writePixels()
         BufferedImage image;
-        if (origImage.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
+        if (origImage.getType() != BufferedImage.TYPE_4BYTE_ABGR && origImage.getType() != BufferedImage.TYPE_INT_ARGB) {
             image = convertImage(origImage, BufferedImage.TYPE_4BYTE_ABGR);
         } else {
             image = origImage;
@@ -363,6 +681,7 @@ public class TextureGenerator {
         if (texProfile != null) {
 
             // Generate an image for each format specified in the profile
+            List<Alternative> alternatives = new ArrayList<Alternative>();
             for (PlatformProfile platformProfile : texProfile.getPlatformsList()) {
                 for (int i = 0; i < platformProfile.getFormatsList().size(); ++i) {
                     TextureImage.CompressionType compressionType = platformProfile.getFormats(i).getCompressionType();
@@ -374,15 +693,12 @@ public class TextureGenerator {
                     // image has 3 channels, even if the texture profile specified a format with 4 channels.
                     textureFormat = pickOptimalFormat(componentCount, textureFormat);
 
-                    try {
-                        TextureImage.Image raw = generateFromColorAndFormat(image, colorModel, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
-                        textureBuilder.addAlternatives(raw);
-                    } catch (TextureGeneratorException e) {
-                        throw e;
-                    }
-
+                    alternatives.add(new Alternative(textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis));
                 }
             }
+            if (!alternatives.isEmpty()) {
+                textureBuilder.addAllAlternatives(generateAlternatives(image, alternatives, cache, executor));
+            }
 
             textureBuilder.setCount(1);
             if (textureBuilder.getAlternativesCount() == 0) {
@@ -395,8 +711,8 @@ public class TextureGenerator {
 
             // Guess texture format based on number color components of input image
             TextureFormat textureFormat = pickOptimalFormat(componentCount, TextureFormat.TEXTURE_FORMAT_RGBA);
-            TextureImage.Image raw = generateFromColorAndFormat(image, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
-            textureBuilder.addAlternatives(raw);
+            Alternative alternative = new Alternative(textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
+            textureBuilder.addAllAlternatives(generateAlternatives(image, Arrays.asList(alternative), cache, null));
             textureBuilder.setCount(1);
 
         }
@@ -18,8 +18,6 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
-import javax.imageio.ImageIO;
-
 import org.apache.commons.io.FilenameUtils;
 
 import com.dynamo.bob.Builder;
@@ -31,6 +29,8 @@ import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.tile.TileSetGenerator;
+import com.dynamo.bob.util.FileCache;
+import com.dynamo.bob.util.ImageCache;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
@@ -103,9 +103,10 @@ public class TileSetBuilder extends Builder<Void>  {
         IResource imageRes = this.project.getResource(imgPath);
         IResource collisionRes = this.project.getResource(collisionPath);
 
+        ImageCache imageCache = this.project.getImageCache();
         BufferedImage image = null;
         if (imageRes.exists()) {
-            image = ImageIO.read(new ByteArrayInputStream(imageRes.getContent()));
+            image = AtlasUtil.readImage(imageRes, imageCache);
         }
         if (image != null && (image.getWidth() < tileSet.getTileWidth() || image.getHeight() < tileSet.getTileHeight())) {
             throw new CompileExceptionError(task.input(0), -1, String.format(
@@ -115,7 +116,7 @@ public class TileSetBuilder extends Builder<Void>  {
 
         BufferedImage collisionImage = null;
         if (collisionRes.exists()) {
-            BufferedImage origImage = ImageIO.read(new ByteArrayInputStream(collisionRes.getContent()));
+            BufferedImage origImage = AtlasUtil.readImage(collisionRes, imageCache);
             collisionImage = new BufferedImage(origImage.getWidth(), origImage.getHeight(),
                     BufferedImage.TYPE_4BYTE_ABGR);
             Graphics2D g2d = collisionImage.createGraphics();
@@ -142,7 +143,8 @@ public class TileSetBuilder extends Builder<Void>  {
         TextureImage texture;
         try {
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(result.image, texProfile, compress);
+            FileCache cache = project.getFileCache("texture", "texture-cache-size", 512);
+            texture = TextureGenerator.generate(result.image, texProfile, compress, cache, project.getExecutor());
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
@@ -158,6 +160,7 @@ public class TileSetBuilder extends Builder<Void>  {
         }
 
         task.output(0).setContent(textureSet.toByteArray());
+        task.setReferences(task.output(0), ProtoUtil.getResourceReferences(textureSet));
         task.output(1).setContent(texture.toByteArray());
     }
 }
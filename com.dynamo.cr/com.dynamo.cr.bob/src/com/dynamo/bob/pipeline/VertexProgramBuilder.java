@@ -38,6 +38,7 @@ public class VertexProgramBuilder extends ShaderProgramBuilder {
 
             ShaderDesc shaderDesc = compile(is, SHADER_TYPE, in, task.getOutputs().get(0).getPath(), project.getPlatformStrings()[0], isDebug, soft_fail);
             task.output(0).setContent(shaderDesc.toByteArray());
+            task.setReferences(task.output(0), ProtoUtil.getResourceReferences(shaderDesc));
         }
     }
 
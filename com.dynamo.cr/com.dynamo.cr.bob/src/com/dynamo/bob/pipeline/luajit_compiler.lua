@@ -0,0 +1,46 @@
+-- Copyright 2020 The Defold Foundation
+-- Licensed under the Defold License version 1.0 (the "License"); you may not use
+-- this file except in compliance with the License.
+-- 
+-- You may obtain a copy of the License, together with FAQs at
+-- https://www.defold.com/license
+-- 
+-- Unless required by applicable law or agreed to in writing, software distributed
+-- under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+-- CONDITIONS OF ANY KIND, either express or implied. See the License for the
+-- specific language governing permissions and limitations under the License.
+
+-- Compiles Lua chunks to bytecode, one request per line on stdin, see LuaJITCompiler.java
+--
+-- Request:  <chunk name> <source>
+-- Response: ok <bytecode> or error <message>
+--
+-- All fields are hex encoded since stdin and stdout are opened in text mode on Windows.
+-- The bytecode is the same as written by "luajit -bgf <chunk name> <input> <output>.raw"
+-- and the error message the same as printed by it.
+
+local function decode(s)
+    return (s:gsub("%x%x", function(h) return string.char(tonumber(h, 16)) end))
+end
+
+local function encode(s)
+    return (s:gsub(".", function(c) return string.format("%02x", string.byte(c)) end))
+end
+
+io.stdout:setvbuf("full")
+
+for line in io.lines() do
+    local name, source = line:match("^(%x*) (%x*)$")
+    if not name then
+        io.stdout:write("error ", encode("luajit: invalid request"), "\n")
+        io.stdout:flush()
+        break
+    end
+    local f, err = loadstring(decode(source), decode(name))
+    if f then
+        io.stdout:write("ok ", encode(string.dump(f, false)), "\n")
+    else
+        io.stdout:write("error ", encode("luajit: " .. err), "\n")
+    end
+    io.stdout:flush()
+end
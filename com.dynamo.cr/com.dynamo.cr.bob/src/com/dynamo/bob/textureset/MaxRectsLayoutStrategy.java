@@ -13,7 +13,17 @@
 package com.dynamo.bob.textureset;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
@@ -38,13 +48,23 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
     }
 
     private Settings settings;
-    private MaxRects maxRects = new MaxRects();
     private FreeRectChoiceHeuristic[] methods = FreeRectChoiceHeuristic.values();
+    private ExecutorService executor = null;
 
     public MaxRectsLayoutStrategy(Settings settings) {
         this.settings = settings;
     }
 
+    /**
+     * Set the executor used to search for the page size. The heuristics
+     * are run concurrently and the results are compared in a fixed order, so the
+     * layout is identical regardless of thread count.
+     * @param executor executor, not shut down by the strategy, or null to pack on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     @Override
     public List<Layout> createLayout(List<Rect> srcRects) {
         ArrayList<RectNode> srcNodes = new ArrayList<RectNode>(srcRects.size());
@@ -108,83 +128,212 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         minWidth = Math.max(minWidth, settings.minPageWidth);
         minHeight = Math.max(minHeight, settings.minPageHeight);
 
+        // Speculatively pack the sizes the search tries next when there are threads to spare
+        boolean speculate = executor instanceof ForkJoinPool && ((ForkJoinPool) executor).getParallelism() > methods.length;
+        Packer packer = new Packer(inputRects, executor, speculate);
+
         // Find the minimal page size that fits all rects.
         Page bestResult = null;
-        if (settings.square) {
-            int minSize = Math.max(minWidth, minHeight);
-            int maxSize = Math.min(settings.maxPageWidth, settings.maxPageHeight);
-            BinarySearch sizeSearch = new BinarySearch(minSize, maxSize);
-            int size = sizeSearch.reset();
-            while (size != -1) {
-                Page result = packAtSize(true, size, size, inputRects);
-                bestResult = getBest(bestResult, result);
-                size = sizeSearch.next(result == null);
+        try {
+            if (settings.square) {
+                int minSize = Math.max(minWidth, minHeight);
+                int maxSize = Math.min(settings.maxPageWidth, settings.maxPageHeight);
+                BinarySearch sizeSearch = new BinarySearch(minSize, maxSize);
+                int size = sizeSearch.reset();
+                while (size != -1) {
+                    packer.prefetch(sizeSearch.peek(true), sizeSearch.peek(true));
+                    packer.prefetch(sizeSearch.peek(false), sizeSearch.peek(false));
+                    Page result = packer.packAtSize(true, size, size);
+                    bestResult = getBest(bestResult, result);
+                    size = sizeSearch.next(result == null);
+                    packer.retain(size, size);
+                }
+
+                // Rects don't fit on one page. Fill a whole page and return.
+                if (bestResult == null) {
+                    bestResult = packer.packAtSize(false, maxSize, maxSize);
+                }
+
+                 bestResult.width = Math.max(bestResult.width, bestResult.height);
+                 bestResult.height = Math.max(bestResult.width, bestResult.height);
+            } else {
+                BinarySearch widthSearch = new BinarySearch(minWidth, settings.maxPageWidth);
+                BinarySearch heightSearch = new BinarySearch(minHeight, settings.maxPageHeight);
+                int width = widthSearch.reset();
+                int height = heightSearch.reset();
+                while (true) {
+                    Page bestWidthResult = null;
+                    while (width != -1) {
+                        packer.prefetch(widthSearch.peek(true), height);
+                        packer.prefetch(widthSearch.peek(false), height);
+                        Page result = packer.packAtSize(true, width, height);
+                        bestWidthResult = getBest(bestWidthResult, result);
+                        width = widthSearch.next(result == null);
+                        packer.retain(width, height);
+                    }
+                    bestResult = getBest(bestResult, bestWidthResult);
+                    height = heightSearch.next(bestWidthResult == null);
+                    if (height == -1) {
+                        break;
+                    }
+                    width = widthSearch.reset();
+                }
+                // Rects don't fit on one page. Fill a whole page and return.
+                if (bestResult == null) {
+                    bestResult = packer.packAtSize(false, settings.maxPageWidth, settings.maxPageHeight);
+                }
             }
+        } finally {
+            packer.retain(-1, -1);
+        }
+        return bestResult;
+    }
 
-            // Rects don't fit on one page. Fill a whole page and return.
-            if (bestResult == null) {
-                bestResult = packAtSize(false, maxSize, maxSize, inputRects);
+    /**
+     * Packs the input rects at page sizes, with every heuristic. With an executor the
+     * heuristics run concurrently, and results are always compared in heuristic order
+     * so the best page is the same as when packing on a single thread.
+     */
+    private class Packer {
+        private final ArrayList<RectNode> inputRects;
+        private final ExecutorService executor;
+        private final boolean speculate;
+        // Packs in progress by size, see key()
+        private final Map<Long, Pack> packs = new HashMap<Long, Pack>();
+
+        Packer(ArrayList<RectNode> inputRects, ExecutorService executor, boolean speculate) {
+            this.inputRects = inputRects;
+            this.executor = executor;
+            this.speculate = executor != null && speculate;
+        }
+
+        private long key(boolean fully, int width, int height) {
+            return ((long) width << 32) | ((long) height << 1) | (fully ? 1 : 0);
+        }
+
+        private Pack submit(final boolean fully, final int width, final int height) {
+            long key = key(fully, width, height);
+            Pack pack = packs.get(key);
+            if (pack == null) {
+                final Pack newPack = new Pack();
+                for (final FreeRectChoiceHeuristic method : methods) {
+                    newPack.futures.add(executor.submit(new Callable<Page>() {
+                        @Override
+                        public Page call() {
+                            return packWithMethod(fully, width, height, inputRects, method, newPack.cancelled);
+                        }
+                    }));
+                }
+                pack = newPack;
+                packs.put(key, pack);
             }
+            return pack;
+        }
 
-             bestResult.width = Math.max(bestResult.width, bestResult.height);
-             bestResult.height = Math.max(bestResult.width, bestResult.height);
-        } else {
-            BinarySearch widthSearch = new BinarySearch(minWidth, settings.maxPageWidth);
-            BinarySearch heightSearch = new BinarySearch(minHeight, settings.maxPageHeight);
-            int width = widthSearch.reset();
-            int height = heightSearch.reset();
-            while (true) {
-                Page bestWidthResult = null;
-                while (width != -1) {
-                    Page result = packAtSize(true, width, height, inputRects);
-                    bestWidthResult = getBest(bestWidthResult, result);
-                    width = widthSearch.next(result == null);
+        /**
+         * Start packing at a size that might be needed next.
+         */
+        void prefetch(int width, int height) {
+            if (speculate && width != -1 && height != -1) {
+                submit(true, width, height);
+            }
+        }
+
+        /**
+         * Cancel the packs in progress except for the given size.
+         */
+        void retain(int width, int height) {
+            Iterator<Map.Entry<Long, Pack>> iterator = packs.entrySet().iterator();
+            long key = key(true, width, height);
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Pack> entry = iterator.next();
+                if (entry.getKey() != key) {
+                    entry.getValue().cancel();
+                    iterator.remove();
                 }
-                bestResult = getBest(bestResult, bestWidthResult);
-                height = heightSearch.next(bestWidthResult == null);
-                if (height == -1) {
-                    break;
+            }
+        }
+
+        /** @param fully If true, the only results that pack all rects will be considered. If false, all results are considered, not all
+         *           rects may be packed.
+         **/
+        Page packAtSize(boolean fully, int width, int height) {
+            Page bestResult = null;
+            if (executor == null) {
+                for (int i = 0, n = methods.length; i < n; i++) {
+                    bestResult = getBest(bestResult, packWithMethod(fully, width, height, inputRects, methods[i], null));
                 }
-                width = widthSearch.reset();
+                return bestResult;
             }
-            // Rects don't fit on one page. Fill a whole page and return.
-            if (bestResult == null) {
-                bestResult = packAtSize(false, settings.maxPageWidth, settings.maxPageHeight, inputRects);
+            Pack pack = submit(fully, width, height);
+            packs.remove(key(fully, width, height));
+            for (Future<Page> future : pack.futures) {
+                bestResult = getBest(bestResult, getPage(future));
             }
+            return bestResult;
         }
-        return bestResult;
     }
 
-    /** @param fully If true, the only results that pack all rects will be considered. If false, all results are considered, not all
-     *           rects may be packed.
-     **/
-    private Page packAtSize(boolean fully, int width, int height, ArrayList<RectNode> inputRects) {
-        Page bestResult = null;
-        for (int i = 0, n = methods.length; i < n; i++) {
-            maxRects.init(width, height);
-            Page result;
-
-            ArrayList<RectNode> remaining = new ArrayList<RectNode>();
-            for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
-                RectNode rect = inputRects.get(ii);
-                if (maxRects.insert(rect, methods[i]) == null) {
-                    while (ii < nn) {
-                        remaining.add(inputRects.get(ii++));
-                    }
-                }
+    // The packs of every heuristic at one page size. The executor is shared with
+    // other work, so packs no longer needed are stopped through the cancelled flag.
+    private class Pack {
+        final List<Future<Page>> futures = new ArrayList<Future<Page>>(methods.length);
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        void cancel() {
+            cancelled.set(true);
+            for (Future<Page> future : futures) {
+                future.cancel(false);
             }
-            result = maxRects.getResult();
-            result.remainingRects = remaining;
+        }
+    }
 
-            if (fully && result.remainingRects.size() > 0) {
-                continue;
+    private static Page getPage(Future<Page> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            if (result.outputRects.size() == 0) {
-                continue;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Pack the rects in order with a single heuristic.
+     * @param cancelled stop packing once set, for packs that might not be needed, or null
+     * @return the page, or null if it has no rects or not all rects fit and fully is set
+     */
+    private Page packWithMethod(boolean fully, int width, int height, ArrayList<RectNode> inputRects, FreeRectChoiceHeuristic method, AtomicBoolean cancelled) {
+        MaxRects maxRects = new MaxRects();
+        maxRects.init(width, height);
+
+        ArrayList<RectNode> remaining = new ArrayList<RectNode>();
+        for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
+            if (cancelled != null && cancelled.get()) {
+                return null;
+            }
+            RectNode rect = inputRects.get(ii);
+            if (maxRects.insert(rect, method) == null) {
+                while (ii < nn) {
+                    remaining.add(inputRects.get(ii++));
+                }
             }
-            bestResult = getBest(bestResult, result);
         }
-        return bestResult;
+        Page result = maxRects.getResult();
+        result.remainingRects = remaining;
+
+        if (fully && result.remainingRects.size() > 0) {
+            return null;
+        }
+        if (result.outputRects.size() == 0) {
+            return null;
+        }
+        return result;
     }
 
     private Page getBest (Page result1, Page result2) {
@@ -226,6 +375,14 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             if (Math.abs(low - high) < 0) return -1;
             return 1 << current;
         }
+
+        /** Returns the value next() would return, without advancing the search. */
+        public int peek (boolean result) {
+            if (low >= high) return -1;
+            int l = result ? current + 1 : low;
+            int h = result ? high : current - 1;
+            return 1 << ((l + h) >>> 1);
+        }
     }
 
     static class RectNode {
@@ -276,16 +433,51 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         private int binWidth;
         private int binHeight;
         private final ArrayList<RectNode> usedRectangles = new ArrayList<RectNode>();
-        private final ArrayList<RectNode> freeRectangles = new ArrayList<RectNode>();
+        private int usedSurfaceArea;
+        // Rectangles are stored as x, y, width and height in flat arrays to keep the scans over
+        // them cheap. The order of the free rectangles is significant since the heuristics pick
+        // the first of equally scored positions.
+        private int[] used = new int[4 * 16];
+        private int usedCount;
+        private int[] free = new int[4 * 16];
+        private boolean[] freeRemoved = new boolean[16];
+        private int freeCount;
 
         public void init (int width, int height) {
             binWidth = width;
             binHeight = height;
 
             usedRectangles.clear();
-            freeRectangles.clear();
-            RectNode n = new RectNode(new Rect(null, 0, 0, 0, width, height));
-            freeRectangles.add(n);
+            usedSurfaceArea = 0;
+            usedCount = 0;
+            freeCount = 0;
+            addFree(0, 0, width, height);
+        }
+
+        private void addFree (int x, int y, int width, int height) {
+            if (freeCount == freeRemoved.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+                freeRemoved = Arrays.copyOf(freeRemoved, freeRemoved.length * 2);
+            }
+            int i = freeCount++ * 4;
+            free[i] = x;
+            free[i + 1] = y;
+            free[i + 2] = width;
+            free[i + 3] = height;
+            freeRemoved[freeCount - 1] = false;
+        }
+
+        private void addUsed (RectNode node) {
+            if (usedCount * 4 == used.length) {
+                used = Arrays.copyOf(used, used.length * 2);
+            }
+            int i = usedCount++ * 4;
+            used[i] = node.rect.x;
+            used[i + 1] = node.rect.y;
+            used[i + 2] = node.rect.width;
+            used[i + 3] = node.rect.height;
+            usedSurfaceArea += node.rect.area();
+            usedRectangles.add(node);
         }
 
         /** Packs a single image. Order is defined externally. */
@@ -293,17 +485,6 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             RectNode newNode = scoreRect(rect, method);
             if (newNode.rect.height == 0) return null;
 
-            int numRectanglesToProcess = freeRectangles.size();
-            for (int i = 0; i < numRectanglesToProcess; ++i) {
-                if (splitFreeNode(freeRectangles.get(i), newNode)) {
-                    freeRectangles.remove(i);
-                    --i;
-                    --numRectanglesToProcess;
-                }
-            }
-
-            pruneFreeList();
-
             RectNode bestNode = new RectNode(rect);
             bestNode.score1 = newNode.score1;
             bestNode.score2 = newNode.score2;
@@ -311,7 +492,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             bestNode.rect.id = rect.rect.id;
             bestNode.rect.index = rect.rect.index;
 
-            usedRectangles.add(bestNode);
+            placeRect(bestNode);
             return bestNode;
         }
 
@@ -367,18 +548,17 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         }
 
         private void placeRect (RectNode node) {
-            int numRectanglesToProcess = freeRectangles.size();
+            // Split the free rectangles intersecting the node, the new ones are added last
+            int numRectanglesToProcess = freeCount;
             for (int i = 0; i < numRectanglesToProcess; i++) {
-                if (splitFreeNode(freeRectangles.get(i), node)) {
-                    freeRectangles.remove(i);
-                    --i;
-                    --numRectanglesToProcess;
+                if (splitFreeNode(i, node.rect)) {
+                    freeRemoved[i] = true;
                 }
             }
 
-            pruneFreeList();
+            pruneFreeList(numRectanglesToProcess);
 
-            usedRectangles.add(node);
+            addUsed(node);
         }
 
         private RectNode scoreRect (RectNode node, FreeRectChoiceHeuristic method) {
@@ -419,158 +599,175 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
 
         // / Computes the ratio of used surface area.
         private float getOccupancy () {
-            int usedSurfaceArea = 0;
-            for (int i = 0; i < usedRectangles.size(); i++)
-                usedSurfaceArea += usedRectangles.get(i).rect.area();
             return (float)usedSurfaceArea / (binWidth * binHeight);
         }
 
-        private RectNode findPositionForNewNodeBottomLeft (int width, int height, int rotatedWidth, int rotatedHeight, boolean rotate) {
+        private RectNode createNode (int bestIndex, boolean rotated, int width, int height, int score1, int score2) {
             RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score1 = Integer.MAX_VALUE; // best y, score2 is best x
+            if (bestIndex == -1) {
+                bestNode.rect = new Rect(null, 0,0,0,0,0);
+            } else {
+                bestNode.rect = new Rect(null, 0, free[bestIndex * 4], free[bestIndex * 4 + 1], width, height);
+                bestNode.rect.rotated = rotated;
+            }
+            bestNode.score1 = score1;
+            bestNode.score2 = score2;
+            return bestNode;
+        }
 
-            for (int i = 0; i < freeRectangles.size(); i++) {
+        private RectNode findPositionForNewNodeBottomLeft (int width, int height, int rotatedWidth, int rotatedHeight, boolean rotate) {
+            int bestIndex = -1;
+            boolean bestRotated = false;
+            int bestScore1 = Integer.MAX_VALUE; // best y, score2 is best x
+            int bestScore2 = 0;
+
+            for (int i = 0; i < freeCount; i++) {
+                int x = free[i * 4], y = free[i * 4 + 1], w = free[i * 4 + 2], h = free[i * 4 + 3];
                 // Try to place the rectangle in upright (non-rotated) orientation.
-                RectNode currentNode = freeRectangles.get(i);
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int topSideY = currentNode.rect.y + height;
-                    if (topSideY < bestNode.score1 || (topSideY == bestNode.score1 && currentNode.rect.x < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.score1 = topSideY;
-                        bestNode.score2 = currentNode.rect.x;
+                if (w >= width && h >= height) {
+                    int topSideY = y + height;
+                    if (topSideY < bestScore1 || (topSideY == bestScore1 && x < bestScore2)) {
+                        bestIndex = i;
+                        bestRotated = false;
+                        bestScore1 = topSideY;
+                        bestScore2 = x;
                     }
                 }
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    int topSideY = currentNode.rect.y + rotatedHeight;
-                    if (topSideY < bestNode.score1 || (topSideY == bestNode.score1 && currentNode.rect.x < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score1 = topSideY;
-                        bestNode.score2 = currentNode.rect.x;
-                        bestNode.rect.rotated = true;
+                if (rotate && w >= rotatedWidth && h >= rotatedHeight) {
+                    int topSideY = y + rotatedHeight;
+                    if (topSideY < bestScore1 || (topSideY == bestScore1 && x < bestScore2)) {
+                        bestIndex = i;
+                        bestRotated = true;
+                        bestScore1 = topSideY;
+                        bestScore2 = x;
                     }
                 }
             }
-            return bestNode;
+            return createNode(bestIndex, bestRotated, bestRotated ? rotatedWidth : width, bestRotated ? rotatedHeight : height, bestScore1, bestScore2);
         }
 
         private RectNode findPositionForNewNodeBestShortSideFit (int width, int height, int rotatedWidth, int rotatedHeight,
             boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score1 = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            boolean bestRotated = false;
+            int bestScore1 = Integer.MAX_VALUE;
+            int bestScore2 = 0;
 
-            for (int i = 0; i < freeRectangles.size(); i++) {
+            for (int i = 0; i < freeCount; i++) {
+                int w = free[i * 4 + 2], h = free[i * 4 + 3];
                 // Try to place the rectangle in upright (non-rotated) orientation.
-                RectNode currentNode = freeRectangles.get(i);
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - width);
-                    int leftoverVert = Math.abs(currentNode.rect.height - height);
+                if (w >= width && h >= height) {
+                    int leftoverHoriz = Math.abs(w - width);
+                    int leftoverVert = Math.abs(h - height);
                     int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
                     int longSideFit = Math.max(leftoverHoriz, leftoverVert);
 
-                    if (shortSideFit < bestNode.score1 || (shortSideFit == bestNode.score1 && longSideFit < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.score1 = shortSideFit;
-                        bestNode.score2 = longSideFit;
+                    if (shortSideFit < bestScore1 || (shortSideFit == bestScore1 && longSideFit < bestScore2)) {
+                        bestIndex = i;
+                        bestRotated = false;
+                        bestScore1 = shortSideFit;
+                        bestScore2 = longSideFit;
                     }
                 }
 
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    int flippedLeftoverHoriz = Math.abs(currentNode.rect.width - rotatedWidth);
-                    int flippedLeftoverVert = Math.abs(currentNode.rect.height - rotatedHeight);
+                if (rotate && w >= rotatedWidth && h >= rotatedHeight) {
+                    int flippedLeftoverHoriz = Math.abs(w - rotatedWidth);
+                    int flippedLeftoverVert = Math.abs(h - rotatedHeight);
                     int flippedShortSideFit = Math.min(flippedLeftoverHoriz, flippedLeftoverVert);
                     int flippedLongSideFit = Math.max(flippedLeftoverHoriz, flippedLeftoverVert);
 
-                    if (flippedShortSideFit < bestNode.score1
-                        || (flippedShortSideFit == bestNode.score1 && flippedLongSideFit < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score1 = flippedShortSideFit;
-                        bestNode.score2 = flippedLongSideFit;
-                        bestNode.rect.rotated = true;
+                    if (flippedShortSideFit < bestScore1
+                        || (flippedShortSideFit == bestScore1 && flippedLongSideFit < bestScore2)) {
+                        bestIndex = i;
+                        bestRotated = true;
+                        bestScore1 = flippedShortSideFit;
+                        bestScore2 = flippedLongSideFit;
                     }
                 }
             }
 
-            return bestNode;
+            return createNode(bestIndex, bestRotated, bestRotated ? rotatedWidth : width, bestRotated ? rotatedHeight : height, bestScore1, bestScore2);
         }
 
         private RectNode findPositionForNewNodeBestLongSideFit (int width, int height, int rotatedWidth, int rotatedHeight,
             boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score2 = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            boolean bestRotated = false;
+            int bestScore1 = 0;
+            int bestScore2 = Integer.MAX_VALUE;
 
-            for (int i = 0; i < freeRectangles.size(); i++) {
+            for (int i = 0; i < freeCount; i++) {
+                int w = free[i * 4 + 2], h = free[i * 4 + 3];
                 // Try to place the rectangle in upright (non-rotated) orientation.
-                RectNode currentNode = freeRectangles.get(i);
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - width);
-                    int leftoverVert = Math.abs(currentNode.rect.height - height);
+                if (w >= width && h >= height) {
+                    int leftoverHoriz = Math.abs(w - width);
+                    int leftoverVert = Math.abs(h - height);
                     int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
                     int longSideFit = Math.max(leftoverHoriz, leftoverVert);
 
-                    if (longSideFit < bestNode.score2 || (longSideFit == bestNode.score2 && shortSideFit < bestNode.score1)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.rect.rotated = currentNode.rect.rotated;
-                        bestNode.score1 = shortSideFit;
-                        bestNode.score2 = longSideFit;
+                    if (longSideFit < bestScore2 || (longSideFit == bestScore2 && shortSideFit < bestScore1)) {
+                        bestIndex = i;
+                        bestRotated = false;
+                        bestScore1 = shortSideFit;
+                        bestScore2 = longSideFit;
                     }
                 }
 
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - rotatedWidth);
-                    int leftoverVert = Math.abs(currentNode.rect.height - rotatedHeight);
+                if (rotate && w >= rotatedWidth && h >= rotatedHeight) {
+                    int leftoverHoriz = Math.abs(w - rotatedWidth);
+                    int leftoverVert = Math.abs(h - rotatedHeight);
                     int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
                     int longSideFit = Math.max(leftoverHoriz, leftoverVert);
 
-                    if (longSideFit < bestNode.score2 || (longSideFit == bestNode.score2 && shortSideFit < bestNode.score1)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score1 = shortSideFit;
-                        bestNode.score2 = longSideFit;
-                        bestNode.rect.rotated = true;
+                    if (longSideFit < bestScore2 || (longSideFit == bestScore2 && shortSideFit < bestScore1)) {
+                        bestIndex = i;
+                        bestRotated = true;
+                        bestScore1 = shortSideFit;
+                        bestScore2 = longSideFit;
                     }
                 }
             }
-            return bestNode;
+            return createNode(bestIndex, bestRotated, bestRotated ? rotatedWidth : width, bestRotated ? rotatedHeight : height, bestScore1, bestScore2);
         }
 
         private RectNode findPositionForNewNodeBestAreaFit (int width, int height, int rotatedWidth, int rotatedHeight, boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score1 = Integer.MAX_VALUE; // best area fit, score2 is best short side fit
+            int bestIndex = -1;
+            boolean bestRotated = false;
+            int bestScore1 = Integer.MAX_VALUE; // best area fit, score2 is best short side fit
+            int bestScore2 = 0;
 
-            for (int i = 0; i < freeRectangles.size(); i++) {
-                RectNode currentNode = freeRectangles.get(i);
-                int areaFit = currentNode.rect.area() - width * height;
+            for (int i = 0; i < freeCount; i++) {
+                int w = free[i * 4 + 2], h = free[i * 4 + 3];
+                int areaFit = w * h - width * height;
 
                 // Try to place the rectangle in upright (non-rotated) orientation.
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - width);
-                    int leftoverVert = Math.abs(currentNode.rect.height - height);
+                if (w >= width && h >= height) {
+                    int leftoverHoriz = Math.abs(w - width);
+                    int leftoverVert = Math.abs(h - height);
                     int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
 
-                    if (areaFit < bestNode.score1 || (areaFit == bestNode.score1 && shortSideFit < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.score2 = shortSideFit;
-                        bestNode.score1 = areaFit;
+                    if (areaFit < bestScore1 || (areaFit == bestScore1 && shortSideFit < bestScore2)) {
+                        bestIndex = i;
+                        bestRotated = false;
+                        bestScore2 = shortSideFit;
+                        bestScore1 = areaFit;
                     }
                 }
 
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - rotatedWidth);
-                    int leftoverVert = Math.abs(currentNode.rect.height - rotatedHeight);
+                if (rotate && w >= rotatedWidth && h >= rotatedHeight) {
+                    int leftoverHoriz = Math.abs(w - rotatedWidth);
+                    int leftoverVert = Math.abs(h - rotatedHeight);
                     int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
 
-                    if (areaFit < bestNode.score1 || (areaFit == bestNode.score1 && shortSideFit < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score2 = shortSideFit;
-                        bestNode.score1 = areaFit;
-                        bestNode.rect.rotated = true;
+                    if (areaFit < bestScore1 || (areaFit == bestScore1 && shortSideFit < bestScore2)) {
+                        bestIndex = i;
+                        bestRotated = true;
+                        bestScore2 = shortSideFit;
+                        bestScore1 = areaFit;
                     }
                 }
             }
-            return bestNode;
+            return createNode(bestIndex, bestRotated, bestRotated ? rotatedWidth : width, bestRotated ? rotatedHeight : height, bestScore1, bestScore2);
         }
 
         // / Returns 0 if the two intervals i1 and i2 are disjoint, or the length of their overlap otherwise.
@@ -585,120 +782,115 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             if (x == 0 || x + width == binWidth) score += height;
             if (y == 0 || y + height == binHeight) score += width;
 
-            for (int i = 0; i < usedRectangles.size(); i++) {
-                RectNode currentNode = usedRectangles.get(i);
-                if (currentNode.rect.x == x + width || currentNode.rect.x + currentNode.rect.width == x)
-                    score += commonIntervalLength(currentNode.rect.y, currentNode.rect.y + currentNode.rect.height, y,
-                        y + height);
-                if (currentNode.rect.y == y + height || currentNode.rect.y + currentNode.rect.height == y)
-                    score += commonIntervalLength(currentNode.rect.x, currentNode.rect.x + currentNode.rect.width, x, x
-                        + width);
+            for (int i = 0; i < usedCount; i++) {
+                int ux = used[i * 4], uy = used[i * 4 + 1], uw = used[i * 4 + 2], uh = used[i * 4 + 3];
+                if (ux == x + width || ux + uw == x)
+                    score += commonIntervalLength(uy, uy + uh, y, y + height);
+                if (uy == y + height || uy + uh == y)
+                    score += commonIntervalLength(ux, ux + uw, x, x + width);
             }
             return score;
         }
 
         private RectNode findPositionForNewNodeContactPoint (int width, int height, int rotatedWidth, int rotatedHeight, boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score1 = -1; // best contact score
+            int bestIndex = -1;
+            boolean bestRotated = false;
+            int bestScore1 = -1; // best contact score
 
-            for (int i = 0; i < freeRectangles.size(); i++) {
+            for (int i = 0; i < freeCount; i++) {
+                int x = free[i * 4], y = free[i * 4 + 1], w = free[i * 4 + 2], h = free[i * 4 + 3];
                 // Try to place the rectangle in upright (non-rotated) orientation.
-                RectNode currentNode = freeRectangles.get(i);
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int score = contactPointScoreNode(currentNode.rect.x, currentNode.rect.y, width, height);
-                    if (score > bestNode.score1) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.score1 = score;
+                if (w >= width && h >= height) {
+                    int score = contactPointScoreNode(x, y, width, height);
+                    if (score > bestScore1) {
+                        bestIndex = i;
+                        bestRotated = false;
+                        bestScore1 = score;
                     }
                 }
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
+                if (rotate && w >= rotatedWidth && h >= rotatedHeight) {
                     // This was width,height -- bug fixed?
-                    int score = contactPointScoreNode(currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                    if (score > bestNode.score1) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score1 = score;
-                        bestNode.rect.rotated = true;
+                    int score = contactPointScoreNode(x, y, rotatedWidth, rotatedHeight);
+                    if (score > bestScore1) {
+                        bestIndex = i;
+                        bestRotated = true;
+                        bestScore1 = score;
                     }
                 }
             }
-            return bestNode;
+            return createNode(bestIndex, bestRotated, bestRotated ? rotatedWidth : width, bestRotated ? rotatedHeight : height, bestScore1, 0);
         }
 
-        private boolean splitFreeNode (RectNode freeNode, RectNode usedNode) {
-            Rect freeRect = freeNode.rect;
-            Rect usedRect = usedNode.rect;
+        private boolean splitFreeNode (int freeIndex, Rect usedRect) {
+            int fx = free[freeIndex * 4], fy = free[freeIndex * 4 + 1], fw = free[freeIndex * 4 + 2], fh = free[freeIndex * 4 + 3];
             // Test with SAT if the rectangles even intersect.
-            if (usedRect.x >= freeRect.x + freeRect.width || usedRect.x + usedRect.width <= freeRect.x
-                || usedRect.y >= freeRect.y + freeRect.height || usedRect.y + usedRect.height <= freeRect.y) return false;
+            if (usedRect.x >= fx + fw || usedRect.x + usedRect.width <= fx
+                || usedRect.y >= fy + fh || usedRect.y + usedRect.height <= fy) return false;
 
-            if (usedRect.x < freeRect.x + freeRect.width && usedRect.x + usedRect.width > freeRect.x) {
+            if (usedRect.x < fx + fw && usedRect.x + usedRect.width > fx) {
                 // New node at the top side of the used node.
-                if (usedRect.y > freeRect.y && usedRect.y < freeRect.y + freeRect.height) {
-                    RectNode newNode = new RectNode(freeNode);
-                    newNode.rect.height = usedRect.y - newNode.rect.y;
-                    freeRectangles.add(newNode);
+                if (usedRect.y > fy && usedRect.y < fy + fh) {
+                    addFree(fx, fy, fw, usedRect.y - fy);
                 }
 
                 // New node at the bottom side of the used node.
-                if (usedRect.y + usedRect.height < freeRect.y + freeRect.height) {
-                    RectNode newNode = new RectNode(freeNode);
-                    newNode.rect.y = usedRect.y + usedRect.height;
-                    newNode.rect.height = freeRect.y + freeRect.height - (usedRect.y + usedRect.height);
-                    freeRectangles.add(newNode);
+                if (usedRect.y + usedRect.height < fy + fh) {
+                    addFree(fx, usedRect.y + usedRect.height, fw, fy + fh - (usedRect.y + usedRect.height));
                 }
             }
 
-            if (usedRect.y < freeRect.y + freeRect.height && usedRect.y + usedRect.height > freeRect.y) {
+            if (usedRect.y < fy + fh && usedRect.y + usedRect.height > fy) {
                 // New node at the left side of the used node.
-                if (usedRect.x > freeRect.x && usedRect.x < freeRect.x + freeRect.width) {
-                    RectNode newNode = new RectNode(freeNode);
-                    newNode.rect.width = usedRect.x - newNode.rect.x;
-                    freeRectangles.add(newNode);
+                if (usedRect.x > fx && usedRect.x < fx + fw) {
+                    addFree(fx, fy, usedRect.x - fx, fh);
                 }
 
                 // New node at the right side of the used node.
-                if (usedRect.x + usedRect.width < freeRect.x + freeRect.width) {
-                    RectNode newNode = new RectNode(freeNode);
-                    newNode.rect.x = usedRect.x + usedRect.width;
-                    newNode.rect.width = freeRect.x + freeRect.width - (usedRect.x + usedRect.width);
-                    freeRectangles.add(newNode);
+                if (usedRect.x + usedRect.width < fx + fw) {
+                    addFree(usedRect.x + usedRect.width, fy, fx + fw - (usedRect.x + usedRect.width), fh);
                 }
             }
 
             return true;
         }
 
-        private void pruneFreeList () {
-            /*
-             * /// Would be nice to do something like this, to avoid a Theta(n^2) loop through each pair. /// But unfortunately it
-             * doesn't quite cut it, since we also want to detect containment. /// Perhaps there's another way to do this faster than
-             * Theta(n^2).
-             *
-             * if (freeRectangles.size > 0) clb::sort::QuickSort(&freeRectangles[0], freeRectangles.size, NodeSortCmp);
-             *
-             * for(int i = 0; i < freeRectangles.size-1; i++) if (freeRectangles[i].x == freeRectangles[i+1].x && freeRectangles[i].y
-             * == freeRectangles[i+1].y && freeRectangles[i].width == freeRectangles[i+1].width && freeRectangles[i].height ==
-             * freeRectangles[i+1].height) { freeRectangles.erase(freeRectangles.begin() + i); --i; }
-             */
-
-            // / Go through each pair and remove any rectangle that is redundant.
-            for (int i = 0; i < freeRectangles.size(); i++)
-                for (int j = i + 1; j < freeRectangles.size(); ++j) {
-                    if (isContainedIn(freeRectangles.get(i).rect, freeRectangles.get(j).rect)) {
-                        freeRectangles.remove(i);
-                        --i;
+        /**
+         * Remove any free rectangle that is contained in another. The free rectangles before
+         * firstNew are not contained in each other since the list was last pruned, so only
+         * pairs with a rectangle added by the last split are compared. Removed rectangles
+         * are marked and compacted away last, keeping the order of the remaining ones.
+         */
+        private void pruneFreeList (int firstNew) {
+            for (int i = 0; i < freeCount; i++) {
+                if (freeRemoved[i]) continue;
+                for (int j = Math.max(i + 1, firstNew); j < freeCount; ++j) {
+                    if (freeRemoved[j]) continue;
+                    if (isContainedIn(i, j)) {
+                        freeRemoved[i] = true;
                         break;
                     }
-                    if (isContainedIn(freeRectangles.get(j).rect, freeRectangles.get(i).rect)) {
-                        freeRectangles.remove(j);
-                        --j;
+                    if (isContainedIn(j, i)) {
+                        freeRemoved[j] = true;
                     }
                 }
+            }
+
+            int count = 0;
+            for (int i = 0; i < freeCount; i++) {
+                if (!freeRemoved[i]) {
+                    if (count != i) {
+                        System.arraycopy(free, i * 4, free, count * 4, 4);
+                        freeRemoved[count] = false;
+                    }
+                    ++count;
+                }
+            }
+            freeCount = count;
         }
 
-        private boolean isContainedIn (Rect a, Rect b) {
-            return a.x >= b.x && a.y >= b.y && a.x + a.width <= b.x + b.width && a.y + a.height <= b.y + b.height;
+        private boolean isContainedIn (int a, int b) {
+            int ax = free[a * 4], ay = free[a * 4 + 1], bx = free[b * 4], by = free[b * 4 + 1];
+            return ax >= bx && ay >= by && ax + free[a * 4 + 2] <= bx + free[b * 4 + 2] && ay + free[a * 4 + 3] <= by + free[b * 4 + 3];
         }
     }
 
@@ -45,6 +45,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 // For debugging image output
@@ -299,6 +300,18 @@ public class TextureSetGenerator {
                                                 AnimIterator iterator,
                                                int margin, int innerPadding, int extrudeBorders,
                                                boolean rotate, boolean useTileGrid, Grid gridSize) {
+        return calculateLayout(images, imageHulls, use_geometries, iterator, margin, innerPadding, extrudeBorders,
+                rotate, useTileGrid, gridSize, null);
+    }
+
+    /**
+     * See {@link #calculateLayout(List, List, int, AnimIterator, int, int, int, boolean, boolean, Grid)}
+     * @param executor executor used to pack the images, or null, the layout is the same regardless of thread count
+     */
+    public static TextureSetResult calculateLayout(List<Rect> images, List<SpriteGeometry> imageHulls, int use_geometries,
+                                                AnimIterator iterator,
+                                               int margin, int innerPadding, int extrudeBorders,
+                                               boolean rotate, boolean useTileGrid, Grid gridSize, ExecutorService executor) {
 
         int totalSizeIncrease = 2 * (innerPadding + extrudeBorders);
 
@@ -315,7 +328,7 @@ public class TextureSetGenerator {
         if (useTileGrid) {
             layout = TextureSetLayout.gridLayout(margin, resizedImages, gridSize);
         } else {
-            layout = TextureSetLayout.packedLayout(margin, resizedImages, rotate);
+            layout = TextureSetLayout.packedLayout(margin, resizedImages, rotate, executor);
         }
 
         layout.getRectangles().sort(Comparator.comparing(o -> o.index));
@@ -382,6 +395,15 @@ public class TextureSetGenerator {
      */
     public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
             int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize) {
+        return generate(images, imageHullSizes, paths, iterator, margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, null);
+    }
+
+    /**
+     * See {@link #generate(List, List, List, AnimIterator, int, int, int, boolean, boolean, Grid)}
+     * @param executor executor used to pack the images, or null, the layout is the same regardless of thread count
+     */
+    public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
+            int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize, ExecutorService executor) {
 
         List<Rect> imageRects = rectanglesFromImages(images, paths);
 
@@ -402,7 +424,7 @@ public class TextureSetGenerator {
 
         // The layout step will expand the rect, and possibly rotate them
         TextureSetResult result = calculateLayout(imageRects, imageHulls, use_geometries, iterator,
-                                                        margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize);
+                                                        margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, executor);
 
         for (int i = 0; i < images.size(); ++i) {
             BufferedImage image = images.get(i);
@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Atlas layout algorithm(s)
@@ -108,11 +109,15 @@ public class TextureSetLayout {
     }
 
     public static Layout packedLayout(int margin, List<Rect> rectangles, boolean rotate) {
+        return packedLayout(margin, rectangles, rotate, null);
+    }
+
+    public static Layout packedLayout(int margin, List<Rect> rectangles, boolean rotate, ExecutorService executor) {
         if (rectangles.size() == 0) {
             return new Layout(1, 1, new ArrayList<TextureSetLayout.Rect>());
         }
 
-        return createMaxRectsLayout(margin, rectangles, rotate);
+        return createMaxRectsLayout(margin, rectangles, rotate, executor);
     }
 
     private static int getExponentNextOrMatchingPowerOfTwo(int value) {
@@ -165,6 +170,17 @@ public class TextureSetLayout {
      * @return
      */
     public static Layout createMaxRectsLayout(int margin, List<Rect> rectangles, boolean rotate) {
+        return createMaxRectsLayout(margin, rectangles, rotate, null);
+    }
+
+    /**
+     * @param margin
+     * @param rectangles
+     * @param rotate
+     * @param executor executor used to search for the layout, see {@link MaxRectsLayoutStrategy#setExecutor(ExecutorService)}
+     * @return
+     */
+    public static Layout createMaxRectsLayout(int margin, List<Rect> rectangles, boolean rotate, ExecutorService executor) {
         // Sort by area first, then longest side
         Collections.sort(rectangles, new Comparator<Rect>() {
             @Override
@@ -204,6 +220,7 @@ public class TextureSetLayout {
         settings.square = false;
 
         MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings);
+        strategy.setExecutor(executor);
         List<Layout> layouts = strategy.createLayout(rectangles);
 
         // Repeat layout creation using alternating increase of width and height until
@@ -0,0 +1,106 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Pool of direct byte buffers
+ *
+ * Direct buffers are expensive to allocate and their memory is only returned
+ * when they are garbage collected, so the buffers used to pass large amounts of
+ * data to native libraries are reused. Released buffers are kept until the total
+ * capacity of the pooled buffers exceeds the max size, and are softly referenced
+ * so idle buffers can be reclaimed by the garbage collector.
+ *
+ * The pool is thread safe.
+ */
+public class DirectBufferPool {
+
+    private long maxSize;
+    private long size = 0;
+    private List<SoftReference<ByteBuffer>> buffers = new ArrayList<SoftReference<ByteBuffer>>();
+
+    /**
+     * Create a pool
+     * @param maxSize max total capacity in bytes of the pooled buffers
+     */
+    public DirectBufferPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get a buffer from the pool, or allocate a new one if no pooled buffer is large enough.
+     * @param capacity min capacity of the buffer
+     * @return direct buffer in big-endian byte order with position 0 and limit set to capacity
+     */
+    public ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            int bestIndex = -1;
+            for (int i = 0; i < buffers.size(); ++i) {
+                ByteBuffer b = buffers.get(i).get();
+                if (b != null && b.capacity() >= capacity && (bestIndex == -1 || b.capacity() < buffer.capacity())) {
+                    bestIndex = i;
+                    buffer = b;
+                }
+            }
+            if (bestIndex != -1) {
+                buffers.remove(bestIndex);
+                size -= buffer.capacity();
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear();
+        buffer.limit(capacity);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. The buffer must not be used after it has been released.
+     * @param buffer buffer acquired from the pool
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() > maxSize) {
+            return;
+        }
+        // Forget buffers that have been garbage collected
+        size = 0;
+        Iterator<SoftReference<ByteBuffer>> iterator = buffers.iterator();
+        while (iterator.hasNext()) {
+            ByteBuffer b = iterator.next().get();
+            if (b == null) {
+                iterator.remove();
+            } else {
+                size += b.capacity();
+            }
+        }
+        buffers.add(new SoftReference<ByteBuffer>(buffer));
+        size += buffer.capacity();
+        // Drop the least recently released buffers
+        while (size > maxSize) {
+            ByteBuffer b = buffers.remove(0).get();
+            if (b != null) {
+                size -= b.capacity();
+            }
+        }
+    }
+}
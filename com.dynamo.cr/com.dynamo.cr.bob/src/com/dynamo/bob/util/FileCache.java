@@ -0,0 +1,205 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Content-addressed cache of build results stored in a directory
+ *
+ * Entries are keyed on a digest of the input data and the settings used to
+ * produce the result, and each entry is stored in a file of its own. Entries
+ * are written to a temporary file and moved in place, so a cache directory
+ * can be shared between concurrent builds.
+ *
+ * Least recently used entries are removed by {@link #evict()} when the total
+ * size of the cache exceeds the max size.
+ */
+public class FileCache {
+
+    private static final int MAGIC = 0x424f4243; // "BOBC"
+    private static final int HEADER_SIZE = 8;
+    // Temporary files older than this are left over from aborted builds
+    private static final long TMP_FILE_MAX_AGE = 60 * 60 * 1000;
+
+    private File directory;
+    private long maxSize;
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a cache
+     * @param directory directory to store entries in
+     * @param maxSize max total size in bytes of the entries
+     */
+    public FileCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Calculate the cache key of data
+     * @param data input data
+     * @param settings settings affecting the result, e.g. algorithm, parameters and tool versions
+     * @return cache key
+     */
+    public static String key(byte[] data, String settings) {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        sha1.update(settings.getBytes(StandardCharsets.UTF_8));
+        sha1.update((byte) 0);
+        sha1.update(data);
+        return new String(Hex.encodeHex(sha1.digest()));
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    /**
+     * Get cached entry
+     * @param key cache key, see {@link #key(byte[], String)}
+     * @return cached data or null if not cached
+     */
+    public byte[] get(String key) {
+        File file = getFile(key);
+        try {
+            if (file.isFile()) {
+                byte[] content = Files.readAllBytes(file.toPath());
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                if (content.length >= HEADER_SIZE && buffer.getInt() == MAGIC && buffer.getInt() == content.length - HEADER_SIZE) {
+                    // Mark as recently used
+                    file.setLastModified(System.currentTimeMillis());
+                    hits.incrementAndGet();
+                    byte[] data = new byte[content.length - HEADER_SIZE];
+                    buffer.get(data);
+                    return data;
+                }
+            }
+        } catch (IOException e) {
+            // Treat unreadable entries as missing
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Add entry to the cache
+     * @param key cache key, see {@link #key(byte[], String)}
+     * @param data data to cache
+     * @throws IOException
+     */
+    public void put(String key, byte[] data) throws IOException {
+        File file = getFile(key);
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(key, ".tmp", dir);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length);
+            buffer.putInt(MAGIC);
+            buffer.putInt(data.length);
+            buffer.put(data);
+            Files.write(tmp.toPath(), buffer.array());
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Remove least recently used entries until the total size of the cache
+     * is within the max size. Temporary files written by {@link #put(String, byte[])}
+     * are not entries and are left alone, unless abandoned.
+     * @return number of removed entries
+     */
+    public int evict() {
+        List<File> files = new ArrayList<File>();
+        long totalSize = 0;
+        long tmpDeadline = System.currentTimeMillis() - TMP_FILE_MAX_AGE;
+        File[] dirs = directory.listFiles();
+        if (dirs == null) {
+            return 0;
+        }
+        for (File dir : dirs) {
+            File[] entries = dir.listFiles();
+            if (entries == null) {
+                continue;
+            }
+            for (File file : entries) {
+                if (file.getName().endsWith(".tmp")) {
+                    // Possibly being written by another build
+                    if (file.lastModified() < tmpDeadline) {
+                        file.delete();
+                    }
+                    continue;
+                }
+                files.add(file);
+                totalSize += file.length();
+            }
+        }
+        if (totalSize <= maxSize) {
+            return 0;
+        }
+
+        final Map<File, Long> lastModified = new HashMap<File, Long>();
+        for (File file : files) {
+            lastModified.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(lastModified.get(f1), lastModified.get(f2));
+            }
+        });
+        int removed = 0;
+        for (File file : files) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            long size = file.length();
+            if (file.delete()) {
+                totalSize -= size;
+                ++removed;
+            }
+        }
+        return removed;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,155 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * In-memory cache of decoded images
+ *
+ * Images are keyed on a digest of the encoded image data, so an image used by
+ * several atlases and tile sources is only decoded once. Least recently used
+ * images are removed when the total size of the decoded pixel data exceeds the
+ * max size.
+ *
+ * The cached images are shared between builders and must not be modified.
+ */
+public class ImageCache {
+
+    private long maxSize;
+    private long size = 0;
+    private LinkedHashMap<String, BufferedImage> images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a cache
+     * @param maxSize max total size in bytes of the decoded images
+     */
+    public ImageCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Calculate the cache key of encoded image data
+     * @param data encoded image data
+     * @return cache key
+     */
+    public static String key(byte[] data) {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        return new String(Hex.encodeHex(sha1.digest(data)));
+    }
+
+    /**
+     * Get the size in bytes of the pixel data of an image
+     * @param image image
+     * @return size in bytes
+     */
+    public static long getImageSize(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Get cached image
+     * @param key cache key, see {@link #key(byte[])}
+     * @return cached image or null if not cached
+     */
+    public synchronized BufferedImage get(String key) {
+        BufferedImage image = images.get(key);
+        if (image != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return image;
+    }
+
+    /**
+     * Add image to the cache. Images larger than the max size are not cached.
+     * @param key cache key, see {@link #key(byte[])}
+     * @param image image to cache
+     */
+    public synchronized void put(String key, BufferedImage image) {
+        long imageSize = getImageSize(image);
+        if (imageSize > maxSize) {
+            return;
+        }
+        BufferedImage previous = images.put(key, image);
+        if (previous != null) {
+            size -= getImageSize(previous);
+        }
+        size += imageSize;
+        Iterator<Map.Entry<String, BufferedImage>> iterator = images.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, BufferedImage> entry = iterator.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            size -= getImageSize(entry.getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Decode an image, or get it from the cache if the same data has been decoded before
+     * @param data encoded image data
+     * @return image or null if the data could not be decoded
+     * @throws IOException
+     */
+    public BufferedImage read(byte[] data) throws IOException {
+        String key = key(data);
+        BufferedImage image = get(key);
+        if (image == null) {
+            image = ImageIO.read(new ByteArrayInputStream(data));
+            if (image != null) {
+                put(key, image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Get the total size in bytes of the cached images
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
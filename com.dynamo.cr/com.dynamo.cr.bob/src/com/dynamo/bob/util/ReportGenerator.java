@@ -27,6 +27,7 @@ import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ArchiveEntry;
+import com.dynamo.bob.fs.DigestCache;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -206,6 +207,20 @@ public class ReportGenerator {
             }
             generator.writeEndObject();
 
+            // Digest cache statistics
+            DigestCache.Stats digestCacheStats = project.getDigestCacheStats();
+            if (digestCacheStats != null) {
+                generator.writeFieldName("digest_cache");
+                generator.writeStartObject();
+                generator.writeFieldName("hits");
+                generator.writeNumber(digestCacheStats.hits);
+                generator.writeFieldName("misses");
+                generator.writeNumber(digestCacheStats.misses);
+                generator.writeFieldName("bytes_hashed");
+                generator.writeNumber(digestCacheStats.bytesHashed);
+                generator.writeEndObject();
+            }
+
             // Resources
             generator.writeFieldName("resources");
             generator.writeStartArray();
@@ -0,0 +1,290 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+
+package org.jagatoo.loaders.models.collada.stax;
+
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser for whitespace separated array data such as the contents of
+ * float_array, int_array and p elements.
+ *
+ * Characters are read directly from the text buffer of the stream reader and
+ * parsed into an array preallocated from the count attribute, instead of
+ * concatenating the text into a string and tokenizing it. Tokens may be split
+ * across several character events.
+ */
+public abstract class StAXArrayParser {
+
+    private char[] token = new char[32];
+    private int tokenLength = 0;
+    protected int size = 0;
+
+    private static boolean isWhitespace(char c) {
+        // Same delimiters as the default StringTokenizer
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * Append the text of the current character event
+     * @param parser stream reader positioned at a character event
+     */
+    public void append(XMLStreamReader parser) {
+        append(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+    }
+
+    public void append(char[] text, int start, int length) {
+        int end = start + length;
+        for (int i = start; i < end; ++i) {
+            char c = text[i];
+            if (isWhitespace(c)) {
+                if (tokenLength > 0) {
+                    parseToken(token, tokenLength);
+                    tokenLength = 0;
+                }
+            } else {
+                if (tokenLength == token.length) {
+                    token = Arrays.copyOf(token, token.length * 2);
+                }
+                token[tokenLength++] = c;
+            }
+        }
+    }
+
+    protected void finish() {
+        if (tokenLength > 0) {
+            parseToken(token, tokenLength);
+            tokenLength = 0;
+        }
+    }
+
+    protected abstract void parseToken(char[] token, int length);
+
+    /**
+     * Number of parsed values
+     * @return value count
+     */
+    public int size() {
+        return size;
+    }
+
+    public static class Floats extends StAXArrayParser {
+        // Powers of ten exactly representable as doubles
+        private static final double[] POWERS_OF_TEN = new double[23];
+        static {
+            POWERS_OF_TEN[0] = 1.0;
+            for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+                POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+            }
+        }
+        private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+        private float[] values;
+
+        public Floats(int count) {
+            values = new float[Math.max(count, 0)];
+        }
+
+        /**
+         * Parse a plain decimal number with an optional exponent. The mantissa
+         * and the power of ten are exact doubles so the quotient or product is
+         * correctly rounded. Returns NaN if the token needs the slow path,
+         * including the rare case where rounding the double to a float is
+         * ambiguous.
+         */
+        static float parseFast(char[] s, int length) {
+            int i = 0;
+            boolean negative = false;
+            if (s[0] == '-' || s[0] == '+') {
+                negative = s[0] == '-';
+                ++i;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int scale = 0;
+            boolean point = false;
+            int start = i;
+            for (; i < length; ++i) {
+                char c = s[i];
+                if (c >= '0' && c <= '9') {
+                    if (mantissa == 0 && c == '0') {
+                        // Leading zeros don't count towards the precision
+                    } else if (++digits > 17) {
+                        return Float.NaN;
+                    } else {
+                        mantissa = mantissa * 10 + (c - '0');
+                    }
+                    if (point) {
+                        --scale;
+                    }
+                } else if (c == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+            if (i == start || (point && i == start + 1)) {
+                return Float.NaN;
+            }
+            if (i < length) {
+                if (s[i] != 'e' && s[i] != 'E' || ++i == length) {
+                    return Float.NaN;
+                }
+                boolean negativeExponent = false;
+                if (s[i] == '-' || s[i] == '+') {
+                    negativeExponent = s[i] == '-';
+                    if (++i == length) {
+                        return Float.NaN;
+                    }
+                }
+                int exponent = 0;
+                for (; i < length; ++i) {
+                    char c = s[i];
+                    if (c < '0' || c > '9' || exponent > 1000) {
+                        return Float.NaN;
+                    }
+                    exponent = exponent * 10 + (c - '0');
+                }
+                scale += negativeExponent ? -exponent : exponent;
+            }
+            if (mantissa > MAX_EXACT_MANTISSA) {
+                return Float.NaN;
+            }
+            double value;
+            if (mantissa == 0) {
+                value = 0.0;
+            } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+                value = mantissa / POWERS_OF_TEN[-scale];
+            } else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+                value = mantissa * POWERS_OF_TEN[scale];
+            } else {
+                return Float.NaN;
+            }
+            if (value != 0.0) {
+                // Rounding to float is only ambiguous when the double is exactly halfway between two floats
+                long bits = Double.doubleToRawLongBits(value);
+                if ((bits & 0x1fffffffL) == 0x10000000L || value < Float.MIN_NORMAL || value > Float.MAX_VALUE) {
+                    return Float.NaN;
+                }
+            }
+            float f = (float) value;
+            return negative ? -f : f;
+        }
+
+        @Override
+        protected void parseToken(char[] token, int length) {
+            float f = parseFast(token, length);
+            if (Float.isNaN(f)) {
+                try {
+                    f = Float.parseFloat(new String(token, 0, length));
+                } catch (NumberFormatException e) {
+                    // Defold-fix:
+                    // Some Collada exporters (such the default one in Maya) sometimes output "-1.#IND00" as float entries.
+                    // We need to catch the format exception and simply "parse" it as a zero.
+                    // In the future we might want to log a build (and Editor 2) warning here, issue; DEF-2917
+                    f = 0.0f;
+                }
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, values.length * 2));
+            }
+            values[size++] = f;
+        }
+
+        /**
+         * Get the parsed values
+         * @return array with one element per parsed token
+         */
+        public float[] toArray() {
+            finish();
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+    }
+
+    public static class Ints extends StAXArrayParser {
+        private int[] values;
+
+        public Ints(int count) {
+            values = new int[Math.max(count, 0)];
+        }
+
+        @Override
+        protected void parseToken(char[] token, int length) {
+            int i = 0;
+            boolean negative = token[0] == '-';
+            if (negative || token[0] == '+') {
+                ++i;
+            }
+            long value = 0;
+            if (i == length || length - i > 10) {
+                value = Integer.parseInt(new String(token, 0, length));
+            } else {
+                for (; i < length; ++i) {
+                    char c = token[i];
+                    if (c < '0' || c > '9') {
+                        // Let Integer.parseInt report the error
+                        value = Integer.parseInt(new String(token, 0, length));
+                        break;
+                    }
+                    value = value * 10 + (c - '0');
+                }
+                if (i == length) {
+                    value = negative ? -value : value;
+                    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                        value = Integer.parseInt(new String(token, 0, length));
+                    }
+                }
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, values.length * 2));
+            }
+            values[size++] = (int) value;
+        }
+
+        /**
+         * Get the parsed values
+         * @return array with one element per parsed token
+         */
+        public int[] toArray() {
+            finish();
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+    }
+
+    public static class Names extends StAXArrayParser {
+        private String[] values;
+
+        public Names(int count) {
+            values = new String[Math.max(count, 0)];
+        }
+
+        @Override
+        protected void parseToken(char[] token, int length) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, values.length * 2));
+            }
+            values[size++] = new String(token, 0, length);
+        }
+
+        /**
+         * Get the parsed values
+         * @return array with one element per parsed token
+         */
+        public String[] toArray() {
+            finish();
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -29,8 +29,6 @@
  */
 package org.jagatoo.loaders.models.collada.stax;
 
-import java.util.StringTokenizer;
-
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -53,13 +51,9 @@ public class XMLIntArray {
     public int[] ints;
 
     public static int[] toArray(String intValues) {
-        StringTokenizer tknz = new StringTokenizer(intValues);
-        int count = tknz.countTokens();
-        int[] ints = new int[count];
-        for(int i = 0; i < count; i++) {
-            ints[i] = Integer.parseInt(tknz.nextToken());
-        }
-        return ints;
+        StAXArrayParser.Ints ints = new StAXArrayParser.Ints(0);
+        ints.append(intValues.toCharArray(), 0, intValues.length());
+        return ints.toArray();
     }
 
     public void parse( XMLStreamReader parser, String endTag ) throws XMLStreamException
@@ -81,8 +75,8 @@ public class XMLIntArray {
             }
         }
 
-        // DYNAMO: Buffering fix
-        StringBuffer ints_buffer = new StringBuffer();
+        // DYNAMO: Stream the values straight from the parser text buffer
+        StAXArrayParser.Ints ints_parser = new StAXArrayParser.Ints( count );
 
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
@@ -95,14 +89,14 @@ public class XMLIntArray {
                 }
                 case XMLStreamConstants.CHARACTERS:
                 {
-                    ints_buffer.append(parser.getText());
+                    ints_parser.append( parser );
                     break;
                 }
                 case XMLStreamConstants.END_ELEMENT:
                 {
                     if ( parser.getLocalName().equals( endTag ) )
                     {
-                        ints = toArray( ints_buffer.toString() );
+                        ints = ints_parser.toArray();
                         return;
                     }
                     break;
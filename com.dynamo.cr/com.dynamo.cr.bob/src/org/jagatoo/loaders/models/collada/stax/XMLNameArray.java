@@ -29,8 +29,6 @@
  */
 package org.jagatoo.loaders.models.collada.stax;
 
-import java.util.StringTokenizer;
-
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -53,13 +51,9 @@ public class XMLNameArray {
     public String[] names;
     
     public static String[] toArray(String nameValues) {
-        StringTokenizer tknz = new StringTokenizer(nameValues);
-        int count = tknz.countTokens();
-        String[] names = new String[count];
-        for(int i = 0; i < count; i++) {
-            names[i] = tknz.nextToken();
-        }
-        return names;
+        StAXArrayParser.Names names = new StAXArrayParser.Names(0);
+        names.append(nameValues.toCharArray(), 0, nameValues.length());
+        return names.toArray();
     }
     
     public void parse( XMLStreamReader parser ) throws XMLStreamException
@@ -81,6 +75,9 @@ public class XMLNameArray {
             }
         }
         
+        // DYNAMO: Stream the names straight from the parser text buffer, the text may be split in several events
+        StAXArrayParser.Names names_parser = new StAXArrayParser.Names( count );
+
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -92,13 +89,16 @@ public class XMLNameArray {
                 }
                 case XMLStreamConstants.CHARACTERS:
                 {
-                    names = toArray( parser.getText() );
+                    names_parser.append( parser );
                     break;
                 }
                 case XMLStreamConstants.END_ELEMENT:
                 {
                     if ( parser.getLocalName().equals( "Name_array" ) )
+                    {
+                        names = names_parser.toArray();
                         return;
+                    }
                     break;
                 }
             }
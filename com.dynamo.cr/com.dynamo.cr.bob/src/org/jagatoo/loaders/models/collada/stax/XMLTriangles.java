@@ -30,7 +30,6 @@
 package org.jagatoo.loaders.models.collada.stax;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.Location;
@@ -76,6 +75,21 @@ public class XMLTriangles
             JAGTLog.exception( loc.getLineNumber(), ":", loc.getColumnNumber(), " ", this.getClass().getSimpleName(), ": missing count attribute." );
     }
 
+    private int getStride()
+    {
+        int stride = 0;
+        for ( XMLInput input : inputs )
+        {
+            stride = Math.max( stride, input.offset + 1 );
+        }
+        return stride;
+    }
+
+    private static int[] toArray( StAXArrayParser.Ints parser )
+    {
+        return parser != null ? parser.toArray() : new int[0];
+    }
+
     private void doParsing( XMLStreamReader parser, boolean polyList ) throws XMLStreamException
     {
         for ( int i = 0; i < parser.getAttributeCount(); i++ )
@@ -95,11 +109,11 @@ public class XMLTriangles
             }
         }
 
-        // DYNAMO: Buffering fix
+        // DYNAMO: Stream the indices straight from the parser text buffer
         boolean parsing_triangles = false;
         boolean parsing_vcount = false;
-        StringBuffer triangles_buffer = new StringBuffer();
-        StringBuffer vcount_buffer = new StringBuffer();
+        StAXArrayParser.Ints triangles_parser = null;
+        StAXArrayParser.Ints vcount_parser = null;
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -116,11 +130,18 @@ public class XMLTriangles
                     }
                     else if ( parser.getLocalName().equals( "p" ) )
                     {
-                        //triangles_buffer.append(StAXHelper.parseText( parser ));
+                        if ( triangles_parser == null )
+                        {
+                            triangles_parser = new StAXArrayParser.Ints( count * 3 * getStride() );
+                        }
                         parsing_triangles = true;
                     }
                     else if ( parser.getLocalName().equals( "vcount" ) )
                     {
+                        if ( vcount_parser == null )
+                        {
+                            vcount_parser = new StAXArrayParser.Ints( count );
+                        }
                         parsing_vcount = true;
                     }
                     else
@@ -134,9 +155,9 @@ public class XMLTriangles
                 case XMLStreamConstants.CHARACTERS:
                 {
                     if (parsing_triangles)
-                        triangles_buffer.append(parser.getText());
+                        triangles_parser.append(parser);
                     else if (parsing_vcount)
-                        vcount_buffer.append(parser.getText());
+                        vcount_parser.append(parser);
                     break;
                 }
 
@@ -144,42 +165,40 @@ public class XMLTriangles
                 {
                     if ( parser.getLocalName().equals( "triangles" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
+                        p = toArray(triangles_parser);
                         return;
                     }
                     else if ( parser.getLocalName().equals( "polylist" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
-                        int[] vcount = XMLIntArray.toArray(vcount_buffer.toString());
+                        p = toArray(triangles_parser);
+                        int[] vcount = vcount_parser != null ? vcount_parser.toArray() : new int[0];
                         int totalVertexCount = 0;
+                        int triangleCount = 0;
                         for (int vc : vcount) {
                             totalVertexCount += vc;
+                            triangleCount += Math.max(vc - 2, 0);
                         }
                         int elementsPerVertex = p.length / totalVertexCount;
 
-                        List<Integer> trianglesP = new ArrayList<Integer>(1024);
+                        int[] pPrim = new int[triangleCount * 3 * elementsPerVertex];
+                        int n = 0;
 
                         int base = 0;
                         for (int vc : vcount) {
                             for (int j = 0; j < vc - 2; ++j) {
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + 0 * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + 0 * elementsPerVertex + i];
                                 }
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + (j + 1) * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + (j + 1) * elementsPerVertex + i];
                                 }
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + (j + 2) * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + (j + 2) * elementsPerVertex + i];
                                 }
                             }
                             base += vc * elementsPerVertex;
                         }
 
-                        int[] pPrim = new int[trianglesP.size()];
-                        for (int i = 0; i < pPrim.length; i++) {
-                            pPrim[i] = trianglesP.get(i);
-                        }
-
                         count = pPrim.length / (3 * elementsPerVertex);
 
                         p = pPrim;
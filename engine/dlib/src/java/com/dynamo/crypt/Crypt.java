@@ -12,9 +12,32 @@
 
 package com.dynamo.crypt;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * XTEA in counter mode, compatible with dmCrypt::Encrypt in the engine.
+ *
+ * The key is up to 16 bytes, zero padded and read as four big-endian words. The
+ * counter is a 64-bit block index starting at zero for the first 8 bytes of the data
+ * and every encrypted counter is xor:ed with the data in big-endian byte order.
+ * Encryption and decryption is the same operation.
+ *
+ * Since the keystream only depends on the position in the data, any range of the
+ * data can be processed independently given its byte position, which is used for
+ * streaming and for processing large buffers in parallel.
+ */
 public class Crypt {
 
     private final static int NUM_ROUNDS = 32;
+    private final static int DELTA = 0x9e3779b9;
+    private final static int BLOCK_SIZE = 8;
 
     private static int[] toIntArray(byte[] data, int n) {
         int[] result = new int[n >> 2];
@@ -24,48 +47,280 @@ public class Crypt {
         return result;
     }
 
-    private static byte[] toByteArray(int[] data) {
-        int n = data.length << 2;
-        byte[] result = new byte[n];
+    /**
+     * Expanded XTEA key. The per round sub keys are computed once instead of for
+     * every block. Immutable and safe to share between threads.
+     */
+    public static final class Key {
+        private final int[] roundKeys = new int[NUM_ROUNDS * 2];
 
-        for (int i = 0; i < n; ++i) {
-            result[i] = (byte) (data[i >>> 2] >>> ((3 - (i & 3)) << 3));
+        public Key(byte[] key) {
+            if (key.length > 16) {
+                throw new IllegalArgumentException(String.format("Invalid key size %d, must be at most 16 bytes", key.length));
+            }
+            int[] k = toIntArray(key, 16);
+            int sum = 0;
+            for (int i = 0; i < NUM_ROUNDS; ++i) {
+                roundKeys[i * 2] = sum + k[sum & 3];
+                sum += DELTA;
+                roundKeys[i * 2 + 1] = sum + k[(sum >>> 11) & 3];
+            }
+        }
+
+        /**
+         * Encrypt a 64-bit block
+         * @param block block with v0 in the high word and v1 in the low word
+         * @return encrypted block, same layout
+         */
+        long encrypt(long block) {
+            final int[] rk = roundKeys;
+            int v0 = (int) (block >>> 32);
+            int v1 = (int) block;
+            for (int i = 0; i < NUM_ROUNDS * 2; i += 2) {
+                v0 += (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ rk[i];
+                v1 += (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ rk[i + 1];
+            }
+            return ((long) v0 << 32) | (v1 & 0xffffffffL);
+        }
+
+        /**
+         * Xor pairs of consecutive blocks with the encrypted counters. The rounds of the
+         * two blocks in a pair are interleaved since every round depends on the previous one.
+         * @return the counter following the last block
+         */
+        long xorBlockPairs(long counter, byte[] src, int s, byte[] dst, int d, int pairs) {
+            final int[] rk = roundKeys;
+            for (int p = 0; p < pairs; ++p) {
+                long next = counter + 1;
+                int a0 = (int) (counter >>> 32);
+                int a1 = (int) counter;
+                int b0 = (int) (next >>> 32);
+                int b1 = (int) next;
+                for (int i = 0; i < NUM_ROUNDS * 2; i += 2) {
+                    int k0 = rk[i];
+                    int k1 = rk[i + 1];
+                    a0 += (((a1 << 4) ^ (a1 >>> 5)) + a1) ^ k0;
+                    b0 += (((b1 << 4) ^ (b1 >>> 5)) + b1) ^ k0;
+                    a1 += (((a0 << 4) ^ (a0 >>> 5)) + a0) ^ k1;
+                    b1 += (((b0 << 4) ^ (b0 >>> 5)) + b0) ^ k1;
+                }
+                xorBlock(src, s, dst, d, ((long) a0 << 32) | (a1 & 0xffffffffL));
+                xorBlock(src, s + BLOCK_SIZE, dst, d + BLOCK_SIZE, ((long) b0 << 32) | (b1 & 0xffffffffL));
+                counter += 2;
+                s += 2 * BLOCK_SIZE;
+                d += 2 * BLOCK_SIZE;
+            }
+            return counter;
         }
-        return result;
     }
 
-    private static int[] encrypt(int[] v, int[] key) {
-        int sum = 0;
-        int delta = 0x9e3779b9;
-        int v0 = v[0];
-        int v1 = v[1];
-        for (int i = 0; i < NUM_ROUNDS; i++) {
-            v0 += (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ (sum + key[sum & 3]);
-            sum += delta;
-            v1 += (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ (sum + key[(sum >>> 11) & 3]);
-        }
-        return new int[] { v0, v1 };
+    private static void xorBlock(byte[] src, int s, byte[] dst, int d, long stream) {
+        dst[d]     = (byte) (src[s]     ^ (stream >>> 56));
+        dst[d + 1] = (byte) (src[s + 1] ^ (stream >>> 48));
+        dst[d + 2] = (byte) (src[s + 2] ^ (stream >>> 40));
+        dst[d + 3] = (byte) (src[s + 3] ^ (stream >>> 32));
+        dst[d + 4] = (byte) (src[s + 4] ^ (stream >>> 24));
+        dst[d + 5] = (byte) (src[s + 5] ^ (stream >>> 16));
+        dst[d + 6] = (byte) (src[s + 6] ^ (stream >>> 8));
+        dst[d + 7] = (byte) (src[s + 7] ^ stream);
     }
 
-    public static byte[] encryptCTR(byte[] data, byte[] key) {
-        byte[] result = new byte[data.length];
-        int[] counter = new int[2];
-        byte[] enc_counter = new byte[8];
-        int[] int_key = toIntArray(key, 16);
-
-        for (int i = 0; i < data.length; i++) {
-            if (i % 8 == 0) {
-                enc_counter = toByteArray(encrypt(counter, int_key));
-                // TODO: Include overflow for supporting more than 2^31 bytes of data.
-                //       i.e. handling incrementing counter[0] as well.
-                counter[1]++;
+    /**
+     * Encrypt or decrypt a range of data. The source and destination may be the same
+     * array, in which case the data is processed in place.
+     * @param key key
+     * @param position byte position of the range in the data, decides the counter
+     * @param src source array
+     * @param srcOffset offset in source array
+     * @param dst destination array
+     * @param dstOffset offset in destination array
+     * @param length number of bytes to process
+     */
+    public static void encryptCTR(Key key, long position, byte[] src, int srcOffset, byte[] dst, int dstOffset, int length) {
+        if (position < 0 || length < 0 || srcOffset < 0 || dstOffset < 0
+                || srcOffset > src.length - length || dstOffset > dst.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        long counter = position >>> 3;
+        int skip = (int) (position & (BLOCK_SIZE - 1));
+        int s = srcOffset;
+        int d = dstOffset;
+        int end = srcOffset + length;
+
+        // Partial block at the start of the range
+        if (skip != 0 && s < end) {
+            long stream = key.encrypt(counter++);
+            for (int j = skip; j < BLOCK_SIZE && s < end; ++j) {
+                dst[d++] = (byte) (src[s++] ^ (stream >>> ((7 - j) << 3)));
+            }
+        }
+
+        int pairs = (end - s) / (2 * BLOCK_SIZE);
+        counter = key.xorBlockPairs(counter, src, s, dst, d, pairs);
+        s += pairs * 2 * BLOCK_SIZE;
+        d += pairs * 2 * BLOCK_SIZE;
+        if (end - s >= BLOCK_SIZE) {
+            xorBlock(src, s, dst, d, key.encrypt(counter++));
+            s += BLOCK_SIZE;
+            d += BLOCK_SIZE;
+        }
+
+        // Partial block at the end of the range
+        if (s < end) {
+            long stream = key.encrypt(counter);
+            for (int j = 0; s < end; ++j) {
+                dst[d++] = (byte) (src[s++] ^ (stream >>> ((7 - j) << 3)));
+            }
+        }
+    }
+
+    /**
+     * Encrypt or decrypt the remaining bytes of a buffer into another buffer, or the
+     * same buffer for in place processing. Both buffers are advanced by the number
+     * of processed bytes.
+     * @param key key
+     * @param position byte position of the source data, decides the counter
+     * @param src source buffer
+     * @param dst destination buffer, at least src.remaining() bytes must remain
+     */
+    public static void encryptCTR(Key key, long position, ByteBuffer src, ByteBuffer dst) {
+        int length = src.remaining();
+        if (position < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (dst.remaining() < length) {
+            throw new IllegalArgumentException("Destination buffer too small");
+        }
+        if (src.hasArray() && dst.hasArray()) {
+            encryptCTR(key, position, src.array(), src.arrayOffset() + src.position(), dst.array(), dst.arrayOffset() + dst.position(), length);
+            src.position(src.position() + length);
+            dst.position(dst.position() + length);
+            return;
+        }
+
+        // Whole blocks are read and written as longs, in big-endian order to match the keystream
+        boolean srcBigEndian = src.order() == ByteOrder.BIG_ENDIAN;
+        boolean dstBigEndian = dst.order() == ByteOrder.BIG_ENDIAN;
+        long counter = position >>> 3;
+        int skip = (int) (position & (BLOCK_SIZE - 1));
+        int remaining = length;
+        if (skip != 0 && remaining > 0) {
+            long stream = key.encrypt(counter++);
+            for (int j = skip; j < BLOCK_SIZE && remaining > 0; ++j, --remaining) {
+                dst.put((byte) (src.get() ^ (stream >>> ((7 - j) << 3))));
+            }
+        }
+        while (remaining >= BLOCK_SIZE) {
+            long stream = key.encrypt(counter++);
+            long v = src.getLong();
+            if (!srcBigEndian) {
+                v = Long.reverseBytes(v);
+            }
+            v ^= stream;
+            dst.putLong(dstBigEndian ? v : Long.reverseBytes(v));
+            remaining -= BLOCK_SIZE;
+        }
+        if (remaining > 0) {
+            long stream = key.encrypt(counter);
+            for (int j = 0; remaining > 0; ++j, --remaining) {
+                dst.put((byte) (src.get() ^ (stream >>> ((7 - j) << 3))));
             }
-            result[i] = (byte) ((data[i] ^ enc_counter[i % 8]) & 0xff);
         }
+    }
+
+    /**
+     * Encrypt or decrypt data in place, split into ranges that are processed in parallel
+     * @param key key
+     * @param data data to process
+     * @param offset offset of the data in the array, counter zero
+     * @param length number of bytes to process
+     * @param executor executor to run the ranges on
+     * @param rangeSize size of each range, rounded up to whole blocks
+     */
+    public static void encryptCTR(final Key key, final byte[] data, final int offset, int length, ExecutorService executor, int rangeSize) {
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("Invalid range size " + rangeSize);
+        }
+        rangeSize = (rangeSize + BLOCK_SIZE - 1) & ~(BLOCK_SIZE - 1);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int start = 0; start < length; start += rangeSize) {
+            final int position = start;
+            final int size = Math.min(rangeSize, length - start);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    encryptCTR(key, position, data, offset + position, data, offset + position, size);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Stateful encryption of a stream of data processed in consecutive chunks
+     */
+    public static final class CTRStream {
+        private final Key key;
+        private long position;
+
+        public CTRStream(Key key) {
+            this(key, 0);
+        }
+
+        public CTRStream(Key key, long position) {
+            this.key = key;
+            this.position = position;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public void setPosition(long position) {
+            this.position = position;
+        }
+
+        public void update(byte[] data, int offset, int length) {
+            update(data, offset, data, offset, length);
+        }
+
+        public void update(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length) {
+            encryptCTR(key, position, src, srcOffset, dst, dstOffset, length);
+            position += length;
+        }
+
+        public void update(ByteBuffer src, ByteBuffer dst) {
+            int length = src.remaining();
+            encryptCTR(key, position, src, dst);
+            position += length;
+        }
+    }
+
+    public static byte[] encryptCTR(byte[] data, byte[] key) {
+        return encryptCTR(data, new Key(key));
+    }
+
+    public static byte[] encryptCTR(byte[] data, Key key) {
+        byte[] result = new byte[data.length];
+        encryptCTR(key, 0, data, 0, result, 0, data.length);
         return result;
     }
 
     public static byte[] decryptCTR(byte[] data, byte[] key) {
         return encryptCTR(data, key);
     }
+
+    public static byte[] decryptCTR(byte[] data, Key key) {
+        return encryptCTR(data, key);
+    }
 }
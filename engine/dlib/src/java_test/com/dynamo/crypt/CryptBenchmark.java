@@ -0,0 +1,78 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.crypt;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Throughput benchmark for Crypt, run with:
+ * java -cp dlib.jar:. com.dynamo.crypt.CryptBenchmark [size in MB] [iterations]
+ */
+public class CryptBenchmark {
+
+    private interface Run {
+        void run();
+    }
+
+    private static void measure(String name, int size, int iterations, Run run) {
+        // Warm up
+        for (int i = 0; i < 3; ++i) {
+            run.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            run.run();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%-12s %8.1f MB/s", name, (double) size * iterations / seconds / (1 << 20)));
+    }
+
+    public static void main(String[] args) {
+        final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 16) << 20;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final byte[] rawKey = "aQj8CScgNP4VsfXK".getBytes();
+        final Crypt.Key key = new Crypt.Key(rawKey);
+        final byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(size);
+        direct.put(data);
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        measure("copy", size, iterations, new Run() {
+            public void run() {
+                Crypt.encryptCTR(data, rawKey);
+            }
+        });
+        measure("in place", size, iterations, new Run() {
+            public void run() {
+                Crypt.encryptCTR(key, 0, data, 0, data, 0, size);
+            }
+        });
+        measure("direct", size, iterations, new Run() {
+            public void run() {
+                direct.clear();
+                Crypt.encryptCTR(key, 0, direct, direct.duplicate());
+            }
+        });
+        measure("parallel x" + threads, size, iterations, new Run() {
+            public void run() {
+                Crypt.encryptCTR(key, data, 0, size, executor, 1 << 20);
+            }
+        });
+        executor.shutdown();
+    }
+}
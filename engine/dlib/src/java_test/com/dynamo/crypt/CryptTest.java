@@ -0,0 +1,171 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.crypt;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class CryptTest {
+
+    private static final byte[] KEY = "12345678abcdefgh".getBytes();
+
+    // Straightforward implementation of dmCrypt::EncryptXTeaCTR used as reference
+    private static byte[] referenceCTR(byte[] data, long position, byte[] key) {
+        int[] k = new int[4];
+        for (int i = 0; i < key.length; ++i) {
+            k[i >>> 2] |= (key[i] & 0xff) << ((3 - (i & 3)) << 3);
+        }
+        byte[] result = new byte[data.length];
+        for (int i = 0; i < data.length; ++i) {
+            long counter = (position + i) / 8;
+            int v0 = (int) (counter >>> 32);
+            int v1 = (int) counter;
+            int sum = 0;
+            for (int r = 0; r < 32; ++r) {
+                v0 += (((v1 << 4) ^ (v1 >>> 5)) + v1) ^ (sum + k[sum & 3]);
+                sum += 0x9e3779b9;
+                v1 += (((v0 << 4) ^ (v0 >>> 5)) + v0) ^ (sum + k[(sum >>> 11) & 3]);
+            }
+            int j = (int) ((position + i) % 8);
+            int word = j < 4 ? v0 : v1;
+            result[i] = (byte) (data[i] ^ (word >>> ((3 - (j & 3)) << 3)));
+        }
+        return result;
+    }
+
+    private static byte[] randomData(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testSameAsEngine() {
+        // Same as the dmCrypt.SameAsLibMCrypt test in test_crypt.cpp
+        byte[] expected = new byte[] { (byte) 0x81, (byte) 0xb4, (byte) 0xa1, 0x04, 0x2d, (byte) 0xac, (byte) 0xe5, (byte) 0xcb, 0x77,
+                (byte) 0x89, (byte) 0xec, 0x11, 0x61, (byte) 0xc3, (byte) 0xdc, (byte) 0xfa, (byte) 0xb9, (byte) 0xa3, 0x25 };
+        byte[] data = "ABCDEFGH12345678XYZ".getBytes();
+        assertArrayEquals(expected, Crypt.encryptCTR(data, KEY));
+        assertArrayEquals(data, Crypt.decryptCTR(expected, KEY));
+        assertArrayEquals(expected, referenceCTR(data, 0, KEY));
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(4711);
+        for (int size = 0; size < 300; ++size) {
+            byte[] key = randomData(random, 1 + random.nextInt(16));
+            byte[] data = randomData(random, size);
+            byte[] expected = referenceCTR(data, 0, key);
+            assertArrayEquals(expected, Crypt.encryptCTR(data, key));
+
+            // In place, inside a larger array
+            byte[] buffer = new byte[size + 6];
+            System.arraycopy(data, 0, buffer, 3, size);
+            Crypt.encryptCTR(new Crypt.Key(key), 0, buffer, 3, buffer, 3, size);
+            assertArrayEquals(expected, Arrays.copyOfRange(buffer, 3, 3 + size));
+            assertArrayEquals(new byte[3], Arrays.copyOfRange(buffer, 0, 3));
+            assertArrayEquals(new byte[3], Arrays.copyOfRange(buffer, 3 + size, 6 + size));
+        }
+    }
+
+    @Test
+    public void testRanges() {
+        Random random = new Random(17);
+        Crypt.Key key = new Crypt.Key(KEY);
+        byte[] data = randomData(random, 1000);
+        byte[] expected = referenceCTR(data, 0, KEY);
+        for (int i = 0; i < 100; ++i) {
+            int start = random.nextInt(data.length);
+            int length = random.nextInt(data.length - start);
+            byte[] result = new byte[length];
+            Crypt.encryptCTR(key, start, data, start, result, 0, length);
+            assertArrayEquals(Arrays.copyOfRange(expected, start, start + length), result);
+        }
+    }
+
+    @Test
+    public void testStream() {
+        Random random = new Random(1);
+        byte[] data = randomData(random, 5000);
+        byte[] expected = referenceCTR(data, 0, KEY);
+        Crypt.CTRStream stream = new Crypt.CTRStream(new Crypt.Key(KEY));
+        byte[] result = Arrays.copyOf(data, data.length);
+        int offset = 0;
+        while (offset < result.length) {
+            int length = Math.min(random.nextInt(37), result.length - offset);
+            stream.update(result, offset, length);
+            offset += length;
+        }
+        assertArrayEquals(expected, result);
+    }
+
+    @Test
+    public void testByteBuffer() {
+        Random random = new Random(2);
+        Crypt.Key key = new Crypt.Key(KEY);
+        byte[] data = randomData(random, 1003);
+        byte[] expected = referenceCTR(data, 5, KEY);
+        ByteOrder[] orders = new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN };
+        for (ByteOrder srcOrder : orders) {
+            for (ByteOrder dstOrder : orders) {
+                ByteBuffer src = ByteBuffer.allocateDirect(data.length).order(srcOrder);
+                src.put(data).flip();
+                ByteBuffer dst = ByteBuffer.allocateDirect(data.length).order(dstOrder);
+                Crypt.encryptCTR(key, 5, src, dst);
+                byte[] result = new byte[data.length];
+                dst.flip();
+                dst.get(result);
+                assertArrayEquals(expected, result);
+            }
+        }
+
+        // Heap buffer, in place
+        ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(data, data.length));
+        new Crypt.CTRStream(key, 5).update(buffer, buffer.duplicate());
+        assertArrayEquals(expected, buffer.array());
+    }
+
+    @Test
+    public void testCounterCarry() {
+        // The counter is 64 bits, block 2^32 must not wrap around to block 0
+        long position = (1L << 32) * 8 - 4;
+        byte[] data = new byte[16];
+        byte[] result = new byte[16];
+        Crypt.encryptCTR(new Crypt.Key(KEY), position, data, 0, result, 0, data.length);
+        assertArrayEquals(referenceCTR(data, position, KEY), result);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        Random random = new Random(3);
+        byte[] data = randomData(random, 100003);
+        byte[] expected = referenceCTR(data, 0, KEY);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            byte[] result = Arrays.copyOf(data, data.length);
+            Crypt.encryptCTR(new Crypt.Key(KEY), result, 0, result.length, executor, 4099);
+            assertArrayEquals(expected, result);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}